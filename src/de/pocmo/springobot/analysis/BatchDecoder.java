@@ -0,0 +1,141 @@
+/*
+   Copyright 2011 Sebastian Kaspari
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package de.pocmo.springobot.analysis;
+
+import de.pocmo.springobot.sensors.Frame;
+import de.pocmo.springobot.sensors.StreamLayout;
+
+
+/**
+ * Decodes many frames of a known layout at once into a FrameBatch.
+ *
+ * Frames are validated first (header, checksum and layout). Runs of
+ * back-to-back valid frames are then decoded column by column: for
+ * every packet one loop reads the packet's bytes at a fixed stride,
+ * with no objects and no per-value branches. Bytes that do not belong
+ * to a valid frame of the layout are skipped.
+ *
+ * @author Sebastian Kaspari <s.kaspari@gmail.com>
+ */
+public class BatchDecoder
+{
+    private final StreamLayout layout;
+    private final int frameSize;
+
+    /**
+     * Create a new decoder.
+     *
+     * @param layout The layout of the frames to decode.
+     */
+    public BatchDecoder(StreamLayout layout)
+    {
+        this.layout    = layout;
+        this.frameSize = layout.getFrameSize();
+    }
+
+    /**
+     * Decode frames from a buffer until the batch is full or the buffer
+     * is exhausted.
+     *
+     * @param buffer Buffer containing recorded frames.
+     * @param offset Position to start at.
+     * @param limit  End of the valid data in the buffer.
+     * @param batch  The batch to fill (its previous content is
+     *               replaced).
+     * @return Position after the last byte consumed. Call again from
+     *         there once the batch has been processed; a trailing
+     *         incomplete frame is not consumed.
+     */
+    public int decode(byte[] buffer, int offset, int limit, FrameBatch batch)
+    {
+        if (!layout.equals(batch.getLayout())) {
+            throw new IllegalArgumentException("Batch has another layout");
+        }
+
+        int rows = 0;
+        int position = offset;
+
+        while (rows < batch.capacity() && limit - position >= frameSize) {
+            // Find the next run of back-to-back frames
+            int run = 0;
+
+            while (rows + run < batch.capacity() && isFrame(buffer, position + run * frameSize, limit)) {
+                run++;
+            }
+
+            if (run == 0) {
+                position++;
+                continue;
+            }
+
+            decodeRun(buffer, position, run, batch, rows);
+
+            rows     += run;
+            position += run * frameSize;
+        }
+
+        batch.setSize(rows);
+
+        return position;
+    }
+
+    private boolean isFrame(byte[] buffer, int offset, int limit)
+    {
+        return limit - offset >= frameSize
+            && Frame.isValid(buffer, offset, limit)
+            && layout.matches(buffer, offset);
+    }
+
+    /**
+     * Decode back-to-back frames into the columns, starting at the
+     * given row.
+     */
+    private void decodeRun(byte[] buffer, int start, int count, FrameBatch batch, int row)
+    {
+        byte[][] bytes   = batch.bytes();
+        short[][] shorts = batch.shorts();
+        char[][] chars   = batch.chars();
+
+        int stride = frameSize;
+
+        for (int i = 0; i < layout.size(); i++) {
+            int packetId = layout.getPacketId(i);
+            int position = start + layout.getOffset(packetId);
+
+            if (bytes[packetId] != null) {
+                byte[] column = bytes[packetId];
+
+                for (int j = 0; j < count; j++) {
+                    column[row + j] = buffer[position + j * stride];
+                }
+            } else if (shorts[packetId] != null) {
+                short[] column = shorts[packetId];
+
+                for (int j = 0; j < count; j++) {
+                    int p = position + j * stride;
+                    column[row + j] = (short) ((buffer[p] << 8) | (buffer[p + 1] & 0xFF));
+                }
+            } else {
+                char[] column = chars[packetId];
+
+                for (int j = 0; j < count; j++) {
+                    int p = position + j * stride;
+                    column[row + j] = (char) ((buffer[p] << 8) | (buffer[p + 1] & 0xFF));
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,177 @@
+/*
+   Copyright 2011 Sebastian Kaspari
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package de.pocmo.springobot.analysis;
+
+import de.pocmo.springobot.sensors.Frame;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+
+/**
+ * Runs a FrameAnalysis over a recorded sensor stream capture (the raw
+ * bytes read from the robot) using several threads.
+ *
+ * The capture is split at frame boundaries into more parts than there
+ * are threads, every part is decoded into its own partial result and
+ * the partial results are merged in capture order.
+ *
+ * Recorded captures carry no receive times, so frames are decoded with
+ * a timestamp of 0. Frames are streamed every 15 ms, which can be used
+ * to derive times from frame counts.
+ *
+ * @author Sebastian Kaspari <s.kaspari@gmail.com>
+ */
+public class CaptureAnalyzer
+{
+    /**
+     * Number of parts per thread, to balance uneven parts.
+     */
+    private static final int PARTS_PER_THREAD = 4;
+
+    /**
+     * Number of bytes read at once.
+     */
+    private static final int READ_SIZE = 1024 * 1024;
+
+    private int threads;
+
+    /**
+     * Create a new analyzer using one thread per processor.
+     */
+    public CaptureAnalyzer()
+    {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Create a new analyzer.
+     *
+     * @param threads Number of threads.
+     */
+    public CaptureAnalyzer(int threads)
+    {
+        if (threads < 1) {
+            throw new IllegalArgumentException("Number of threads must be positive");
+        }
+
+        this.threads = threads;
+    }
+
+    /**
+     * Run the analysis over the capture.
+     *
+     * @param capture  The capture file.
+     * @param analysis The analysis to run.
+     * @return The merged result of all parts.
+     * @throws IOException
+     */
+    public <R> R analyze(final File capture, final FrameAnalysis<R> analysis) throws IOException
+    {
+        final long[] boundaries = CaptureSplitter.split(capture, threads * PARTS_PER_THREAD);
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+
+        try {
+            List<Future<R>> results = new ArrayList<Future<R>>();
+
+            for (int i = 0; i < boundaries.length - 1; i++) {
+                final long start = boundaries[i];
+                final long end   = boundaries[i + 1];
+
+                results.add(executor.submit(new Callable<R>() {
+                    public R call() throws IOException
+                    {
+                        return analyzePart(capture, analysis, start, end);
+                    }
+                }));
+            }
+
+            R result = analysis.create();
+
+            for (Future<R> partial : results) {
+                result = analysis.merge(result, partial.get());
+            }
+
+            return result;
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Analysis interrupted");
+        } catch (ExecutionException exception) {
+            if (exception.getCause() instanceof IOException) {
+                throw (IOException) exception.getCause();
+            }
+
+            throw new RuntimeException(exception.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Decode all frames starting between start and end.
+     */
+    private static <R> R analyzePart(File capture, FrameAnalysis<R> analysis, long start, long end) throws IOException
+    {
+        R result = analysis.create();
+        Frame frame = new Frame();
+
+        RandomAccessFile file = new RandomAccessFile(capture, "r");
+
+        try {
+            long length = file.length();
+            byte[] buffer = new byte[READ_SIZE + Frame.MAX_SIZE];
+            long position = start;
+
+            while (position < end) {
+                // Read past the end of the part to complete its last frame
+                int limit = (int) Math.min(buffer.length, length - position);
+                int searchEnd = (int) Math.min(READ_SIZE, end - position);
+
+                file.seek(position);
+                file.readFully(buffer, 0, limit);
+
+                int offset = 0;
+
+                while (offset < searchEnd) {
+                    int size = frame.read(buffer, offset, limit, 0);
+
+                    if (size == -1) {
+                        offset++;
+                        continue;
+                    }
+
+                    analysis.accept(result, frame, position + offset);
+                    offset += size;
+                }
+
+                position += offset;
+            }
+        } finally {
+            file.close();
+        }
+
+        return result;
+    }
+}
@@ -0,0 +1,145 @@
+/*
+   Copyright 2011 Sebastian Kaspari
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package de.pocmo.springobot.analysis;
+
+import de.pocmo.springobot.sensors.Frame;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+
+/**
+ * Splits a recorded sensor stream capture into parts that start at
+ * frame boundaries.
+ *
+ * A position is accepted as a frame boundary if a frame with a valid
+ * header and checksum starts there and is directly followed by another
+ * valid frame (or the end of the capture). Data bytes that happen to
+ * look like a frame header are therefore not mistaken for one.
+ *
+ * @author Sebastian Kaspari <s.kaspari@gmail.com>
+ */
+public class CaptureSplitter
+{
+    /**
+     * Number of bytes searched at once.
+     */
+    private static final int WINDOW = 64 * 1024;
+
+    /**
+     * Split a capture into (at most) the given number of parts.
+     *
+     * @param capture The capture file.
+     * @param parts   Number of parts.
+     * @return Start positions of the parts followed by the length of
+     *         the file.
+     * @throws IOException
+     */
+    public static long[] split(File capture, int parts) throws IOException
+    {
+        if (parts < 1) {
+            throw new IllegalArgumentException("Number of parts must be positive");
+        }
+
+        RandomAccessFile file = new RandomAccessFile(capture, "r");
+
+        try {
+            long length = file.length();
+            long[] boundaries = new long[parts + 1];
+            int count = 0;
+
+            boundaries[count++] = findBoundary(file, 0, length);
+
+            for (int i = 1; i < parts; i++) {
+                long boundary = findBoundary(file, Math.max(length / parts * i, boundaries[count - 1] + 1), length);
+
+                if (boundary >= length) {
+                    break;
+                }
+
+                boundaries[count++] = boundary;
+            }
+
+            boundaries[count++] = length;
+
+            long[] result = new long[count];
+            System.arraycopy(boundaries, 0, result, 0, count);
+
+            return result;
+        } finally {
+            file.close();
+        }
+    }
+
+    /**
+     * Find the first frame boundary at or after the given position.
+     *
+     * @param file     The capture file.
+     * @param position Position to start searching at.
+     * @param length   Length of the capture.
+     * @return Position of the boundary or length if there is none.
+     * @throws IOException
+     */
+    public static long findBoundary(RandomAccessFile file, long position, long length) throws IOException
+    {
+        byte[] buffer = new byte[WINDOW + 2 * Frame.MAX_SIZE];
+
+        while (position < length) {
+            int limit = (int) Math.min(buffer.length, length - position);
+
+            file.seek(position);
+            file.readFully(buffer, 0, limit);
+
+            int searchEnd = position + limit >= length ? limit : WINDOW;
+
+            for (int offset = 0; offset < searchEnd; offset++) {
+                if (isBoundary(buffer, offset, limit, position + limit >= length)) {
+                    return position + offset;
+                }
+            }
+
+            position += searchEnd;
+        }
+
+        return length;
+    }
+
+    /**
+     * Check whether a frame boundary is at the given offset.
+     *
+     * @param buffer Buffer to check.
+     * @param offset Offset of the possible frame header.
+     * @param limit  End of the valid data in the buffer.
+     * @param last   Whether limit is the end of the capture.
+     * @return True if a valid frame followed by a valid frame (or the
+     *         end of the capture) starts at offset.
+     */
+    static boolean isBoundary(byte[] buffer, int offset, int limit, boolean last)
+    {
+        if (!Frame.isValid(buffer, offset, limit)) {
+            return false;
+        }
+
+        int next = offset + Frame.HEADER_SIZE + (buffer[offset + 1] & 0xFF) + 1;
+
+        if (next == limit && last) {
+            return true;
+        }
+
+        return Frame.isValid(buffer, next, limit);
+    }
+}
@@ -0,0 +1,60 @@
+/*
+   Copyright 2011 Sebastian Kaspari
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package de.pocmo.springobot.analysis;
+
+import de.pocmo.springobot.sensors.Frame;
+
+
+/**
+ * An analysis over the frames of a recorded capture that can be run on
+ * parts of the capture in parallel.
+ *
+ * Every part gets its own result from create(). Results of adjacent
+ * parts are combined with merge(), always the earlier part on the left,
+ * so order-dependent analyses (like odometry) can be merged correctly.
+ *
+ * @author Sebastian Kaspari <s.kaspari@gmail.com>
+ * @param <R> Type of the (partial) result.
+ */
+public interface FrameAnalysis<R>
+{
+    /**
+     * Create an empty result for a part of the capture.
+     *
+     * @return The empty result.
+     */
+    R create();
+
+    /**
+     * Add a frame to a partial result.
+     *
+     * The frame instance is reused for the next frame.
+     *
+     * @param result   The partial result of the current part.
+     * @param frame    The frame.
+     * @param position Position of the frame in the capture (in bytes).
+     */
+    void accept(R result, Frame frame, long position);
+
+    /**
+     * Combine the results of two adjacent parts.
+     *
+     * @param left  Result of the earlier part.
+     * @param right Result of the later part.
+     * @return The combined result.
+     */
+    R merge(R left, R right);
+}
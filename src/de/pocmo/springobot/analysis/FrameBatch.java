@@ -0,0 +1,198 @@
+/*
+   Copyright 2011 Sebastian Kaspari
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package de.pocmo.springobot.analysis;
+
+import de.pocmo.springobot.sensors.Sensor;
+import de.pocmo.springobot.sensors.StreamLayout;
+
+
+/**
+ * Decoded values of many frames with the same layout, one primitive
+ * array (column) per packet.
+ *
+ * Column types follow the packet encoding:
+ *
+ *  - 1 byte packets: byte[] (raw byte, use & 0xFF for unsigned packets)
+ *  - 2 byte signed packets (like DISTANCE): short[]
+ *  - 2 byte unsigned packets (like VOLTAGE): char[]
+ *
+ * A batch is filled by BatchDecoder and can be reused for the next
+ * batch.
+ *
+ * @author Sebastian Kaspari <s.kaspari@gmail.com>
+ */
+public class FrameBatch
+{
+    private final StreamLayout layout;
+    private final int capacity;
+
+    private final byte[][] bytes   = new byte[StreamLayout.MAX_PACKET_ID + 1][];
+    private final short[][] shorts = new short[StreamLayout.MAX_PACKET_ID + 1][];
+    private final char[][] chars   = new char[StreamLayout.MAX_PACKET_ID + 1][];
+
+    private int size;
+
+    /**
+     * Create a new batch.
+     *
+     * @param layout   The layout of the frames.
+     * @param capacity Maximum number of frames.
+     */
+    public FrameBatch(StreamLayout layout, int capacity)
+    {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be positive");
+        }
+
+        this.layout   = layout;
+        this.capacity = capacity;
+
+        for (int i = 0; i < layout.size(); i++) {
+            int packetId = layout.getPacketId(i);
+
+            if (layout.getWidth(packetId) == 1) {
+                bytes[packetId] = new byte[capacity];
+            } else if (Sensor.isSigned(packetId)) {
+                shorts[packetId] = new short[capacity];
+            } else {
+                chars[packetId] = new char[capacity];
+            }
+        }
+    }
+
+    /**
+     * Get the layout of the frames in this batch.
+     *
+     * @return The layout.
+     */
+    public StreamLayout getLayout()
+    {
+        return layout;
+    }
+
+    /**
+     * Get the maximum number of frames.
+     *
+     * @return Capacity in frames.
+     */
+    public int capacity()
+    {
+        return capacity;
+    }
+
+    /**
+     * Get the number of frames in this batch. Columns are only valid
+     * up to this index.
+     *
+     * @return Number of frames.
+     */
+    public int size()
+    {
+        return size;
+    }
+
+    /**
+     * Get the column of a 1 byte packet.
+     *
+     * @param packetId Sensor packet id.
+     * @return The column.
+     */
+    public byte[] getBytes(int packetId)
+    {
+        return column(bytes, packetId, "1 byte");
+    }
+
+    /**
+     * Get the column of a signed 2 byte packet.
+     *
+     * @param packetId Sensor packet id.
+     * @return The column.
+     */
+    public short[] getShorts(int packetId)
+    {
+        return column(shorts, packetId, "signed 2 byte");
+    }
+
+    /**
+     * Get the column of an unsigned 2 byte packet.
+     *
+     * @param packetId Sensor packet id.
+     * @return The column.
+     */
+    public char[] getChars(int packetId)
+    {
+        return column(chars, packetId, "unsigned 2 byte");
+    }
+
+    /**
+     * Get a decoded value (slower than reading the columns directly).
+     *
+     * @param packetId Sensor packet id.
+     * @param row      Index of the frame.
+     * @return The value, sign-extended for signed packets.
+     */
+    public int get(int packetId, int row)
+    {
+        if (row < 0 || row >= size) {
+            throw new IndexOutOfBoundsException("Row " + row + " of " + size);
+        }
+
+        if (packetId >= 0 && packetId <= StreamLayout.MAX_PACKET_ID) {
+            if (bytes[packetId] != null) {
+                return Sensor.isSigned(packetId) ? bytes[packetId][row] : bytes[packetId][row] & 0xFF;
+            }
+
+            if (shorts[packetId] != null) {
+                return shorts[packetId][row];
+            }
+
+            if (chars[packetId] != null) {
+                return chars[packetId][row];
+            }
+        }
+
+        throw new IllegalArgumentException("Packet not part of batch: " + packetId);
+    }
+
+    byte[][] bytes()
+    {
+        return bytes;
+    }
+
+    short[][] shorts()
+    {
+        return shorts;
+    }
+
+    char[][] chars()
+    {
+        return chars;
+    }
+
+    void setSize(int size)
+    {
+        this.size = size;
+    }
+
+    private <T> T column(T[] columns, int packetId, String type)
+    {
+        if (packetId < 0 || packetId > StreamLayout.MAX_PACKET_ID || columns[packetId] == null) {
+            throw new IllegalArgumentException("No " + type + " column for packet: " + packetId);
+        }
+
+        return columns[packetId];
+    }
+}
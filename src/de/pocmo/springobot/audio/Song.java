@@ -0,0 +1,125 @@
+/*
+   Copyright 2011 Sebastian Kaspari
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package de.pocmo.springobot.audio;
+
+import java.util.Arrays;
+
+
+/**
+ * A song of up to 16 notes that can be stored on the robot.
+ *
+ * Songs are compared by their notes, so two songs with the same notes
+ * share a song slot (see SongManager).
+ *
+ * @author Sebastian Kaspari <s.kaspari@gmail.com>
+ */
+public final class Song
+{
+    /**
+     * Maximum number of notes of a song.
+     */
+    public static final int MAX_NOTES = 16;
+
+    private final int[] notes;
+    private final long duration;
+
+    /**
+     * Create a new song.
+     *
+     * @param notes Pairs of note number (31 - 127) and duration in
+     *              1/64ths of a second (0 - 255).
+     */
+    public Song(int... notes)
+    {
+        if (notes.length == 0 || notes.length > 2 * MAX_NOTES || notes.length % 2 != 0) {
+            throw new IllegalArgumentException("Song must have 1 to 16 notes with durations");
+        }
+
+        int ticks = 0;
+
+        for (int i = 0; i < notes.length; i += 2) {
+            if (notes[i] < 31 || notes[i] > 127) {
+                throw new IllegalArgumentException("Note out of range (31 to 127): " + notes[i]);
+            }
+
+            if (notes[i + 1] < 0 || notes[i + 1] > 255) {
+                throw new IllegalArgumentException("Duration out of range (0 to 255): " + notes[i + 1]);
+            }
+
+            ticks += notes[i + 1];
+        }
+
+        this.notes    = notes.clone();
+        this.duration = ticks * 1000000000L / 64;
+    }
+
+    /**
+     * Get the notes of the song.
+     *
+     * @return Pairs of note number and duration.
+     */
+    public int[] getNotes()
+    {
+        return notes.clone();
+    }
+
+    /**
+     * Get the number of notes.
+     *
+     * @return Number of notes (1 - 16).
+     */
+    public int size()
+    {
+        return notes.length / 2;
+    }
+
+    /**
+     * Get the time it takes to play the song.
+     *
+     * @return Duration in nanoseconds.
+     */
+    public long getDuration()
+    {
+        return duration;
+    }
+
+    /**
+     * Get the number of bytes needed to store the song on the robot.
+     *
+     * @return Size of the Song command in bytes.
+     */
+    public int getUploadSize()
+    {
+        return 3 + notes.length;
+    }
+
+    int[] notes()
+    {
+        return notes;
+    }
+
+    @Override
+    public boolean equals(Object object)
+    {
+        return object instanceof Song && Arrays.equals(notes, ((Song) object).notes);
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return Arrays.hashCode(notes);
+    }
+}
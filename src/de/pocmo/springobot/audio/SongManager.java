@@ -0,0 +1,350 @@
+/*
+   Copyright 2011 Sebastian Kaspari
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package de.pocmo.springobot.audio;
+
+import de.pocmo.springobot.clock.Clock;
+import de.pocmo.springobot.control.RobotWriter;
+import de.pocmo.springobot.sensors.Frame;
+import de.pocmo.springobot.sensors.FrameListener;
+import de.pocmo.springobot.sensors.Sensor;
+
+import java.util.HashMap;
+import java.util.Map;
+
+
+/**
+ * Plays songs using the song slots of the robot as a cache.
+ *
+ * The robot keeps up to 16 songs. A song is only uploaded if it is not
+ * stored in a slot already, so playing a cue that has been played
+ * before costs a 2 byte Play Song command instead of up to 35 bytes.
+ * If all slots are taken the least recently played song is replaced,
+ * but never the song that is currently playing.
+ *
+ * The robot ignores Play Song while a song is playing. The manager
+ * expects a song to play for its duration; register it as listener of
+ * a stream containing SONG_PLAYING (and SONG_NUMBER) to follow the
+ * state reported by the robot instead.
+ *
+ * Songs stored by other code are not known to the manager. Give it its
+ * own range of slots or call invalidate() afterwards.
+ *
+ * @author Sebastian Kaspari <s.kaspari@gmail.com>
+ */
+public class SongManager implements FrameListener
+{
+    /**
+     * Number of song slots of the robot.
+     */
+    public static final int SLOTS = 16;
+
+    /**
+     * Time in nanoseconds the robot may need to start a song. Frames
+     * received earlier may still report the state before Play Song.
+     */
+    private static final long START_DELAY = 50000000L;
+
+    /**
+     * Time in nanoseconds a song reported by the robot is expected to
+     * keep playing without further frames.
+     */
+    private static final long REPORT_HOLD = 100000000L;
+
+    private final RobotWriter writer;
+    private final Clock clock;
+
+    private final int firstSlot;
+
+    /**
+     * Song stored in each managed slot or null.
+     */
+    private final Song[] songs;
+
+    /**
+     * Play counter value of the last use of each slot.
+     */
+    private final long[] lastUsed;
+
+    private final Map<Song, Integer> slots = new HashMap<Song, Integer>();
+
+    private long uses;
+
+    private int playingSlot = -1;
+    private long playingUntil;
+    private long playStarted;
+    private boolean started;
+
+    private long plays;
+    private long uploads;
+    private long rejected;
+
+    /**
+     * Create a new song manager using all song slots.
+     *
+     * @param writer The writer to send songs with.
+     */
+    public SongManager(RobotWriter writer)
+    {
+        this(writer, 0, SLOTS);
+    }
+
+    /**
+     * Create a new song manager using a range of song slots.
+     *
+     * @param writer    The writer to send songs with.
+     * @param firstSlot First slot to use (0 - 15).
+     * @param slotCount Number of slots to use.
+     */
+    public SongManager(RobotWriter writer, int firstSlot, int slotCount)
+    {
+        if (firstSlot < 0 || slotCount < 1 || firstSlot + slotCount > SLOTS) {
+            throw new IllegalArgumentException("Invalid slot range: " + firstSlot + " + " + slotCount);
+        }
+
+        this.writer    = writer;
+        this.clock     = writer.getClock();
+        this.firstSlot = firstSlot;
+        this.songs     = new Song[slotCount];
+        this.lastUsed  = new long[slotCount];
+    }
+
+    /**
+     * Play a song, uploading it first if it is not stored on the robot.
+     *
+     * @param song The song.
+     * @return True if the song has been started, false if another song
+     *         is still playing or writing to the robot failed.
+     */
+    public synchronized boolean play(Song song)
+    {
+        long now = clock.nanoTime();
+
+        if (isPlaying(now)) {
+            rejected++;
+            return false;
+        }
+
+        int slot = load(song, now);
+
+        if (slot == -1 || !writer.playSong(slot)) {
+            return false;
+        }
+
+        plays++;
+
+        playingSlot  = slot;
+        playStarted  = now;
+        playingUntil = now + song.getDuration();
+        started      = true;
+
+        return true;
+    }
+
+    /**
+     * Store a song on the robot without playing it, for example to
+     * upload cues while the link is idle.
+     *
+     * @param song The song.
+     * @return The slot the song is stored in or -1 if the upload
+     *         failed.
+     */
+    public synchronized int preload(Song song)
+    {
+        return load(song, clock.nanoTime());
+    }
+
+    /**
+     * Check whether a song is currently playing.
+     *
+     * @return True if a song is playing.
+     */
+    public synchronized boolean isPlaying()
+    {
+        return isPlaying(clock.nanoTime());
+    }
+
+    /**
+     * Get the slot of the song currently playing.
+     *
+     * @return Slot (0 - 15) or -1 if no song is playing.
+     */
+    public synchronized int getPlayingSlot()
+    {
+        return isPlaying(clock.nanoTime()) ? playingSlot : -1;
+    }
+
+    /**
+     * Get the slot a song is stored in.
+     *
+     * @param song The song.
+     * @return Slot (0 - 15) or -1 if the song is not stored.
+     */
+    public synchronized int getSlot(Song song)
+    {
+        Integer index = slots.get(song);
+
+        return index != null ? firstSlot + index : -1;
+    }
+
+    /**
+     * Forget which songs are stored, for example after the robot has
+     * been power cycled or other code used the slots.
+     */
+    public synchronized void invalidate()
+    {
+        slots.clear();
+
+        for (int i = 0; i < songs.length; i++) {
+            songs[i]    = null;
+            lastUsed[i] = 0;
+        }
+    }
+
+    /**
+     * Update the playing state with the SONG_PLAYING and SONG_NUMBER
+     * packets of a frame.
+     *
+     * @param frame The frame.
+     */
+    public synchronized void frameReceived(Frame frame)
+    {
+        if (!frame.contains(Sensor.SONG_PLAYING)) {
+            return;
+        }
+
+        long time = frame.getTimestamp();
+
+        if (started && time - playStarted < START_DELAY) {
+            return;
+        }
+
+        if (frame.get(Sensor.SONG_PLAYING) == 0) {
+            playingUntil = time;
+            return;
+        }
+
+        if (frame.contains(Sensor.SONG_NUMBER)) {
+            playingSlot = frame.get(Sensor.SONG_NUMBER);
+        }
+
+        playingUntil = Math.max(playingUntil, time + REPORT_HOLD);
+    }
+
+    /**
+     * Get the number of songs started.
+     *
+     * @return Number of Play Song commands sent.
+     */
+    public synchronized long getPlays()
+    {
+        return plays;
+    }
+
+    /**
+     * Get the number of songs uploaded.
+     *
+     * @return Number of Song commands sent.
+     */
+    public synchronized long getUploads()
+    {
+        return uploads;
+    }
+
+    /**
+     * Get the number of songs not started because another song was
+     * playing.
+     *
+     * @return Number of rejected plays.
+     */
+    public synchronized long getRejected()
+    {
+        return rejected;
+    }
+
+    private boolean isPlaying(long now)
+    {
+        return now - playingUntil < 0;
+    }
+
+    /**
+     * Find or upload a song and mark its slot as used.
+     *
+     * @return The slot of the song or -1 if the upload failed.
+     */
+    private int load(Song song, long now)
+    {
+        Integer stored = slots.get(song);
+        int index;
+
+        if (stored != null) {
+            index = stored;
+        } else {
+            index = evict(now);
+
+            boolean written = writer.song(firstSlot + index, song.notes());
+
+            // The slot may hold part of the new song after a failed
+            // write, so the old song is gone either way
+            if (songs[index] != null) {
+                slots.remove(songs[index]);
+                songs[index] = null;
+            }
+
+            if (!written) {
+                return -1;
+            }
+
+            uploads++;
+
+            songs[index] = song;
+            slots.put(song, index);
+        }
+
+        lastUsed[index] = ++uses;
+
+        return firstSlot + index;
+    }
+
+    /**
+     * Choose the slot to store a new song in: a free slot or the least
+     * recently used one that is not playing.
+     */
+    private int evict(long now)
+    {
+        int playing = isPlaying(now) ? playingSlot - firstSlot : -1;
+        int victim = -1;
+
+        for (int i = 0; i < songs.length; i++) {
+            if (i == playing) {
+                continue;
+            }
+
+            if (songs[i] == null) {
+                return i;
+            }
+
+            if (victim == -1 || lastUsed[i] < lastUsed[victim]) {
+                victim = i;
+            }
+        }
+
+        if (victim == -1) {
+            throw new IllegalStateException("No song slot available while a song is playing");
+        }
+
+        return victim;
+    }
+}
@@ -0,0 +1,57 @@
+/*
+   Copyright 2011 Sebastian Kaspari
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package de.pocmo.springobot.behavior;
+
+import de.pocmo.springobot.sensors.Frame;
+
+
+/**
+ * A behavior run by the BehaviorArbiter, like cliff avoidance, wall
+ * following or teleoperation.
+ *
+ * @author Sebastian Kaspari <s.kaspari@gmail.com>
+ */
+public interface Behavior
+{
+    /**
+     * Get the sensor packets this behavior reads. The behavior is only
+     * evaluated for frames containing all of them.
+     *
+     * @return Sensor packet ids (see Sensor).
+     */
+    public int[] getPacketIds();
+
+    /**
+     * Get the priority of this behavior. If several behaviors want to
+     * control the wheels, the one with the highest priority wins.
+     *
+     * @return The priority.
+     */
+    public int getPriority();
+
+    /**
+     * Evaluate the behavior for a frame.
+     *
+     * Called once for every frame, whether the behavior won the last
+     * time or not. Must not block and should not allocate.
+     *
+     * @param frame   The frame.
+     * @param command Set the wheel command here if the behavior wants
+     *                to control the wheels.
+     * @return True if the behavior wants to control the wheels.
+     */
+    public boolean evaluate(Frame frame, MotorCommand command);
+}
@@ -0,0 +1,248 @@
+/*
+   Copyright 2011 Sebastian Kaspari
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package de.pocmo.springobot.behavior;
+
+import de.pocmo.springobot.clock.Clock;
+import de.pocmo.springobot.control.RobotWriter;
+import de.pocmo.springobot.sensors.Frame;
+import de.pocmo.springobot.sensors.FrameListener;
+
+
+/**
+ * Subsumption-style arbitration of behaviors.
+ *
+ * Register as listener of the sensor stream. For every frame all
+ * behaviors whose packets are in the frame are evaluated. Of those
+ * that want to control the wheels, the one with the highest priority
+ * wins and its command is sent, unless it equals the last command sent
+ * (the robot keeps driving with the last command). So at most one
+ * command per frame is written. If no behavior wants control, the
+ * wheels are stopped once. Failed writes are repeated with the next
+ * frame.
+ *
+ * Evaluating a frame does not allocate. The time every behavior takes
+ * to evaluate is measured with the clock of the writer.
+ *
+ * Behaviors must be added before the stream starts.
+ *
+ * @author Sebastian Kaspari <s.kaspari@gmail.com>
+ */
+public class BehaviorArbiter implements FrameListener
+{
+    private final RobotWriter writer;
+    private final Clock clock;
+
+    // Behaviors sorted by priority (highest first) and their state
+    private Behavior[] behaviors = new Behavior[0];
+    private int[][] packetIds = new int[0][];
+    private MotorCommand[] commands = new MotorCommand[0];
+    private long[] evaluations = new long[0];
+    private long[] totalTimes = new long[0];
+    private long[] maxTimes = new long[0];
+
+    private final MotorCommand lastSent = new MotorCommand();
+
+    /**
+     * True if a wheel command may have reached the robot since the last
+     * stop, false once a stop has been written.
+     */
+    private boolean sent;
+
+    /**
+     * True if lastSent has been written and is what the wheels are
+     * doing.
+     */
+    private boolean current;
+
+    private volatile Behavior winner;
+    private volatile long sentCommands;
+
+    /**
+     * Create a new arbiter.
+     *
+     * @param writer The writer to send the winning commands with.
+     */
+    public BehaviorArbiter(RobotWriter writer)
+    {
+        this.writer = writer;
+        this.clock  = writer.getClock();
+    }
+
+    /**
+     * Add a behavior.
+     *
+     * @param behavior The behavior.
+     */
+    public synchronized void add(Behavior behavior)
+    {
+        int count = behaviors.length;
+        int index = count;
+
+        // Keep sorted by priority, equal priorities in insertion order
+        while (index > 0 && behaviors[index - 1].getPriority() < behavior.getPriority()) {
+            index--;
+        }
+
+        behaviors   = insert(behaviors, new Behavior[count + 1], index, behavior);
+        packetIds   = insert(packetIds, new int[count + 1][], index, behavior.getPacketIds().clone());
+        commands    = insert(commands, new MotorCommand[count + 1], index, new MotorCommand());
+        evaluations = new long[count + 1];
+        totalTimes  = new long[count + 1];
+        maxTimes    = new long[count + 1];
+    }
+
+    /**
+     * Evaluate all behaviors for a frame and send the winning command.
+     *
+     * @param frame The frame.
+     */
+    public synchronized void frameReceived(Frame frame)
+    {
+        int winning = -1;
+
+        for (int i = 0; i < behaviors.length; i++) {
+            if (!containsAll(frame, packetIds[i])) {
+                continue;
+            }
+
+            long start = clock.nanoTime();
+            boolean active = behaviors[i].evaluate(frame, commands[i]);
+            long time = clock.nanoTime() - start;
+
+            evaluations[i]++;
+            totalTimes[i] += time;
+
+            if (time > maxTimes[i]) {
+                maxTimes[i] = time;
+            }
+
+            if (active && winning == -1) {
+                winning = i;
+            }
+        }
+
+        if (winning == -1) {
+            winner = null;
+
+            // Keep trying with the next frames until the stop is written
+            if (sent && writer.stop()) {
+                sent    = false;
+                current = false;
+            }
+
+            return;
+        }
+
+        winner = behaviors[winning];
+
+        if (!current || !commands[winning].equals(lastSent)) {
+            // Even a failed write may have reached the robot in part
+            sent    = true;
+            current = commands[winning].sendTo(writer);
+
+            if (current) {
+                lastSent.set(commands[winning]);
+                sentCommands++;
+            }
+        }
+    }
+
+    /**
+     * Get the behavior that won the last frame.
+     *
+     * @return The behavior or null if no behavior wanted control.
+     */
+    public Behavior getWinner()
+    {
+        return winner;
+    }
+
+    /**
+     * Get the number of wheel commands sent (without stops).
+     *
+     * @return Number of commands.
+     */
+    public long getSentCommands()
+    {
+        return sentCommands;
+    }
+
+    /**
+     * Get the number of times a behavior has been evaluated.
+     *
+     * @param behavior The behavior.
+     * @return Number of evaluations.
+     */
+    public synchronized long getEvaluations(Behavior behavior)
+    {
+        return evaluations[indexOf(behavior)];
+    }
+
+    /**
+     * Get the average time a behavior took to evaluate a frame.
+     *
+     * @param behavior The behavior.
+     * @return Time in nanoseconds or 0 if not evaluated yet.
+     */
+    public synchronized long getAverageEvaluationTime(Behavior behavior)
+    {
+        int index = indexOf(behavior);
+
+        return evaluations[index] == 0 ? 0 : totalTimes[index] / evaluations[index];
+    }
+
+    /**
+     * Get the longest time a behavior took to evaluate a frame.
+     *
+     * @param behavior The behavior.
+     * @return Time in nanoseconds.
+     */
+    public synchronized long getMaxEvaluationTime(Behavior behavior)
+    {
+        return maxTimes[indexOf(behavior)];
+    }
+
+    private int indexOf(Behavior behavior)
+    {
+        for (int i = 0; i < behaviors.length; i++) {
+            if (behaviors[i] == behavior) {
+                return i;
+            }
+        }
+
+        throw new IllegalArgumentException("Unknown behavior: " + behavior);
+    }
+
+    private static boolean containsAll(Frame frame, int[] packetIds)
+    {
+        for (int packetId : packetIds) {
+            if (!frame.contains(packetId)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private static <T> T[] insert(T[] source, T[] target, int index, T element)
+    {
+        System.arraycopy(source, 0, target, 0, index);
+        System.arraycopy(source, index, target, index + 1, source.length - index);
+        target[index] = element;
+
+        return target;
+    }
+}
@@ -0,0 +1,119 @@
+/*
+   Copyright 2011 Sebastian Kaspari
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package de.pocmo.springobot.behavior;
+
+import de.pocmo.springobot.control.RobotWriter;
+
+
+/**
+ * A reusable wheel command, set by behaviors.
+ *
+ * @author Sebastian Kaspari <s.kaspari@gmail.com>
+ */
+public class MotorCommand
+{
+    private static final int DRIVE = 0;
+    private static final int DRIVE_DIRECT = 1;
+
+    private int type;
+    private int first;
+    private int second;
+
+    /**
+     * Drive with a velocity and turn radius (see RobotWriter.drive()).
+     *
+     * @param velocity   Velocity (-500 – 500 mm/s).
+     * @param turnRadius Radius (-2000 – 2000 mm) or a special case.
+     */
+    public void drive(int velocity, int turnRadius)
+    {
+        type   = DRIVE;
+        first  = velocity;
+        second = turnRadius;
+    }
+
+    /**
+     * Drive the wheels independently (see RobotWriter.driveDirect()).
+     *
+     * @param velocityRight Velocity of the right wheel (-500 – 500 mm/s).
+     * @param velocityLeft  Velocity of the left wheel (-500 – 500 mm/s).
+     */
+    public void driveDirect(int velocityRight, int velocityLeft)
+    {
+        type   = DRIVE_DIRECT;
+        first  = velocityRight;
+        second = velocityLeft;
+    }
+
+    /**
+     * Stop both wheels.
+     */
+    public void stop()
+    {
+        drive(0, 0);
+    }
+
+    /**
+     * Send this command.
+     *
+     * @param writer The writer to send with.
+     * @return True if the command has been written, false otherwise.
+     */
+    public boolean sendTo(RobotWriter writer)
+    {
+        if (type == DRIVE) {
+            return writer.drive(first, second);
+        } else {
+            return writer.driveDirect(first, second);
+        }
+    }
+
+    /**
+     * Make this command a copy of another command.
+     *
+     * @param command The command to copy.
+     */
+    public void set(MotorCommand command)
+    {
+        type   = command.type;
+        first  = command.first;
+        second = command.second;
+    }
+
+    @Override
+    public boolean equals(Object object)
+    {
+        if (!(object instanceof MotorCommand)) {
+            return false;
+        }
+
+        MotorCommand command = (MotorCommand) object;
+
+        return type == command.type && first == command.first && second == command.second;
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return (type * 31 + first) * 31 + second;
+    }
+
+    @Override
+    public String toString()
+    {
+        return (type == DRIVE ? "Drive(" : "DriveDirect(") + first + ", " + second + ")";
+    }
+}
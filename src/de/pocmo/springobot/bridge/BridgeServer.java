@@ -0,0 +1,518 @@
+/*
+   Copyright 2011 Sebastian Kaspari
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package de.pocmo.springobot.bridge;
+
+import de.pocmo.springobot.control.Command;
+import de.pocmo.springobot.control.RobotWriter;
+import de.pocmo.springobot.sensors.Frame;
+import de.pocmo.springobot.sensors.RobotReader;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * TCP server sharing the connection to one robot with many clients.
+ *
+ * Every stream frame read from the robot is sent to all connected
+ * clients unchanged (header, N, packets, checksum), so clients can
+ * decode it with a RobotReader on the socket's input stream. Each frame
+ * is copied once into a read-only buffer that all clients share.
+ *
+ * Clients send commands as [length] [opcode] [data bytes], where length
+ * is the number of bytes following it. Commands of all clients are sent
+ * to the robot one after another by a single thread. Each client may
+ * have a few commands waiting to be sent; while it has more, the bridge
+ * stops reading from its socket until the robot link caught up, so TCP
+ * flow control slows the client down instead of commands piling up.
+ *
+ * Each client has a bounded queue of frames. If a client does not read
+ * fast enough its oldest queued frames are dropped, so a slow client
+ * never delays the robot connection or the other clients.
+ *
+ * @author Sebastian Kaspari <s.kaspari@gmail.com>
+ */
+public class BridgeServer
+{
+    /**
+     * Default number of frames queued per client.
+     */
+    public static final int DEFAULT_QUEUE_LIMIT = 64;
+
+    /**
+     * Number of commands a client may have waiting to be sent.
+     */
+    public static final int COMMAND_LIMIT = 16;
+
+    /**
+     * Number of commands of all clients waiting to be sent.
+     */
+    private static final int COMMAND_QUEUE_SIZE = 256;
+
+    private RobotReader reader;
+    private RobotWriter writer;
+    private int queueLimit;
+
+    private Selector selector;
+    private ServerSocketChannel server;
+    private ExecutorService commandExecutor;
+
+    private List<Client> clients = new CopyOnWriteArrayList<Client>();
+
+    private volatile boolean running;
+    private volatile long droppedFrames;
+
+    /**
+     * Create a new bridge listening on the given port of all interfaces.
+     *
+     * @param reader The reader of the robot connection.
+     * @param writer The writer of the robot connection.
+     * @param port   The port to listen on (0 for any free port).
+     * @throws IOException
+     */
+    public BridgeServer(RobotReader reader, RobotWriter writer, int port) throws IOException
+    {
+        this(reader, writer, new InetSocketAddress(port), DEFAULT_QUEUE_LIMIT);
+    }
+
+    /**
+     * Create a new bridge.
+     *
+     * @param reader     The reader of the robot connection.
+     * @param writer     The writer of the robot connection.
+     * @param address    The address to listen on.
+     * @param queueLimit Maximum number of frames queued per client.
+     * @throws IOException
+     */
+    public BridgeServer(RobotReader reader, RobotWriter writer, InetSocketAddress address, int queueLimit) throws IOException
+    {
+        if (queueLimit < 1) {
+            throw new IllegalArgumentException("Queue limit must be positive");
+        }
+
+        this.reader     = reader;
+        this.writer     = writer;
+        this.queueLimit = queueLimit;
+
+        selector = Selector.open();
+        server   = ServerSocketChannel.open();
+
+        server.socket().bind(address);
+        server.configureBlocking(false);
+        server.register(selector, SelectionKey.OP_ACCEPT);
+    }
+
+    /**
+     * Get the port the bridge is listening on.
+     *
+     * @return The local port.
+     */
+    public int getPort()
+    {
+        return server.socket().getLocalPort();
+    }
+
+    /**
+     * Get the number of connected clients.
+     *
+     * @return Number of clients.
+     */
+    public int getClientCount()
+    {
+        return clients.size();
+    }
+
+    /**
+     * Get the number of frames dropped because clients did not read
+     * fast enough.
+     *
+     * @return Number of dropped frames over all clients.
+     */
+    public long getDroppedFrames()
+    {
+        return droppedFrames;
+    }
+
+    /**
+     * Start accepting clients and forwarding frames.
+     */
+    public synchronized void start()
+    {
+        if (running) {
+            return;
+        }
+
+        running = true;
+        commandExecutor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<Runnable>(COMMAND_QUEUE_SIZE));
+
+        Thread network = new Thread(new Runnable() {
+            public void run()
+            {
+                serve();
+            }
+        }, "Spring-o-Bot Bridge");
+
+        Thread pump = new Thread(new Runnable() {
+            public void run()
+            {
+                pump();
+            }
+        }, "Spring-o-Bot Bridge Reader");
+
+        network.setDaemon(true);
+        pump.setDaemon(true);
+
+        network.start();
+        pump.start();
+    }
+
+    /**
+     * Disconnect all clients and stop listening.
+     */
+    public synchronized void close()
+    {
+        running = false;
+
+        if (commandExecutor != null) {
+            commandExecutor.shutdown();
+        }
+
+        selector.wakeup();
+    }
+
+    /**
+     * Read frames from the robot and queue them for all clients.
+     */
+    private void pump()
+    {
+        Frame frame = new Frame();
+
+        while (running && reader.readFrame(frame)) {
+            byte[] copy = Arrays.copyOf(frame.getBuffer(), frame.getSize());
+            ByteBuffer shared = ByteBuffer.wrap(copy).asReadOnlyBuffer();
+
+            for (Client client : clients) {
+                client.offer(shared.duplicate());
+            }
+
+            selector.wakeup();
+        }
+    }
+
+    /**
+     * Accept clients, read their commands and write queued frames.
+     */
+    private void serve()
+    {
+        try {
+            while (running) {
+                selector.select();
+
+                for (Client client : clients) {
+                    try {
+                        client.resume();
+                        client.updateInterest();
+                    } catch (IOException exception) {
+                        client.close();
+                    }
+                }
+
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+
+                    if (!key.isValid()) {
+                        continue;
+                    }
+
+                    if (key.isAcceptable()) {
+                        accept();
+                        continue;
+                    }
+
+                    Client client = (Client) key.attachment();
+
+                    try {
+                        if (key.isReadable()) {
+                            client.read();
+                        }
+
+                        if (key.isValid() && key.isWritable()) {
+                            client.write();
+                        }
+                    } catch (IOException exception) {
+                        client.close();
+                    }
+                }
+            }
+        } catch (IOException exception) {
+            // Selector failed, shut down
+        } finally {
+            for (Client client : clients) {
+                client.close();
+            }
+
+            try {
+                server.close();
+                selector.close();
+            } catch (IOException exception) {
+                // Ignore
+            }
+        }
+    }
+
+    private void accept() throws IOException
+    {
+        SocketChannel channel = server.accept();
+
+        if (channel == null) {
+            return;
+        }
+
+        channel.configureBlocking(false);
+        channel.socket().setTcpNoDelay(true);
+
+        Client client = new Client(channel);
+
+        client.key = channel.register(selector, SelectionKey.OP_READ, client);
+
+        clients.add(client);
+    }
+
+    /**
+     * A connected client.
+     */
+    private class Client
+    {
+        private SocketChannel channel;
+        private SelectionKey key;
+
+        /**
+         * Frames waiting to be sent.
+         */
+        private ArrayDeque<ByteBuffer> queue = new ArrayDeque<ByteBuffer>();
+
+        /**
+         * Frame currently being sent.
+         */
+        private ByteBuffer current;
+
+        /**
+         * Received bytes of incomplete or not yet queued commands.
+         */
+        private ByteBuffer input = ByteBuffer.allocate(512);
+
+        /**
+         * Commands of this client waiting to be sent.
+         */
+        private final AtomicInteger pendingCommands = new AtomicInteger();
+
+        /**
+         * True while reading is stopped because too many commands are
+         * waiting.
+         */
+        private boolean paused;
+
+        Client(SocketChannel channel)
+        {
+            this.channel = channel;
+        }
+
+        /**
+         * Queue a frame, dropping the oldest queued frame if the queue
+         * is full.
+         */
+        synchronized void offer(ByteBuffer frame)
+        {
+            if (queue.size() >= queueLimit) {
+                queue.poll();
+                droppedFrames++;
+            }
+
+            queue.add(frame);
+        }
+
+        synchronized boolean hasPending()
+        {
+            return current != null || !queue.isEmpty();
+        }
+
+        void updateInterest()
+        {
+            if (key.isValid()) {
+                int read = paused ? 0 : SelectionKey.OP_READ;
+
+                key.interestOps(hasPending() ? read | SelectionKey.OP_WRITE : read);
+            }
+        }
+
+        void write() throws IOException
+        {
+            while (true) {
+                synchronized (this) {
+                    if (current == null) {
+                        current = queue.poll();
+                    }
+
+                    if (current == null) {
+                        key.interestOps(paused ? 0 : SelectionKey.OP_READ);
+                        return;
+                    }
+                }
+
+                channel.write(current);
+
+                if (current.hasRemaining()) {
+                    return;
+                }
+
+                synchronized (this) {
+                    current = null;
+                }
+            }
+        }
+
+        void read() throws IOException
+        {
+            if (channel.read(input) == -1) {
+                close();
+                return;
+            }
+
+            input.flip();
+            queueCommands();
+            input.compact();
+        }
+
+        /**
+         * Queue the commands still buffered once enough of the waiting
+         * commands have been sent.
+         */
+        void resume() throws IOException
+        {
+            if (!paused || pendingCommands.get() >= COMMAND_LIMIT) {
+                return;
+            }
+
+            paused = false;
+
+            input.flip();
+            queueCommands();
+            input.compact();
+        }
+
+        /**
+         * Queue all complete commands of the input buffer (in read
+         * mode). Stops at the first command that can not be queued.
+         */
+        private void queueCommands() throws IOException
+        {
+            while (input.remaining() > 0) {
+                int start  = input.position();
+                int length = input.get(start) & 0xFF;
+
+                if (length == 0) {
+                    throw new IOException("Empty command");
+                }
+
+                if (input.remaining() < length + 1) {
+                    break;
+                }
+
+                if (pendingCommands.get() >= COMMAND_LIMIT) {
+                    paused = true;
+                    break;
+                }
+
+                byte[] bytes = new byte[length];
+
+                input.get();
+                input.get(bytes);
+
+                final Command command;
+
+                try {
+                    command = Command.parse(bytes, 0, length);
+                } catch (IllegalArgumentException exception) {
+                    throw new IOException(exception.getMessage());
+                }
+
+                pendingCommands.incrementAndGet();
+
+                try {
+                    commandExecutor.execute(new Runnable() {
+                        public void run()
+                        {
+                            try {
+                                writer.send(command);
+                            } finally {
+                                pendingCommands.decrementAndGet();
+                                selector.wakeup();
+                            }
+                        }
+                    });
+                } catch (RejectedExecutionException exception) {
+                    pendingCommands.decrementAndGet();
+
+                    if (!running) {
+                        // Bridge is shutting down
+                        close();
+                        return;
+                    }
+
+                    // Commands of all clients fill the queue, retry later
+                    input.position(start);
+                    paused = true;
+                    break;
+                }
+            }
+        }
+
+        void close()
+        {
+            clients.remove(this);
+
+            if (key != null) {
+                key.cancel();
+            }
+
+            try {
+                channel.close();
+            } catch (IOException exception) {
+                // Ignore
+            }
+        }
+    }
+}
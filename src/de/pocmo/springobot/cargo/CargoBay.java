@@ -0,0 +1,289 @@
+/*
+   Copyright 2011 Sebastian Kaspari
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package de.pocmo.springobot.cargo;
+
+import de.pocmo.springobot.control.Command;
+import de.pocmo.springobot.control.RobotWriter;
+import de.pocmo.springobot.sensors.CargoBayDigitalInputs;
+import de.pocmo.springobot.sensors.Frame;
+import de.pocmo.springobot.sensors.FrameListener;
+import de.pocmo.springobot.sensors.Sensor;
+
+
+/**
+ * Closed-loop I/O on the 25 pin Cargo Bay Connector.
+ *
+ * Register as listener of a stream containing CARGO_BAY_ANALOG_SIGNAL
+ * and/or CARGO_BAY_DIGITAL_INPUTS. For every frame the inputs are
+ * sampled and the control law is run. The law sets the low side
+ * drivers (on/off or PWM) and the digital outputs; afterwards all
+ * outputs that changed are written as one block of commands. Outputs
+ * that did not change are not sent again; after a failed write all
+ * outputs are sent with the next sample.
+ *
+ * The latency from receiving a frame to writing the resulting outputs
+ * is measured for every frame whose changed outputs have been written.
+ *
+ * @author Sebastian Kaspari <s.kaspari@gmail.com>
+ */
+public class CargoBay implements FrameListener
+{
+    /**
+     * Largest duty cycle of the low side drivers (100%).
+     */
+    public static final int MAX_DUTY_CYCLE = 128;
+
+    /**
+     * Largest value of the analog input.
+     */
+    public static final int MAX_ANALOG_INPUT = 1023;
+
+    private final RobotWriter writer;
+    private final CargoBayLaw law;
+
+    private int analogInput;
+    private CargoBayDigitalInputs digitalInputs = CargoBayDigitalInputs.valueOf(0);
+
+    private long lastSample;
+    private boolean sampled;
+
+    // Requested outputs
+    private final int[] dutyCycles = new int[3];
+    private int driverBits;
+    private int outputBits;
+    private boolean pwm;
+
+    // Outputs sent to the robot, -1 if unknown
+    private final int[] sentDutyCycles = { -1, -1, -1 };
+    private int sentDriverBits = -1;
+    private int sentOutputBits = -1;
+
+    private final Command[] pending = new Command[2];
+
+    private volatile long lastLatency = -1;
+    private volatile long maxLatency = -1;
+
+    /**
+     * Create a new cargo bay controller.
+     *
+     * @param writer The writer to send output commands with.
+     * @param law    The control law run for every sample.
+     */
+    public CargoBay(RobotWriter writer, CargoBayLaw law)
+    {
+        this.writer = writer;
+        this.law    = law;
+    }
+
+    /**
+     * Sample the inputs of a frame, run the control law and write the
+     * changed outputs.
+     *
+     * @param frame The frame.
+     */
+    public synchronized void frameReceived(Frame frame)
+    {
+        boolean analog  = frame.contains(Sensor.CARGO_BAY_ANALOG_SIGNAL);
+        boolean digital = frame.contains(Sensor.CARGO_BAY_DIGITAL_INPUTS);
+
+        if (!analog && !digital) {
+            return;
+        }
+
+        if (analog) {
+            analogInput = frame.get(Sensor.CARGO_BAY_ANALOG_SIGNAL);
+        }
+
+        if (digital) {
+            digitalInputs = CargoBayDigitalInputs.from(frame);
+        }
+
+        long time = frame.getTimestamp();
+        double timeStep = sampled ? (time - lastSample) / 1e9 : 0;
+
+        lastSample = time;
+        sampled    = true;
+
+        law.control(this, timeStep);
+
+        if (flush()) {
+            long latency = writer.getClock().nanoTime() - time;
+
+            lastLatency = latency;
+            maxLatency  = Math.max(maxLatency, latency);
+        }
+    }
+
+    /**
+     * Get the last sampled value of the analog input.
+     *
+     * @return Value (0 - 1023).
+     */
+    public synchronized int getAnalogInput()
+    {
+        return analogInput;
+    }
+
+    /**
+     * Get the last sampled state of the digital inputs.
+     *
+     * @return The digital inputs.
+     */
+    public synchronized CargoBayDigitalInputs getDigitalInputs()
+    {
+        return digitalInputs;
+    }
+
+    /**
+     * Set the duty cycle of a low side driver. Switches the drivers to
+     * PWM control.
+     *
+     * @param driver    The driver (0 - 2).
+     * @param dutyCycle Duty cycle (0 - 128).
+     */
+    public synchronized void setDutyCycle(int driver, int dutyCycle)
+    {
+        checkIndex(driver);
+
+        if (dutyCycle < 0 || dutyCycle > MAX_DUTY_CYCLE) {
+            throw new IllegalArgumentException("Duty cycle out of range (0 to 128)");
+        }
+
+        dutyCycles[driver] = dutyCycle;
+        pwm = true;
+    }
+
+    /**
+     * Set the duty cycle of a low side driver from a fraction.
+     *
+     * @param driver The driver (0 - 2).
+     * @param level  Power (0.0 - 1.0); values outside are limited.
+     */
+    public void setLevel(int driver, double level)
+    {
+        setDutyCycle(driver, (int) Math.round(Math.max(0, Math.min(1, level)) * MAX_DUTY_CYCLE));
+    }
+
+    /**
+     * Turn a low side driver on or off. Switches the drivers to on/off
+     * control.
+     *
+     * @param driver The driver (0 - 2).
+     * @param on     True to turn the driver on.
+     */
+    public synchronized void setLowSideDriver(int driver, boolean on)
+    {
+        checkIndex(driver);
+
+        driverBits = on ? driverBits | (1 << driver) : driverBits & ~(1 << driver);
+        pwm = false;
+    }
+
+    /**
+     * Set a digital output.
+     *
+     * @param output The output (0 - 2).
+     * @param high   True to set the output high.
+     */
+    public synchronized void setDigitalOutput(int output, boolean high)
+    {
+        checkIndex(output);
+
+        outputBits = high ? outputBits | (1 << output) : outputBits & ~(1 << output);
+    }
+
+    /**
+     * Get the latency of the last sample that wrote changed outputs.
+     *
+     * @return Time from receiving the frame to writing the outputs in
+     *         nanoseconds or -1 if no output has been written yet.
+     */
+    public long getLastLatency()
+    {
+        return lastLatency;
+    }
+
+    /**
+     * Get the largest latency of all samples that wrote changed outputs.
+     *
+     * @return Latency in nanoseconds or -1 if no output has been
+     *         written yet.
+     */
+    public long getMaxLatency()
+    {
+        return maxLatency;
+    }
+
+    /**
+     * Write all outputs that differ from the ones sent before.
+     *
+     * @return True if commands have been written.
+     */
+    private boolean flush()
+    {
+        int count = 0;
+
+        boolean sendPwm     = pwm && (dutyCycles[0] != sentDutyCycles[0] || dutyCycles[1] != sentDutyCycles[1] || dutyCycles[2] != sentDutyCycles[2]);
+        boolean sendDrivers = !pwm && driverBits != sentDriverBits;
+        boolean sendOutputs = outputBits != sentOutputBits;
+
+        if (sendPwm) {
+            pending[count++] = RobotWriter.pwmLowSideDrivers(dutyCycles[2], dutyCycles[1], dutyCycles[0]);
+        } else if (sendDrivers) {
+            pending[count++] = RobotWriter.lowSideDrivers(driverBits);
+        }
+
+        if (sendOutputs) {
+            pending[count++] = RobotWriter.digitalOutputs(outputBits);
+        }
+
+        if (count == 0) {
+            return false;
+        }
+
+        boolean written = count == 1 ? writer.send(pending[0]) : writer.send(pending[0], pending[1]);
+
+        if (!written) {
+            // Part of the commands may have arrived, resend everything
+            sentDutyCycles[0] = sentDutyCycles[1] = sentDutyCycles[2] = -1;
+            sentDriverBits = -1;
+            sentOutputBits = -1;
+
+            return false;
+        }
+
+        if (sendPwm) {
+            System.arraycopy(dutyCycles, 0, sentDutyCycles, 0, 3);
+            sentDriverBits = -1;
+        } else if (sendDrivers) {
+            sentDriverBits = driverBits;
+            sentDutyCycles[0] = sentDutyCycles[1] = sentDutyCycles[2] = -1;
+        }
+
+        if (sendOutputs) {
+            sentOutputBits = outputBits;
+        }
+
+        return true;
+    }
+
+    private static void checkIndex(int index)
+    {
+        if (index < 0 || index > 2) {
+            throw new IllegalArgumentException("Index out of range (0 to 2): " + index);
+        }
+    }
+}
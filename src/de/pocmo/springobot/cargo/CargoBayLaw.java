@@ -0,0 +1,37 @@
+/*
+   Copyright 2011 Sebastian Kaspari
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package de.pocmo.springobot.cargo;
+
+
+/**
+ * Control law run by CargoBay for every sample of the inputs.
+ *
+ * @author Sebastian Kaspari <s.kaspari@gmail.com>
+ */
+public interface CargoBayLaw
+{
+    /**
+     * Compute new outputs from the current inputs.
+     *
+     * Read the inputs from the cargo bay and set the outputs on it.
+     * Outputs that are not set keep their value.
+     *
+     * @param bay      The cargo bay.
+     * @param timeStep Time since the previous sample in seconds (0 for
+     *                 the first sample).
+     */
+    public void control(CargoBay bay, double timeStep);
+}
@@ -0,0 +1,66 @@
+/*
+   Copyright 2011 Sebastian Kaspari
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package de.pocmo.springobot.clock;
+
+
+/**
+ * Source of time for everything that measures or waits for time.
+ *
+ * Readers, writers, watchdogs, schedulers and sessions take all
+ * timestamps from a clock and wait through it. With the SYSTEM clock
+ * they run in real time; with a VirtualClock a simulation decides when
+ * time passes.
+ *
+ * @author Sebastian Kaspari <s.kaspari@gmail.com>
+ */
+public interface Clock
+{
+    /**
+     * The clock of the system (System.nanoTime()).
+     */
+    public static final Clock SYSTEM = new SystemClock();
+
+    /**
+     * Get the current time.
+     *
+     * Like System.nanoTime() the value has no fixed origin and is only
+     * meant to compute durations.
+     *
+     * @return Current time in nanoseconds.
+     */
+    public long nanoTime();
+
+    /**
+     * Block the calling thread for the given time.
+     *
+     * @param nanos Time to sleep in nanoseconds.
+     * @throws InterruptedException
+     */
+    public void sleepNanos(long nanos) throws InterruptedException;
+
+    /**
+     * Wait on the given monitor like Object.wait() for at most the
+     * given time. The calling thread must own the monitor.
+     *
+     * Like Object.wait() this may return early, so callers have to
+     * check their condition and the time again.
+     *
+     * @param monitor The monitor to wait on.
+     * @param nanos   Maximum time to wait in nanoseconds.
+     * @throws InterruptedException
+     */
+    public void awaitNanos(Object monitor, long nanos) throws InterruptedException;
+}
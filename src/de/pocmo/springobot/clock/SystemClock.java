@@ -0,0 +1,48 @@
+/*
+   Copyright 2011 Sebastian Kaspari
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package de.pocmo.springobot.clock;
+
+
+/**
+ * Real time clock, available as Clock.SYSTEM.
+ *
+ * @author Sebastian Kaspari <s.kaspari@gmail.com>
+ */
+public class SystemClock implements Clock
+{
+    SystemClock()
+    {
+    }
+
+    public long nanoTime()
+    {
+        return System.nanoTime();
+    }
+
+    public void sleepNanos(long nanos) throws InterruptedException
+    {
+        if (nanos > 0) {
+            Thread.sleep(nanos / 1000000L, (int) (nanos % 1000000L));
+        }
+    }
+
+    public void awaitNanos(Object monitor, long nanos) throws InterruptedException
+    {
+        if (nanos > 0) {
+            monitor.wait(nanos / 1000000L, (int) (nanos % 1000000L));
+        }
+    }
+}
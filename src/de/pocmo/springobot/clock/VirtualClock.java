@@ -0,0 +1,306 @@
+/*
+   Copyright 2011 Sebastian Kaspari
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package de.pocmo.springobot.clock;
+
+import java.util.PriorityQueue;
+
+
+/**
+ * Clock whose time only passes when it is advanced.
+ *
+ * Threads sleeping or waiting on this clock stay blocked until the
+ * driver of a simulation advances the time past their wake-up time.
+ * advanceToNextEvent() jumps straight to the next wake-up or scheduled
+ * task, so idle time costs nothing and a scenario of hours finishes in
+ * the time its computation takes.
+ *
+ * Tasks scheduled with schedule() (for example a simulated device
+ * sending a frame every 15 ms) run on the thread advancing the clock.
+ * Events with the same time fire in the order they were registered,
+ * so a single-threaded simulation is fully deterministic. With several
+ * threads, use awaitSleepers() before advancing to let all threads
+ * reach their next wait.
+ *
+ * @author Sebastian Kaspari <s.kaspari@gmail.com>
+ */
+public class VirtualClock implements Clock
+{
+    private final PriorityQueue<Event> events = new PriorityQueue<Event>();
+
+    private long now;
+    private long sequence;
+    private int sleepers;
+
+    /**
+     * Create a new clock starting at time 0.
+     */
+    public VirtualClock()
+    {
+        this(0);
+    }
+
+    /**
+     * Create a new clock.
+     *
+     * @param start Initial time in nanoseconds.
+     */
+    public VirtualClock(long start)
+    {
+        this.now = start;
+    }
+
+    public synchronized long nanoTime()
+    {
+        return now;
+    }
+
+    public void sleepNanos(long nanos) throws InterruptedException
+    {
+        if (nanos <= 0) {
+            return;
+        }
+
+        synchronized (this) {
+            Event event = add(now + nanos, null, null);
+
+            try {
+                while (!event.fired) {
+                    wait();
+                }
+            } finally {
+                cancel(event);
+            }
+        }
+    }
+
+    public void awaitNanos(Object monitor, long nanos) throws InterruptedException
+    {
+        if (nanos <= 0) {
+            return;
+        }
+
+        Event event;
+
+        synchronized (this) {
+            event = add(now + nanos, null, monitor);
+        }
+
+        try {
+            // The monitor is held, so the wake-up can not be missed
+            monitor.wait();
+        } finally {
+            synchronized (this) {
+                cancel(event);
+            }
+        }
+    }
+
+    /**
+     * Run a task once the clock reaches the given delay from now. The
+     * task runs on the thread advancing the clock.
+     *
+     * @param task  The task.
+     * @param delay Delay in nanoseconds.
+     */
+    public synchronized void schedule(Runnable task, long delay)
+    {
+        add(now + Math.max(0, delay), task, null);
+    }
+
+    /**
+     * Advance the clock, firing all events on the way.
+     *
+     * @param nanos Time to advance in nanoseconds.
+     */
+    public void advance(long nanos)
+    {
+        if (nanos < 0) {
+            throw new IllegalArgumentException("Time can not go backwards");
+        }
+
+        long target;
+
+        synchronized (this) {
+            target = now + nanos;
+        }
+
+        while (fireNext(target)) {
+            // Fire events in order
+        }
+
+        synchronized (this) {
+            now = Math.max(now, target);
+        }
+    }
+
+    /**
+     * Advance the clock to the next event and fire all events at that
+     * time.
+     *
+     * @return False if there is no pending event.
+     */
+    public boolean advanceToNextEvent()
+    {
+        long time;
+
+        synchronized (this) {
+            Event next = events.peek();
+
+            if (next == null) {
+                return false;
+            }
+
+            time = next.time;
+        }
+
+        while (fireNext(time)) {
+            // Fire all events of this time
+        }
+
+        return true;
+    }
+
+    /**
+     * Get the number of pending events (sleeping threads, waiting
+     * threads and scheduled tasks).
+     *
+     * @return Number of events.
+     */
+    public synchronized int getPendingEvents()
+    {
+        return events.size();
+    }
+
+    /**
+     * Wait (in real time) until at least the given number of threads
+     * sleep or wait on this clock.
+     *
+     * @param count   Number of threads.
+     * @param timeout Maximum real time to wait in milliseconds.
+     * @return True if the threads are waiting, false on timeout.
+     * @throws InterruptedException
+     */
+    public synchronized boolean awaitSleepers(int count, long timeout) throws InterruptedException
+    {
+        long deadline = System.nanoTime() + timeout * 1000000L;
+
+        while (sleepers < count) {
+            long remaining = deadline - System.nanoTime();
+
+            if (remaining <= 0) {
+                return false;
+            }
+
+            wait(remaining / 1000000L + 1);
+        }
+
+        return true;
+    }
+
+    /**
+     * Fire the earliest event if it is due at the given time.
+     *
+     * @return False if no event is due.
+     */
+    private boolean fireNext(long target)
+    {
+        Event event;
+
+        synchronized (this) {
+            event = events.peek();
+
+            if (event == null || event.time > target) {
+                return false;
+            }
+
+            events.poll();
+
+            now = Math.max(now, event.time);
+            event.fired = true;
+
+            if (event.task == null) {
+                sleepers--;
+            }
+
+            // Wake up sleeping threads
+            notifyAll();
+        }
+
+        // Outside of the clock's lock, the woken thread may need it
+        if (event.monitor != null) {
+            synchronized (event.monitor) {
+                event.monitor.notifyAll();
+            }
+        } else if (event.task != null) {
+            event.task.run();
+        }
+
+        return true;
+    }
+
+    private Event add(long time, Runnable task, Object monitor)
+    {
+        Event event = new Event(time, sequence++, task, monitor);
+
+        events.add(event);
+
+        if (task == null) {
+            sleepers++;
+
+            // Wake up threads in awaitSleepers()
+            notifyAll();
+        }
+
+        return event;
+    }
+
+    private void cancel(Event event)
+    {
+        if (!event.fired && events.remove(event)) {
+            event.fired = true;
+            sleepers--;
+        }
+    }
+
+    /**
+     * A wake-up time or a scheduled task.
+     */
+    private static class Event implements Comparable<Event>
+    {
+        final long time;
+        final long sequence;
+        final Runnable task;
+        final Object monitor;
+        boolean fired;
+
+        Event(long time, long sequence, Runnable task, Object monitor)
+        {
+            this.time     = time;
+            this.sequence = sequence;
+            this.task     = task;
+            this.monitor  = monitor;
+        }
+
+        public int compareTo(Event other)
+        {
+            if (time != other.time) {
+                return time < other.time ? -1 : 1;
+            }
+
+            return sequence < other.sequence ? -1 : (sequence == other.sequence ? 0 : 1);
+        }
+    }
+}
@@ -0,0 +1,102 @@
+/*
+   Copyright 2011 Sebastian Kaspari
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package de.pocmo.springobot.connection;
+
+import de.pocmo.springobot.constants.Mode;
+import de.pocmo.springobot.control.RobotWriter;
+import de.pocmo.springobot.sensors.RobotReader;
+
+
+/**
+ * A robot connection that is ready to use, as returned by Handshake.
+ *
+ * @author Sebastian Kaspari <s.kaspari@gmail.com>
+ */
+public class Connection
+{
+    private final RobotReader reader;
+    private final RobotWriter writer;
+    private final Mode mode;
+    private final long timeToReady;
+
+    /**
+     * Create a new connection.
+     *
+     * @param reader      The reader of the connection.
+     * @param writer      The writer of the connection.
+     * @param mode        The mode the robot has confirmed.
+     * @param timeToReady Time the bring-up took in nanoseconds.
+     */
+    public Connection(RobotReader reader, RobotWriter writer, Mode mode, long timeToReady)
+    {
+        this.reader      = reader;
+        this.writer      = writer;
+        this.mode        = mode;
+        this.timeToReady = timeToReady;
+    }
+
+    /**
+     * Get the reader of the connection.
+     *
+     * @return The reader.
+     */
+    public RobotReader getReader()
+    {
+        return reader;
+    }
+
+    /**
+     * Get the writer of the connection.
+     *
+     * @return The writer.
+     */
+    public RobotWriter getWriter()
+    {
+        return writer;
+    }
+
+    /**
+     * Get the mode the robot has confirmed during bring-up.
+     *
+     * @return The mode.
+     */
+    public Mode getMode()
+    {
+        return mode;
+    }
+
+    /**
+     * Get the time from starting the handshake until the robot
+     * confirmed the mode.
+     *
+     * @return Time to ready in milliseconds.
+     */
+    public long getTimeToReady()
+    {
+        return timeToReady / 1000000L;
+    }
+
+    /**
+     * Get the time from starting the handshake until the robot
+     * confirmed the mode.
+     *
+     * @return Time to ready in nanoseconds.
+     */
+    public long getTimeToReadyNanos()
+    {
+        return timeToReady;
+    }
+}
@@ -0,0 +1,97 @@
+/*
+   Copyright 2011 Sebastian Kaspari
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package de.pocmo.springobot.connection;
+
+import de.pocmo.springobot.sensors.FrameListener;
+
+import java.nio.channels.ReadableByteChannel;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+
+/**
+ * Execution model reading every connection in its own high priority
+ * platform thread.
+ *
+ * @author Sebastian Kaspari <s.kaspari@gmail.com>
+ */
+public class DedicatedThreadModel implements ExecutionModel
+{
+    private ConcurrentMap<ReadableByteChannel, Thread> threads = new ConcurrentHashMap<ReadableByteChannel, Thread>();
+    private ConcurrentMap<ReadableByteChannel, ReadLoop> loops = new ConcurrentHashMap<ReadableByteChannel, ReadLoop>();
+
+    /**
+     * Start a new reader thread for the channel. The thread ends when
+     * the channel is detached or reaches the end of the stream.
+     *
+     * @param channel  The channel to read from.
+     * @param listener The listener to call for every frame.
+     */
+    public void attach(final ReadableByteChannel channel, FrameListener listener)
+    {
+        final ReadLoop loop = new ReadLoop(channel, listener);
+
+        Thread thread = new Thread(new Runnable() {
+            public void run()
+            {
+                try {
+                    loop.run();
+                } finally {
+                    // Forget the channel if it ended on its own
+                    loops.remove(channel, loop);
+                    threads.remove(channel, Thread.currentThread());
+                }
+            }
+        }, "Spring-o-Bot Reader");
+
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MAX_PRIORITY);
+
+        loops.put(channel, loop);
+        threads.put(channel, thread);
+
+        thread.start();
+    }
+
+    /**
+     * Stop the reader thread of the channel and close the channel.
+     *
+     * @param channel The channel.
+     */
+    public void detach(ReadableByteChannel channel)
+    {
+        ReadLoop loop = loops.remove(channel);
+        Thread thread = threads.remove(channel);
+
+        if (loop != null) {
+            loop.close();
+        }
+
+        if (thread != null) {
+            thread.interrupt();
+        }
+    }
+
+    /**
+     * Stop all reader threads and close their channels.
+     */
+    public void shutdown()
+    {
+        for (ReadableByteChannel channel : loops.keySet()) {
+            detach(channel);
+        }
+    }
+}
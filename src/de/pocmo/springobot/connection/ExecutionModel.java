@@ -0,0 +1,66 @@
+/*
+   Copyright 2011 Sebastian Kaspari
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package de.pocmo.springobot.connection;
+
+import de.pocmo.springobot.sensors.FrameListener;
+
+import java.io.IOException;
+import java.nio.channels.ReadableByteChannel;
+
+
+/**
+ * Decides which threads read and decode the sensor streams of robot
+ * connections.
+ *
+ * Available models:
+ *
+ *  - DedicatedThreadModel: One high priority thread per connection.
+ *    Lowest latency, best for a single robot.
+ *  - ExecutorModel: The read loop of every connection runs as a task
+ *    of an ExecutorService (for example a virtual thread executor on
+ *    newer Java versions).
+ *  - SelectorModel: One thread services many non-blocking channels.
+ *    Cheapest for large fleets.
+ *
+ * Serial ports that only offer an InputStream can be used with
+ * java.nio.channels.Channels.newChannel() with the first two models.
+ *
+ * @author Sebastian Kaspari <s.kaspari@gmail.com>
+ */
+public interface ExecutionModel
+{
+    /**
+     * Start reading frames from the channel.
+     *
+     * @param channel  The channel to read from.
+     * @param listener The listener to call for every frame. It is called
+     *                 by the model's thread.
+     * @throws IOException If the channel can not be used with this model.
+     */
+    void attach(ReadableByteChannel channel, FrameListener listener) throws IOException;
+
+    /**
+     * Stop reading from the channel and close it.
+     *
+     * @param channel The channel.
+     */
+    void detach(ReadableByteChannel channel);
+
+    /**
+     * Stop reading from and close all channels.
+     */
+    void shutdown();
+}
@@ -0,0 +1,114 @@
+/*
+   Copyright 2011 Sebastian Kaspari
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package de.pocmo.springobot.connection;
+
+import de.pocmo.springobot.sensors.FrameListener;
+
+import java.nio.channels.ReadableByteChannel;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+
+/**
+ * Execution model running the blocking read loop of every connection
+ * as a task of an ExecutorService.
+ *
+ * On Java versions with virtual threads pass a virtual thread per task
+ * executor to read many connections with cheap threads. The default
+ * constructor uses a cached pool of platform threads.
+ *
+ * @author Sebastian Kaspari <s.kaspari@gmail.com>
+ */
+public class ExecutorModel implements ExecutionModel
+{
+    private ExecutorService executor;
+    private ConcurrentMap<ReadableByteChannel, ReadLoop> loops = new ConcurrentHashMap<ReadableByteChannel, ReadLoop>();
+
+    /**
+     * Create a new model using a cached thread pool.
+     */
+    public ExecutorModel()
+    {
+        this(Executors.newCachedThreadPool());
+    }
+
+    /**
+     * Create a new model.
+     *
+     * @param executor The executor to run the read loops. It needs one
+     *                 thread per attached channel.
+     */
+    public ExecutorModel(ExecutorService executor)
+    {
+        this.executor = executor;
+    }
+
+    /**
+     * Run the read loop of the channel as a task of the executor. The
+     * task ends when the channel is detached or reaches the end of the
+     * stream.
+     *
+     * @param channel  The channel to read from.
+     * @param listener The listener to call for every frame.
+     */
+    public void attach(final ReadableByteChannel channel, FrameListener listener)
+    {
+        final ReadLoop loop = new ReadLoop(channel, listener);
+
+        loops.put(channel, loop);
+
+        executor.execute(new Runnable() {
+            public void run()
+            {
+                try {
+                    loop.run();
+                } finally {
+                    // Forget the channel if it ended on its own
+                    loops.remove(channel, loop);
+                }
+            }
+        });
+    }
+
+    /**
+     * Stop the read loop of the channel and close the channel.
+     *
+     * @param channel The channel.
+     */
+    public void detach(ReadableByteChannel channel)
+    {
+        ReadLoop loop = loops.remove(channel);
+
+        if (loop != null) {
+            loop.close();
+        }
+    }
+
+    /**
+     * Stop all read loops, close their channels and shut down the
+     * executor.
+     */
+    public void shutdown()
+    {
+        for (ReadableByteChannel channel : loops.keySet()) {
+            detach(channel);
+        }
+
+        executor.shutdownNow();
+    }
+}
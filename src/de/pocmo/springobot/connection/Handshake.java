@@ -0,0 +1,306 @@
+/*
+   Copyright 2011 Sebastian Kaspari
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package de.pocmo.springobot.connection;
+
+import de.pocmo.springobot.clock.Clock;
+import de.pocmo.springobot.constants.Mode;
+import de.pocmo.springobot.control.RobotWriter;
+import de.pocmo.springobot.sensors.Packet;
+import de.pocmo.springobot.sensors.RobotReader;
+import de.pocmo.springobot.sensors.Sensor;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+
+/**
+ * Brings a robot into a given mode and confirms the transition.
+ *
+ * Instead of sleeping for a fixed time after START and SAFE/FULL, the
+ * handshake polls the OI_MODE sensor until the robot reports the
+ * requested mode. The mode command is repeated every few polls in case
+ * it got lost. Before every poll the handshake waits until no byte has
+ * arrived for longer than a stream frame period, so a late byte of a
+ * running stream is not taken for the answer. The mode must be
+ * reported by two polls in a row. Before returning, all stale input is
+ * discarded, so the first byte read from the connection is the answer
+ * to the next request.
+ *
+ * A running sensor stream is paused during the handshake and must be
+ * started again afterwards (see StreamController).
+ *
+ * @author Sebastian Kaspari <s.kaspari@gmail.com>
+ */
+public class Handshake
+{
+    /**
+     * Default time to wait for the robot in milliseconds.
+     */
+    public static final long DEFAULT_TIMEOUT = 3000;
+
+    /**
+     * Default time to wait for the answer to a single poll in
+     * milliseconds.
+     */
+    public static final long DEFAULT_POLL_INTERVAL = 25;
+
+    /**
+     * Number of unanswered or wrong polls after which the mode commands
+     * are sent again.
+     */
+    private static final int RETRY_POLLS = 8;
+
+    /**
+     * Number of polls in a row that must report the requested mode.
+     */
+    private static final int CONFIRMATIONS = 2;
+
+    /**
+     * Time without input (nanoseconds) after which the link is quiet;
+     * longer than the 15 ms period of the sensor stream.
+     */
+    private static final long QUIET_TIME = 20000000L;
+
+    private final RobotReader reader;
+    private final RobotWriter writer;
+
+    private long timeout = DEFAULT_TIMEOUT;
+    private long pollInterval = DEFAULT_POLL_INTERVAL;
+
+    /**
+     * Create a new handshake.
+     *
+     * @param reader The reader of the connection.
+     * @param writer The writer of the connection.
+     */
+    public Handshake(RobotReader reader, RobotWriter writer)
+    {
+        this.reader = reader;
+        this.writer = writer;
+    }
+
+    /**
+     * Set the maximum time to wait for the robot.
+     *
+     * @param timeout Timeout in milliseconds.
+     */
+    public void setTimeout(long timeout)
+    {
+        if (timeout <= 0) {
+            throw new IllegalArgumentException("Timeout must be positive");
+        }
+
+        this.timeout = timeout;
+    }
+
+    /**
+     * Set the maximum time to wait for the answer to a single poll.
+     *
+     * @param pollInterval Poll interval in milliseconds.
+     */
+    public void setPollInterval(long pollInterval)
+    {
+        if (pollInterval <= 0) {
+            throw new IllegalArgumentException("Poll interval must be positive");
+        }
+
+        this.pollInterval = pollInterval;
+    }
+
+    /**
+     * Bring the robot into the given mode.
+     *
+     * @param mode The mode: PASSIVE, SAFE or FULL.
+     * @return The ready connection.
+     * @throws IOException If the robot did not confirm the mode in time
+     *                     or writing failed.
+     */
+    public Connection open(Mode mode) throws IOException
+    {
+        if (mode == null || mode == Mode.OFF) {
+            throw new IllegalArgumentException("Can not bring robot into mode: " + mode);
+        }
+
+        Clock clock = reader.getClock();
+
+        long begin = clock.nanoTime();
+        long deadline = begin + timeout * 1000000L;
+
+        Mode reported = null;
+        int confirmed = 0;
+
+        for (int poll = 0; clock.nanoTime() - deadline < 0; poll++) {
+            long errors = writer.getErrorCount();
+
+            if (poll % RETRY_POLLS == 0) {
+                sendMode(mode);
+            }
+
+            // Give up on this poll if the stream does not stop, so the
+            // mode commands (including the pause) get repeated
+            long quietDeadline = clock.nanoTime() + QUIET_TIME + pollInterval * 1000000L;
+
+            if (!awaitQuiet(deadline - quietDeadline < 0 ? deadline : quietDeadline)) {
+                confirmed = 0;
+                continue;
+            }
+
+            writer.requestSensor(Sensor.OI_MODE);
+
+            checkError(errors);
+
+            Packet packet = reader.readSensor(Sensor.OI_MODE, pollInterval);
+
+            if (packet == null) {
+                confirmed = 0;
+                continue;
+            }
+
+            reported = Mode.fromValue(packet.getData()[0]);
+
+            if (reported != mode) {
+                confirmed = 0;
+                continue;
+            }
+
+            if (++confirmed == CONFIRMATIONS) {
+                reader.drain();
+
+                return new Connection(reader, writer, mode, clock.nanoTime() - begin);
+            }
+        }
+
+        throw new IOException("Robot did not enter mode " + mode + " within " + timeout + " ms"
+            + (reported != null ? " (reported " + reported + ")" : " (no answer)"));
+    }
+
+    /**
+     * Bring several robots into the given mode concurrently.
+     *
+     * @param handshakes The handshakes of the robots.
+     * @param mode       The mode: PASSIVE, SAFE or FULL.
+     * @return The connections in the order of the handshakes; null for
+     *         robots that did not become ready.
+     * @throws InterruptedException
+     */
+    public static List<Connection> openAll(List<Handshake> handshakes, final Mode mode) throws InterruptedException
+    {
+        List<Connection> connections = new ArrayList<Connection>(handshakes.size());
+
+        if (handshakes.isEmpty()) {
+            return connections;
+        }
+
+        List<Callable<Connection>> tasks = new ArrayList<Callable<Connection>>(handshakes.size());
+
+        for (final Handshake handshake : handshakes) {
+            tasks.add(new Callable<Connection>() {
+                public Connection call() throws IOException
+                {
+                    return handshake.open(mode);
+                }
+            });
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(handshakes.size());
+
+        try {
+            for (Future<Connection> future : executor.invokeAll(tasks)) {
+                try {
+                    connections.add(future.get());
+                } catch (ExecutionException exception) {
+                    connections.add(null);
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        return connections;
+    }
+
+    /**
+     * Send START, pause the stream and send the mode command.
+     */
+    private void sendMode(Mode mode)
+    {
+        writer.start();
+        writer.pauseStream();
+
+        switch (mode) {
+            case SAFE:
+                writer.enableSafeMode();
+                break;
+            case FULL:
+                writer.enableFullMode();
+                break;
+            default:
+                // START already enters passive mode
+                break;
+        }
+    }
+
+    /**
+     * Discard input until no byte has arrived for QUIET_TIME.
+     *
+     * @param deadline Time (see Clock.nanoTime()) to give up.
+     * @return True if the link is quiet, false if the deadline passed.
+     * @throws IOException If the handshake has been interrupted.
+     */
+    private boolean awaitQuiet(long deadline) throws IOException
+    {
+        Clock clock = reader.getClock();
+        long quietSince = clock.nanoTime();
+
+        try {
+            while (true) {
+                long now = clock.nanoTime();
+
+                if (reader.drain() > 0) {
+                    quietSince = now;
+                } else if (now - quietSince >= QUIET_TIME) {
+                    return true;
+                }
+
+                if (now - deadline >= 0) {
+                    return false;
+                }
+
+                clock.sleepNanos(1000000L);
+            }
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Handshake interrupted");
+        }
+    }
+
+    /**
+     * Fail if a write failed since the writer had the given error count.
+     * Earlier errors of the writer do not count, the link may work again.
+     */
+    private void checkError(long errors) throws IOException
+    {
+        if (writer.getErrorCount() != errors) {
+            throw writer.getError();
+        }
+    }
+}
@@ -0,0 +1,84 @@
+/*
+   Copyright 2011 Sebastian Kaspari
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package de.pocmo.springobot.connection;
+
+import de.pocmo.springobot.sensors.FrameDecoder;
+import de.pocmo.springobot.sensors.FrameListener;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+
+
+/**
+ * Blocking read loop of a single channel, shared by the thread based
+ * execution models.
+ *
+ * @author Sebastian Kaspari <s.kaspari@gmail.com>
+ */
+class ReadLoop implements Runnable
+{
+    private ReadableByteChannel channel;
+    private FrameDecoder decoder;
+    private volatile boolean running = true;
+
+    /**
+     * Create a new read loop.
+     *
+     * @param channel  The channel to read from.
+     * @param listener The listener to call for every frame.
+     */
+    ReadLoop(ReadableByteChannel channel, FrameListener listener)
+    {
+        this.channel = channel;
+        this.decoder = new FrameDecoder(listener);
+    }
+
+    /**
+     * Read and decode frames until the channel ends or close() is
+     * called.
+     */
+    public void run()
+    {
+        ByteBuffer buffer = ByteBuffer.allocate(1024);
+
+        try {
+            while (running && channel.read(buffer) != -1) {
+                buffer.flip();
+                decoder.decode(buffer);
+                buffer.clear();
+            }
+        } catch (IOException exception) {
+            // Channel closed or failed
+        } finally {
+            close();
+        }
+    }
+
+    /**
+     * Stop the loop and close the channel.
+     */
+    void close()
+    {
+        running = false;
+
+        try {
+            channel.close();
+        } catch (IOException exception) {
+            // Ignore
+        }
+    }
+}
@@ -0,0 +1,226 @@
+/*
+   Copyright 2011 Sebastian Kaspari
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package de.pocmo.springobot.connection;
+
+import de.pocmo.springobot.sensors.FrameDecoder;
+import de.pocmo.springobot.sensors.FrameListener;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+
+/**
+ * Execution model servicing many non-blocking channels with a single
+ * selector thread.
+ *
+ * Only selectable channels (like sockets) can be attached. They are
+ * switched to non-blocking mode. Channels can be attached before the
+ * selector thread is started with start().
+ *
+ * @author Sebastian Kaspari <s.kaspari@gmail.com>
+ */
+public class SelectorModel implements ExecutionModel, Runnable
+{
+    private Selector selector;
+    private Thread thread;
+    private volatile boolean running;
+
+    /**
+     * Channels to register with the selector by the selector thread.
+     */
+    private Queue<Registration> pending = new ConcurrentLinkedQueue<Registration>();
+
+    /**
+     * Create a new model. Call start() to start reading.
+     *
+     * @throws IOException
+     */
+    public SelectorModel() throws IOException
+    {
+        selector = Selector.open();
+    }
+
+    /**
+     * Start the selector thread.
+     */
+    public synchronized void start()
+    {
+        if (thread != null || !selector.isOpen()) {
+            return;
+        }
+
+        running = true;
+
+        thread = new Thread(this, "Spring-o-Bot Selector");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Register the channel with the selector. The channel is switched
+     * to non-blocking mode.
+     *
+     * @param channel  The channel to read from; must be selectable.
+     * @param listener The listener to call for every frame.
+     * @throws IOException If the channel is not selectable.
+     */
+    public void attach(ReadableByteChannel channel, FrameListener listener) throws IOException
+    {
+        if (!(channel instanceof SelectableChannel)) {
+            throw new IOException("Channel is not selectable");
+        }
+
+        SelectableChannel selectable = (SelectableChannel) channel;
+
+        selectable.configureBlocking(false);
+
+        pending.add(new Registration(selectable, new FrameDecoder(listener)));
+        selector.wakeup();
+    }
+
+    /**
+     * Close the channel, which removes it from the selector.
+     *
+     * @param channel The channel.
+     */
+    public void detach(ReadableByteChannel channel)
+    {
+        // Closing the channel cancels its key
+        close(channel);
+        selector.wakeup();
+    }
+
+    /**
+     * Stop the selector thread and close all channels.
+     */
+    public synchronized void shutdown()
+    {
+        running = false;
+
+        if (thread != null) {
+            selector.wakeup();
+            return;
+        }
+
+        // Never started, clean up here
+        Registration registration;
+
+        while ((registration = pending.poll()) != null) {
+            close(registration.channel);
+        }
+
+        try {
+            selector.close();
+        } catch (IOException exception) {
+            // Ignore
+        }
+    }
+
+    /**
+     * Read and decode all readable channels until shutdown() is
+     * called. Run by the selector thread.
+     */
+    public void run()
+    {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(4096);
+
+        try {
+            while (running) {
+                selector.select();
+
+                Registration registration;
+
+                while ((registration = pending.poll()) != null) {
+                    if (registration.channel.isOpen()) {
+                        registration.channel.register(selector, SelectionKey.OP_READ, registration.decoder);
+                    }
+                }
+
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+
+                    if (!key.isValid() || !key.isReadable()) {
+                        continue;
+                    }
+
+                    ReadableByteChannel channel = (ReadableByteChannel) key.channel();
+                    FrameDecoder decoder = (FrameDecoder) key.attachment();
+
+                    try {
+                        buffer.clear();
+
+                        if (channel.read(buffer) == -1) {
+                            close(channel);
+                            continue;
+                        }
+
+                        buffer.flip();
+                        decoder.decode(buffer);
+                    } catch (IOException exception) {
+                        close(channel);
+                    }
+                }
+            }
+        } catch (IOException exception) {
+            // Selector failed
+        } finally {
+            for (SelectionKey key : selector.keys()) {
+                close(key.channel());
+            }
+
+            try {
+                selector.close();
+            } catch (IOException exception) {
+                // Ignore
+            }
+        }
+    }
+
+    private void close(Channel channel)
+    {
+        try {
+            channel.close();
+        } catch (IOException exception) {
+            // Ignore
+        }
+    }
+
+    /**
+     * An attached channel waiting to be registered with the selector.
+     */
+    private static class Registration
+    {
+        private final SelectableChannel channel;
+        private final FrameDecoder decoder;
+
+        Registration(SelectableChannel channel, FrameDecoder decoder)
+        {
+            this.channel = channel;
+            this.decoder = decoder;
+        }
+    }
+}
@@ -0,0 +1,368 @@
+/*
+   Copyright 2011 Sebastian Kaspari
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package de.pocmo.springobot.connection;
+
+import de.pocmo.springobot.clock.Clock;
+import de.pocmo.springobot.control.RobotWriter;
+import de.pocmo.springobot.sensors.Packet;
+import de.pocmo.springobot.sensors.RobotReader;
+import de.pocmo.springobot.sensors.Sensor;
+import de.pocmo.springobot.sensors.StreamLayout;
+
+
+/**
+ * Polls single sensor packets for many callers.
+ *
+ * Every poll is a SENSORS round-trip and the link can only carry one of
+ * them at a time. Callers state how old a value may be: if the last
+ * answer for the packet is recent enough it is returned without asking
+ * the robot. Otherwise callers asking for the same packet while a
+ * request is pending wait for that request instead of sending their
+ * own, so N concurrent queries cost one round-trip.
+ *
+ * The age of a value is measured from the time its request has been
+ * sent, so a value is never reported younger than it is. Failed polls
+ * are not cached.
+ *
+ * The cache must be the only user of the reader while the sensor
+ * stream is paused (see StreamController).
+ *
+ * @author Sebastian Kaspari <s.kaspari@gmail.com>
+ */
+public class SensorQueryCache
+{
+    /**
+     * Default time to wait for an answer in milliseconds.
+     */
+    public static final long DEFAULT_TIMEOUT = 50;
+
+    private final RobotReader reader;
+    private final RobotWriter writer;
+    private final Clock clock;
+
+    private volatile long timeout = DEFAULT_TIMEOUT;
+
+    /**
+     * Data bytes of the latest answers and their request times by
+     * packet id.
+     */
+    private final int[][] answers = new int[StreamLayout.MAX_PACKET_ID + 1][];
+    private final long[] times = new long[StreamLayout.MAX_PACKET_ID + 1];
+
+    /**
+     * Pending request by packet id or null.
+     */
+    private final Flight[] flights = new Flight[StreamLayout.MAX_PACKET_ID + 1];
+
+    /**
+     * Held for the duration of a round-trip; answers are not framed, so
+     * requests for different packets must not overlap on the link.
+     */
+    private final Object link = new Object();
+
+    private long queries;
+    private long hits;
+    private long coalesced;
+    private long roundTrips;
+    private long failures;
+
+    /**
+     * Create a new cache.
+     *
+     * @param reader The reader of the connection.
+     * @param writer The writer of the connection.
+     */
+    public SensorQueryCache(RobotReader reader, RobotWriter writer)
+    {
+        this.reader = reader;
+        this.writer = writer;
+        this.clock  = reader.getClock();
+    }
+
+    /**
+     * Set the maximum time to wait for the answer to a request.
+     *
+     * @param timeout Timeout in milliseconds.
+     */
+    public void setTimeout(long timeout)
+    {
+        if (timeout <= 0) {
+            throw new IllegalArgumentException("Timeout must be positive");
+        }
+
+        this.timeout = timeout;
+    }
+
+    /**
+     * Get a sensor packet that is at most maxAge milliseconds old.
+     *
+     * @param packetId Sensor packet id (see Sensor).
+     * @param maxAge   Maximum age of the value in milliseconds; 0 always
+     *                 waits for a request sent after this call.
+     * @return The packet or null if the robot did not answer in time.
+     */
+    public Packet query(int packetId, long maxAge)
+    {
+        int[] data = fetch(packetId, maxAge);
+
+        // Every caller gets its own copy of the cached bytes
+        return data != null ? new Packet(packetId, data.clone()) : null;
+    }
+
+    /**
+     * Get the decoded value of a sensor packet that is at most maxAge
+     * milliseconds old.
+     *
+     * @param packetId     Sensor packet id (see Sensor); not a group.
+     * @param maxAge       Maximum age of the value in milliseconds.
+     * @param defaultValue Value to return if the robot did not answer.
+     * @return The value; signed packets are sign-extended.
+     */
+    public int getValue(int packetId, long maxAge, int defaultValue)
+    {
+        if (packetId >= 0 && packetId < Sensor.BUMPS_AND_WHEEL_DROPS) {
+            throw new IllegalArgumentException("Group packet has no single value: " + packetId);
+        }
+
+        int[] data = fetch(packetId, maxAge);
+
+        if (data == null) {
+            return defaultValue;
+        }
+
+        if (data.length == 1) {
+            return Sensor.isSigned(packetId) ? (byte) data[0] : data[0];
+        }
+
+        int value = (data[0] << 8) | data[1];
+
+        return Sensor.isSigned(packetId) ? (short) value : value;
+    }
+
+    /**
+     * Get the data bytes of a packet from the cache, a pending request
+     * or a new request.
+     *
+     * @return The cached array, which must not be modified or handed
+     *         out, or null if the robot did not answer in time.
+     */
+    private int[] fetch(int packetId, long maxAge)
+    {
+        if (packetId < 0 || packetId > StreamLayout.MAX_PACKET_ID) {
+            throw new IllegalArgumentException("Unknown sensor packet id: " + packetId);
+        }
+
+        // Rejects ids that can not be polled on their own
+        Sensor.getDataBytesByPacketId(packetId);
+
+        long oldest = clock.nanoTime() - maxAge * 1000000L;
+        Flight flight;
+
+        synchronized (this) {
+            queries++;
+
+            while (true) {
+                if (answers[packetId] != null && times[packetId] - oldest >= 0) {
+                    hits++;
+                    return answers[packetId];
+                }
+
+                flight = flights[packetId];
+
+                if (flight == null) {
+                    flight = new Flight();
+                    flights[packetId] = flight;
+                    break;
+                }
+
+                if (!flight.sent || flight.time - oldest >= 0) {
+                    coalesced++;
+                    return await(flight);
+                }
+
+                // Pending request is too old for this caller, wait for it
+                // and send a new one
+                if (await(flight) == null && Thread.currentThread().isInterrupted()) {
+                    return null;
+                }
+            }
+        }
+
+        return fly(packetId, flight);
+    }
+
+    /**
+     * Forget all cached values, for example after a reconnect.
+     */
+    public synchronized void invalidate()
+    {
+        for (int i = 0; i < answers.length; i++) {
+            answers[i] = null;
+        }
+    }
+
+    /**
+     * Get the number of queries.
+     *
+     * @return Number of calls to query() and getValue().
+     */
+    public synchronized long getQueries()
+    {
+        return queries;
+    }
+
+    /**
+     * Get the number of queries answered from the cache.
+     *
+     * @return Number of cache hits.
+     */
+    public synchronized long getHits()
+    {
+        return hits;
+    }
+
+    /**
+     * Get the number of queries that waited for a request sent for
+     * another caller.
+     *
+     * @return Number of coalesced queries.
+     */
+    public synchronized long getCoalesced()
+    {
+        return coalesced;
+    }
+
+    /**
+     * Get the number of requests sent to the robot.
+     *
+     * @return Number of round-trips.
+     */
+    public synchronized long getRoundTrips()
+    {
+        return roundTrips;
+    }
+
+    /**
+     * Get the number of requests the robot did not answer in time.
+     *
+     * @return Number of failed round-trips.
+     */
+    public synchronized long getFailures()
+    {
+        return failures;
+    }
+
+    /**
+     * Get the share of queries answered from the cache.
+     *
+     * @return Ratio between 0.0 and 1.0 or NaN if there was no query.
+     */
+    public synchronized double getHitRatio()
+    {
+        return queries == 0 ? Double.NaN : (double) hits / queries;
+    }
+
+    /**
+     * Get the share of queries that joined another caller's request.
+     *
+     * @return Ratio between 0.0 and 1.0 or NaN if there was no query.
+     */
+    public synchronized double getCoalesceRatio()
+    {
+        return queries == 0 ? Double.NaN : (double) coalesced / queries;
+    }
+
+    /**
+     * Wait until a pending request has been answered. Must be called
+     * with the monitor held.
+     *
+     * @return The answer or null if the request failed or the thread
+     *         has been interrupted.
+     */
+    private int[] await(Flight flight)
+    {
+        try {
+            while (!flight.done) {
+                wait();
+            }
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+
+        return flight.data;
+    }
+
+    /**
+     * Send the request of a flight and publish the answer.
+     */
+    private int[] fly(int packetId, Flight flight)
+    {
+        Packet packet = null;
+        long time = 0;
+
+        try {
+            synchronized (link) {
+                time = clock.nanoTime();
+
+                synchronized (this) {
+                    flight.time = time;
+                    flight.sent = true;
+                }
+
+                reader.drain();
+                writer.requestSensor(packetId);
+
+                packet = reader.readSensor(packetId, timeout);
+
+                if (packet == null) {
+                    // Do not mistake a late answer for the next one
+                    reader.drain();
+                }
+            }
+        } finally {
+            synchronized (this) {
+                roundTrips++;
+
+                if (packet != null) {
+                    answers[packetId] = packet.getData();
+                    times[packetId]   = time;
+                } else {
+                    failures++;
+                }
+
+                flight.data = packet != null ? packet.getData() : null;
+                flight.done   = true;
+                flights[packetId] = null;
+
+                notifyAll();
+            }
+        }
+
+        return packet != null ? packet.getData() : null;
+    }
+
+    /**
+     * A pending request for one packet.
+     */
+    private static class Flight
+    {
+        private boolean sent;
+        private boolean done;
+        private long time;
+        private int[] data;
+    }
+}
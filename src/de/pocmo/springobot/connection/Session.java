@@ -0,0 +1,557 @@
+/*
+   Copyright 2011 Sebastian Kaspari
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package de.pocmo.springobot.connection;
+
+import de.pocmo.springobot.clock.Clock;
+import de.pocmo.springobot.constants.BaudRate;
+import de.pocmo.springobot.constants.Mode;
+import de.pocmo.springobot.control.Command;
+import de.pocmo.springobot.control.RobotWriter;
+import de.pocmo.springobot.sensors.Frame;
+import de.pocmo.springobot.sensors.FrameListener;
+import de.pocmo.springobot.sensors.RobotReader;
+
+import java.io.IOException;
+
+
+/**
+ * A robot connection that survives link failures.
+ *
+ * The session remembers the mode, baud rate, stream subscription and
+ * script set through it. A failure is detected when the input stream
+ * ends, writing fails or, while a stream is subscribed, no frame has
+ * been read for the stale timeout. The transport is then closed and
+ * opened again with exponential backoff. Once the handshake confirms
+ * the mode, the script and the stream subscription are sent again and
+ * frames are delivered to the listener as before.
+ *
+ * If the robot does not answer at the remembered baud rate (because it
+ * has been power cycled), the session connects at the default baud
+ * rate and changes the baud rate again.
+ *
+ * @author Sebastian Kaspari <s.kaspari@gmail.com>
+ */
+public class Session
+{
+    /**
+     * Default time to wait before the first reconnect attempt in
+     * milliseconds.
+     */
+    public static final long DEFAULT_INITIAL_BACKOFF = 100;
+
+    /**
+     * Default maximum time between reconnect attempts in milliseconds.
+     */
+    public static final long DEFAULT_MAX_BACKOFF = 5000;
+
+    /**
+     * Default time without frames after which the link is considered
+     * dead in milliseconds.
+     */
+    public static final long DEFAULT_STALE_TIMEOUT = 1000;
+
+    /**
+     * Time the robot needs after a baud rate change in milliseconds.
+     */
+    private static final long BAUD_RATE_DELAY = 100;
+
+    /**
+     * Time between two checks of the connection in milliseconds.
+     */
+    private static final long WATCH_INTERVAL = 20;
+
+    private final Transport transport;
+    private final FrameListener listener;
+
+    private volatile Clock clock = Clock.SYSTEM;
+
+    private long initialBackoff = DEFAULT_INITIAL_BACKOFF;
+    private long maxBackoff = DEFAULT_MAX_BACKOFF;
+    private long staleTimeout = DEFAULT_STALE_TIMEOUT;
+
+    // Remembered state, replayed after reconnecting
+    private Mode mode = Mode.PASSIVE;
+    private int baudRate = BaudRate.BAUD_57600;
+    private int[] packetIds;
+    private int[] script;
+
+    /**
+     * Writer of the current connection or null while disconnected.
+     */
+    private volatile RobotWriter writer;
+
+    private volatile boolean running;
+    private Thread thread;
+
+    private volatile long reconnectCount;
+    private volatile long lastRecoveryTime = -1;
+
+    /**
+     * Whether the session has not recovered from the last failure yet.
+     */
+    private volatile boolean failed;
+
+    /**
+     * Time (see Clock.nanoTime()) the last failure has been detected.
+     */
+    private volatile long failureTime;
+
+    /**
+     * Create a new session.
+     *
+     * @param transport The link to the robot.
+     * @param listener  Receives the frames of the subscribed stream.
+     */
+    public Session(Transport transport, FrameListener listener)
+    {
+        this.transport = transport;
+        this.listener  = listener;
+    }
+
+    /**
+     * Set the times to wait between reconnect attempts. The time
+     * doubles with every failed attempt.
+     *
+     * @param initialBackoff Time before the first attempt in
+     *                       milliseconds.
+     * @param maxBackoff     Maximum time between attempts in
+     *                       milliseconds.
+     */
+    public void setBackoff(long initialBackoff, long maxBackoff)
+    {
+        if (initialBackoff <= 0 || maxBackoff < initialBackoff) {
+            throw new IllegalArgumentException("Invalid backoff: " + initialBackoff + " - " + maxBackoff);
+        }
+
+        this.initialBackoff = initialBackoff;
+        this.maxBackoff     = maxBackoff;
+    }
+
+    /**
+     * Set the time without frames after which the link is considered
+     * dead. Only used while a stream is subscribed.
+     *
+     * @param staleTimeout Timeout in milliseconds.
+     */
+    public void setStaleTimeout(long staleTimeout)
+    {
+        if (staleTimeout <= 0) {
+            throw new IllegalArgumentException("Stale timeout must be positive");
+        }
+
+        this.staleTimeout = staleTimeout;
+    }
+
+    /**
+     * Set the clock used for timeouts, backoff and the readers and
+     * writers of new connections. Must be set before start().
+     *
+     * @param clock The clock.
+     */
+    public void setClock(Clock clock)
+    {
+        this.clock = clock;
+    }
+
+    /**
+     * Set the mode of the robot.
+     *
+     * @param mode The mode: PASSIVE, SAFE or FULL.
+     */
+    public synchronized void setMode(Mode mode)
+    {
+        if (mode == null || mode == Mode.OFF) {
+            throw new IllegalArgumentException("Can not bring robot into mode: " + mode);
+        }
+
+        this.mode = mode;
+
+        if (writer != null) {
+            switch (mode) {
+                case SAFE:
+                    writer.enableSafeMode();
+                    break;
+                case FULL:
+                    writer.enableFullMode();
+                    break;
+                default:
+                    writer.start();
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Set the baud rate of the link. If connected, the robot is told
+     * to change the baud rate and the transport is opened again at
+     * the new rate.
+     *
+     * @param baudRate Use one of the constants of the BaudRate class.
+     */
+    public synchronized void setBaudRate(int baudRate)
+    {
+        BaudRate.getBitsPerSecond(baudRate);
+
+        if (baudRate == this.baudRate) {
+            return;
+        }
+
+        this.baudRate = baudRate;
+
+        if (writer != null) {
+            writer.setBaudRate(baudRate);
+            sleep(BAUD_RATE_DELAY);
+
+            // Reconnect at the new baud rate without backoff
+            writer = null;
+            transport.close();
+        }
+    }
+
+    /**
+     * Subscribe to a stream of sensor packets.
+     *
+     * @param packetIds The sensor packet ids to stream (see Sensor).
+     */
+    public synchronized void stream(int... packetIds)
+    {
+        this.packetIds = packetIds.clone();
+
+        if (writer != null) {
+            writer.stream(packetIds);
+        }
+    }
+
+    /**
+     * Store a script on the robot.
+     *
+     * @param script The command bytes of the script.
+     */
+    public synchronized void script(int... script)
+    {
+        this.script = script.clone();
+
+        if (writer != null) {
+            writer.script(script);
+        }
+    }
+
+    /**
+     * Send a command if connected.
+     *
+     * Commands are not queued while disconnected.
+     *
+     * @param command The command to send.
+     * @return True if the command has been sent, false if the session
+     *         is not connected.
+     */
+    public boolean send(Command command)
+    {
+        RobotWriter current = writer;
+
+        if (current == null) {
+            return false;
+        }
+
+        return current.send(command);
+    }
+
+    /**
+     * Get the writer of the current connection.
+     *
+     * The writer changes with every reconnect, so it should not be
+     * kept.
+     *
+     * @return The writer or null while disconnected.
+     */
+    public RobotWriter getWriter()
+    {
+        return writer;
+    }
+
+    /**
+     * Check whether the session is connected.
+     *
+     * @return True if connected.
+     */
+    public boolean isConnected()
+    {
+        return writer != null;
+    }
+
+    /**
+     * Get the number of times the session has reconnected after a
+     * failure.
+     *
+     * @return Number of reconnects.
+     */
+    public long getReconnectCount()
+    {
+        return reconnectCount;
+    }
+
+    /**
+     * Get the time from detecting the last failure until the session
+     * was connected again and, if a stream is subscribed, the first
+     * frame has been delivered.
+     *
+     * @return Recovery time in milliseconds or -1 if the session has
+     *         not recovered from a failure yet.
+     */
+    public long getLastRecoveryTime()
+    {
+        return lastRecoveryTime;
+    }
+
+    /**
+     * Connect and keep reconnecting until closed.
+     */
+    public synchronized void start()
+    {
+        if (running) {
+            return;
+        }
+
+        running = true;
+
+        thread = new Thread(new Runnable() {
+            public void run()
+            {
+                supervise();
+            }
+        }, "Spring-o-Bot Session");
+
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Stop reconnecting and close the transport.
+     */
+    public void close()
+    {
+        Thread current;
+
+        synchronized (this) {
+            running = false;
+            writer  = null;
+            current = thread;
+        }
+
+        transport.close();
+
+        if (current != null) {
+            current.interrupt();
+        }
+    }
+
+    /**
+     * Connect, watch the connection and reconnect after failures.
+     */
+    private void supervise()
+    {
+        long backoff = initialBackoff;
+
+        while (running) {
+            RobotReader reader;
+
+            try {
+                reader = connect();
+            } catch (IOException exception) {
+                transport.close();
+
+                if (!sleep(backoff)) {
+                    return;
+                }
+
+                backoff = Math.min(2 * backoff, maxBackoff);
+                continue;
+            }
+
+            backoff = initialBackoff;
+
+            if (failed) {
+                reconnectCount++;
+
+                if (!isStreaming()) {
+                    recovered();
+                }
+            }
+
+            Thread pump = startPump(reader);
+
+            while (running && pump.isAlive() && !hasFailed(reader)) {
+                if (!sleep(WATCH_INTERVAL)) {
+                    break;
+                }
+            }
+
+            synchronized (this) {
+                writer = null;
+            }
+
+            if (running && !failed) {
+                failureTime = clock.nanoTime();
+                failed = true;
+            }
+
+            transport.close();
+
+            try {
+                pump.join();
+            } catch (InterruptedException exception) {
+                // Closing
+            }
+        }
+
+        transport.close();
+    }
+
+    /**
+     * Open the transport, bring the robot into the remembered mode and
+     * replay script and stream subscription.
+     *
+     * @return The reader of the new connection.
+     * @throws IOException If the robot did not become ready.
+     */
+    private RobotReader connect() throws IOException
+    {
+        int rate;
+        Mode target;
+
+        synchronized (this) {
+            rate   = baudRate;
+            target = mode;
+        }
+
+        Connection connection;
+
+        try {
+            connection = open(rate, target);
+        } catch (IOException exception) {
+            if (rate == BaudRate.BAUD_57600) {
+                throw exception;
+            }
+
+            // The robot may have been power cycled, restore the rate
+            transport.close();
+
+            open(BaudRate.BAUD_57600, target).getWriter().setBaudRate(rate);
+            sleep(BAUD_RATE_DELAY);
+            transport.close();
+
+            connection = open(rate, target);
+        }
+
+        synchronized (this) {
+            if (!running || rate != baudRate || target != mode) {
+                throw new IOException("Session settings changed while connecting");
+            }
+
+            RobotWriter connected = connection.getWriter();
+
+            if (script != null) {
+                connected.script(script);
+            }
+
+            if (packetIds != null) {
+                connected.stream(packetIds);
+            }
+
+            if (connected.getError() != null) {
+                throw connected.getError();
+            }
+
+            writer = connected;
+        }
+
+        return connection.getReader();
+    }
+
+    private Connection open(int rate, Mode target) throws IOException
+    {
+        transport.open(rate);
+
+        RobotReader reader = new RobotReader(transport.getInputStream(), clock);
+        RobotWriter writer = new RobotWriter(transport.getOutputStream(), clock);
+
+        return new Handshake(reader, writer).open(target);
+    }
+
+    /**
+     * Start a thread delivering the frames of a connection.
+     */
+    private Thread startPump(final RobotReader reader)
+    {
+        Thread pump = new Thread(new Runnable() {
+            public void run()
+            {
+                Frame frame = new Frame();
+
+                while (running && reader.readFrame(frame)) {
+                    if (failed) {
+                        recovered();
+                    }
+
+                    listener.frameReceived(frame);
+                }
+            }
+        }, "Spring-o-Bot Session Reader");
+
+        pump.setDaemon(true);
+        pump.start();
+
+        return pump;
+    }
+
+    private boolean hasFailed(RobotReader reader)
+    {
+        RobotWriter current = writer;
+
+        if (current == null || current.getError() != null) {
+            return true;
+        }
+
+        return isStreaming() && clock.nanoTime() - reader.getLastPacketTime() > staleTimeout * 1000000L;
+    }
+
+    private synchronized boolean isStreaming()
+    {
+        return packetIds != null && packetIds.length > 0;
+    }
+
+    private void recovered()
+    {
+        lastRecoveryTime = (clock.nanoTime() - failureTime) / 1000000L;
+        failed = false;
+    }
+
+    /**
+     * Sleep unless the session is closed.
+     *
+     * @return False if interrupted.
+     */
+    private boolean sleep(long millis)
+    {
+        try {
+            clock.sleepNanos(millis * 1000000L);
+            return true;
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+}
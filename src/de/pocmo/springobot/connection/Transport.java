@@ -0,0 +1,58 @@
+/*
+   Copyright 2011 Sebastian Kaspari
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package de.pocmo.springobot.connection;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+
+/**
+ * The physical link to a robot (for example a serial port) that can be
+ * closed and opened again.
+ *
+ * @author Sebastian Kaspari <s.kaspari@gmail.com>
+ */
+public interface Transport
+{
+    /**
+     * Open the link. Called again after close() to reconnect.
+     *
+     * @param baudRate The baud rate to use (see BaudRate).
+     * @throws IOException If the link can not be opened.
+     */
+    public void open(int baudRate) throws IOException;
+
+    /**
+     * Get the stream to read from the robot.
+     *
+     * @return The input stream of the open link.
+     */
+    public InputStream getInputStream();
+
+    /**
+     * Get the stream to write to the robot.
+     *
+     * @return The output stream of the open link.
+     */
+    public OutputStream getOutputStream();
+
+    /**
+     * Close the link. Blocked reads on the input stream must return
+     * or fail. Closing a closed link has no effect.
+     */
+    public void close();
+}
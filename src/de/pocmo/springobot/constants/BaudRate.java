@@ -35,4 +35,39 @@ public class BaudRate
     public static int BAUD_38400  = 9;
     public static int BAUD_57600  = 10;
     public static int BAUD_115200 = 11;
+
+    /**
+     * Bits per second by baud code.
+     */
+    private static final int[] BITS_PER_SECOND = {
+        300, 600, 1200, 2400, 4800, 9600, 14400, 19200, 28800, 38400, 57600, 115200
+    };
+
+    /**
+     * Get the bits per second of a baud code.
+     *
+     * @param baudRate One of the constants of this class.
+     * @return Bits per second.
+     */
+    public static int getBitsPerSecond(int baudRate)
+    {
+        if (baudRate < 0 || baudRate >= BITS_PER_SECOND.length) {
+            throw new IllegalArgumentException("Unknown baud rate: " + baudRate);
+        }
+
+        return BITS_PER_SECOND[baudRate];
+    }
+
+    /**
+     * Get the time needed to send the given number of bytes. Every byte
+     * takes 10 bits on the wire (start bit, 8 data bits, stop bit).
+     *
+     * @param baudRate One of the constants of this class.
+     * @param bytes    Number of bytes.
+     * @return Time in nanoseconds.
+     */
+    public static long getWireTime(int baudRate, int bytes)
+    {
+        return bytes * 10L * 1000000000L / getBitsPerSecond(baudRate);
+    }
 }
@@ -16,17 +16,57 @@
 package de.pocmo.springobot.constants;
 
 /**
- * Constants for the charging state as returned by the charging
- * sensor.
+ * Charging states as returned by the charging sensor.
  *
  * @author Sebastian Kaspari <s.kaspari@gmail.com>
  */
-public class ChargingState
+public enum ChargingState
 {
-    public static int NOT_CHARGING = 0;
-    public static int RECONDITIONING_CHARGING = 1;
-    public static int FULL_CHARGING = 2;
-    public static int TRICKLE_CHARGING = 3;
-    public static int WAITING = 4;
-    public static int CHARGING_FAULT_CONDITION = 5;
+    NOT_CHARGING(0),
+    RECONDITIONING_CHARGING(1),
+    FULL_CHARGING(2),
+    TRICKLE_CHARGING(3),
+    WAITING(4),
+    CHARGING_FAULT_CONDITION(5);
+
+    private static final ChargingState[] VALUES = values();
+
+    private final int value;
+
+    private ChargingState(int value)
+    {
+        this.value = value;
+    }
+
+    /**
+     * Get the value as reported by the CHARGING_STATE sensor.
+     *
+     * @return The charging state value.
+     */
+    public int getValue()
+    {
+        return value;
+    }
+
+    /**
+     * Check whether the battery is being charged in this state.
+     *
+     * @return True for reconditioning, full and trickle charging.
+     */
+    public boolean isCharging()
+    {
+        return this == RECONDITIONING_CHARGING || this == FULL_CHARGING || this == TRICKLE_CHARGING;
+    }
+
+    /**
+     * Get the charging state for a value reported by the CHARGING_STATE
+     * sensor.
+     *
+     * @param value The charging state value.
+     * @return The charging state or null for unknown values.
+     */
+    public static ChargingState fromValue(int value)
+    {
+        return value >= 0 && value < VALUES.length ? VALUES[value] : null;
+    }
 }
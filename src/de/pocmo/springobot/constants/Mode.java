@@ -16,14 +16,44 @@
 package de.pocmo.springobot.constants;
 
 /**
- * Constants for Open Interface modes.
+ * Open Interface modes.
  *
  * @author Sebastian Kaspari <s.kaspari@gmail.com>
  */
-public class Mode
+public enum Mode
 {
-    public static final int OFF = 0;
-    public static final int PASSIVE = 1;
-    public static final int SAFE = 2;
-    public static final int FULL = 3;
+    OFF(0),
+    PASSIVE(1),
+    SAFE(2),
+    FULL(3);
+
+    private static final Mode[] VALUES = values();
+
+    private final int value;
+
+    private Mode(int value)
+    {
+        this.value = value;
+    }
+
+    /**
+     * Get the value as reported by the OI_MODE sensor.
+     *
+     * @return The mode value.
+     */
+    public int getValue()
+    {
+        return value;
+    }
+
+    /**
+     * Get the mode for a value reported by the OI_MODE sensor.
+     *
+     * @param value The mode value.
+     * @return The mode or null for unknown values.
+     */
+    public static Mode fromValue(int value)
+    {
+        return value >= 0 && value < VALUES.length ? VALUES[value] : null;
+    }
 }
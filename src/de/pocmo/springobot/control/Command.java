@@ -0,0 +1,162 @@
+/*
+   Copyright 2011 Sebastian Kaspari
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package de.pocmo.springobot.control;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+
+/**
+ * An encoded Open Interface command: The opcode followed by its data
+ * bytes.
+ *
+ * Commands are immutable and can be shared between threads and
+ * connections.
+ *
+ * @author Sebastian Kaspari <s.kaspari@gmail.com>
+ */
+public class Command
+{
+    /**
+     * Lowest opcode defined by the Open Interface.
+     */
+    public static final int MIN_OPCODE = 128;
+
+    /**
+     * Highest opcode defined by the Open Interface.
+     */
+    public static final int MAX_OPCODE = 158;
+
+    /**
+     * The encoded command.
+     */
+    private final byte[] bytes;
+
+    /**
+     * Create a new command.
+     *
+     * @param opcode Command byte (see Opcode).
+     * @param data   None, one or more data bytes.
+     */
+    public Command(int opcode, int... data)
+    {
+        if (opcode < MIN_OPCODE || opcode > MAX_OPCODE) {
+            throw new IllegalArgumentException("Unknown opcode: " + opcode);
+        }
+
+        bytes = new byte[data.length + 1];
+        bytes[0] = (byte) opcode;
+
+        for (int i = 0; i < data.length; i++) {
+            bytes[i + 1] = (byte) data[i];
+        }
+    }
+
+    /**
+     * Create a command from already encoded bytes.
+     *
+     * @param buffer Buffer containing the command.
+     * @param offset Position of the opcode.
+     * @param length Number of bytes including the opcode.
+     * @return The command.
+     */
+    public static Command parse(byte[] buffer, int offset, int length)
+    {
+        if (length < 1) {
+            throw new IllegalArgumentException("Empty command");
+        }
+
+        int opcode = buffer[offset] & 0xFF;
+
+        if (opcode < MIN_OPCODE || opcode > MAX_OPCODE) {
+            throw new IllegalArgumentException("Unknown opcode: " + opcode);
+        }
+
+        return new Command(Arrays.copyOfRange(buffer, offset, offset + length));
+    }
+
+    /**
+     * Create a command wrapping the given bytes.
+     */
+    private Command(byte[] bytes)
+    {
+        this.bytes = bytes;
+    }
+
+    /**
+     * Get the opcode of this command.
+     *
+     * @return The command byte.
+     */
+    public int getOpcode()
+    {
+        return bytes[0] & 0xFF;
+    }
+
+    /**
+     * Get the number of bytes of this command including the opcode.
+     *
+     * @return Size in bytes.
+     */
+    public int size()
+    {
+        return bytes.length;
+    }
+
+    /**
+     * Get a copy of the encoded command.
+     *
+     * @return The opcode followed by the data bytes.
+     */
+    public byte[] toByteArray()
+    {
+        return bytes.clone();
+    }
+
+    /**
+     * Get the encoded command without copying.
+     *
+     * @return The bytes of the command; must not be modified.
+     */
+    byte[] getBytes()
+    {
+        return bytes;
+    }
+
+    /**
+     * Write the command to the given stream with a single write.
+     *
+     * @param stream The stream to write to.
+     * @throws IOException
+     */
+    public void writeTo(OutputStream stream) throws IOException
+    {
+        stream.write(bytes);
+    }
+
+    @Override
+    public boolean equals(Object object)
+    {
+        return object instanceof Command && Arrays.equals(bytes, ((Command) object).bytes);
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return Arrays.hashCode(bytes);
+    }
+}
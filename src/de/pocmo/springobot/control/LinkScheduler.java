@@ -0,0 +1,364 @@
+/*
+   Copyright 2011 Sebastian Kaspari
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package de.pocmo.springobot.control;
+
+import de.pocmo.springobot.constants.BaudRate;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+
+/**
+ * Schedules commands of different priorities onto the serial line by
+ * their wire time.
+ *
+ * Time is divided into periods (15 ms by default, the stream period).
+ * In every period the scheduler sends at most as many bytes as the line
+ * can transfer at the current baud rate. Each priority class (except
+ * CRITICAL) has a share of that budget. Unused shares go to the other
+ * classes in priority order, so the line is never idle while commands
+ * are waiting.
+ *
+ * Commands are never split, because any byte sent in the middle of a
+ * command would become part of it. A command larger than its class
+ * share waits until the class has saved up enough budget over several
+ * periods. A multi-command bulk transfer (like a set of songs) is
+ * released one command at a time. A high priority command therefore
+ * waits at most for the command currently on the wire. Periods are
+ * measured with the clock of the writer.
+ *
+ * @author Sebastian Kaspari <s.kaspari@gmail.com>
+ */
+public class LinkScheduler implements Runnable
+{
+    /**
+     * Default length of a period in milliseconds.
+     */
+    public static final long DEFAULT_PERIOD = 15;
+
+    private static final int CLASSES = Priority.values().length;
+
+    private RobotWriter writer;
+    private long period;
+
+    /**
+     * Bytes the line can transfer per period.
+     */
+    private int budget;
+
+    /**
+     * Share of the budget by priority class.
+     */
+    private double[] shares = { 1.0, 0.5, 0.3, 0.2 };
+
+    /**
+     * Saved budget in bytes by priority class.
+     */
+    private double[] credits = new double[CLASSES];
+
+    /**
+     * Waiting commands by priority class.
+     */
+    private List<ArrayDeque<Command>> queues = new ArrayList<ArrayDeque<Command>>();
+
+    /**
+     * Bytes sent by priority class.
+     */
+    private long[] sent = new long[CLASSES];
+
+    private long periodStart;
+    private int periodBytes;
+
+    private Thread thread;
+
+    /**
+     * Create a new scheduler with the default period.
+     *
+     * @param writer   The writer to send commands with.
+     * @param baudRate Current baud rate (see BaudRate).
+     */
+    public LinkScheduler(RobotWriter writer, int baudRate)
+    {
+        this(writer, baudRate, DEFAULT_PERIOD);
+    }
+
+    /**
+     * Create a new scheduler.
+     *
+     * @param writer   The writer to send commands with.
+     * @param baudRate Current baud rate (see BaudRate).
+     * @param period   Length of a period in milliseconds.
+     */
+    public LinkScheduler(RobotWriter writer, int baudRate, long period)
+    {
+        if (period <= 0) {
+            throw new IllegalArgumentException("Period must be positive");
+        }
+
+        for (int i = 0; i < CLASSES; i++) {
+            queues.add(new ArrayDeque<Command>());
+        }
+
+        this.writer = writer;
+        this.period = period * 1000000L;
+
+        setBaudRate(baudRate);
+    }
+
+    /**
+     * Set the baud rate after it has been changed on the robot.
+     *
+     * @param baudRate One of the constants of the BaudRate class.
+     */
+    public synchronized void setBaudRate(int baudRate)
+    {
+        budget = (int) Math.max(1, BaudRate.getBitsPerSecond(baudRate) / 10 * period / 1000000000L);
+    }
+
+    /**
+     * Get the number of bytes the line can transfer per period.
+     *
+     * @return Budget in bytes.
+     */
+    public synchronized int getBudget()
+    {
+        return budget;
+    }
+
+    /**
+     * Set the share of the budget a priority class may use per period
+     * when other classes are waiting too.
+     *
+     * @param priority The priority class (not CRITICAL).
+     * @param share    Share of the budget (0.0 - 1.0).
+     */
+    public synchronized void setShare(Priority priority, double share)
+    {
+        if (priority == Priority.CRITICAL) {
+            throw new IllegalArgumentException("Critical commands are not limited");
+        }
+
+        if (share <= 0 || share > 1) {
+            throw new IllegalArgumentException("Share out of range (0 to 1)");
+        }
+
+        shares[priority.ordinal()] = share;
+    }
+
+    /**
+     * Queue a command.
+     *
+     * @param command  The command.
+     * @param priority Its priority class.
+     */
+    public synchronized void submit(Command command, Priority priority)
+    {
+        queues.get(priority.ordinal()).add(command);
+
+        notifyAll();
+    }
+
+    /**
+     * Queue a bulk transfer. The commands are sent in order, one at a
+     * time within the bulk share.
+     *
+     * @param commands The commands of the transfer.
+     */
+    public synchronized void submitBulk(List<Command> commands)
+    {
+        queues.get(Priority.BULK.ordinal()).addAll(commands);
+
+        notifyAll();
+    }
+
+    /**
+     * Get the number of commands waiting in a priority class.
+     *
+     * @param priority The priority class.
+     * @return Number of queued commands.
+     */
+    public synchronized int getQueueLength(Priority priority)
+    {
+        return queues.get(priority.ordinal()).size();
+    }
+
+    /**
+     * Get the number of bytes sent in a priority class.
+     *
+     * @param priority The priority class.
+     * @return Number of bytes.
+     */
+    public synchronized long getSentBytes(Priority priority)
+    {
+        return sent[priority.ordinal()];
+    }
+
+    /**
+     * Start sending in a new daemon thread.
+     */
+    public synchronized void start()
+    {
+        if (thread != null) {
+            return;
+        }
+
+        thread = new Thread(this, "Spring-o-Bot Link Scheduler");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MAX_PRIORITY);
+        thread.start();
+    }
+
+    /**
+     * Stop sending. Queued commands are kept.
+     */
+    public synchronized void shutdown()
+    {
+        if (thread != null) {
+            thread.interrupt();
+            thread = null;
+        }
+    }
+
+    /**
+     * Send commands until shutdown() is called.
+     */
+    public void run()
+    {
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                writer.send(next());
+            }
+        } catch (InterruptedException exception) {
+            // Shut down
+        }
+    }
+
+    /**
+     * Wait for the next command that may be sent.
+     *
+     * @return The command.
+     * @throws InterruptedException
+     */
+    synchronized Command next() throws InterruptedException
+    {
+        while (true) {
+            long now = writer.getClock().nanoTime();
+
+            if (now - periodStart >= period) {
+                startPeriod(now);
+            }
+
+            Command command = pick();
+
+            if (command != null) {
+                return command;
+            }
+
+            if (isEmpty()) {
+                wait();
+            } else {
+                long remaining = period - (writer.getClock().nanoTime() - periodStart);
+
+                writer.getClock().awaitNanos(this, remaining);
+            }
+        }
+    }
+
+    /**
+     * Begin a new period and hand out the shares to waiting classes.
+     */
+    private void startPeriod(long now)
+    {
+        periodStart = now;
+        periodBytes = 0;
+
+        for (int i = 1; i < CLASSES; i++) {
+            if (queues.get(i).isEmpty()) {
+                credits[i] = 0;
+            } else {
+                // Allow saving up for a command larger than the share
+                double limit = Math.max(budget * shares[i], queues.get(i).peek().size());
+
+                credits[i] = Math.min(limit, credits[i] + budget * shares[i]);
+            }
+        }
+    }
+
+    /**
+     * Remove and return the next command that fits into the current
+     * period or null.
+     */
+    private Command pick()
+    {
+        // Critical commands are never held back
+        if (!queues.get(0).isEmpty()) {
+            return take(0);
+        }
+
+        // First pass: every class within its share
+        for (int i = 1; i < CLASSES; i++) {
+            Command command = queues.get(i).peek();
+
+            if (command != null && command.size() <= credits[i] && fits(command)) {
+                credits[i] -= command.size();
+
+                return take(i);
+            }
+        }
+
+        // Second pass: unused budget in priority order
+        for (int i = 1; i < CLASSES; i++) {
+            Command command = queues.get(i).peek();
+
+            if (command != null && fits(command)) {
+                return take(i);
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Check whether a command fits into the rest of the period. Commands
+     * larger than a whole period are sent at the start of a period.
+     */
+    private boolean fits(Command command)
+    {
+        return periodBytes + command.size() <= budget || periodBytes == 0;
+    }
+
+    private Command take(int index)
+    {
+        Command command = queues.get(index).poll();
+
+        periodBytes  += command.size();
+        sent[index]  += command.size();
+
+        return command;
+    }
+
+    private boolean isEmpty()
+    {
+        for (int i = 0; i < CLASSES; i++) {
+            if (!queues.get(i).isEmpty()) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+}
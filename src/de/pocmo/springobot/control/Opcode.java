@@ -96,7 +96,7 @@ public class Opcode
     /**
      * This command lets you control the three low side drivers.
      * 
-     * Data Bytes: 3
+     * Data Bytes: 1
      */
     public static int LOW_SIDE_DRIVERS = 138;
     
@@ -0,0 +1,87 @@
+/*
+   Copyright 2011 Sebastian Kaspari
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package de.pocmo.springobot.control;
+
+
+/**
+ * Proportional-integral controller with output limits.
+ *
+ * The integral only grows while the output is not saturated (anti
+ * windup), so the controller reacts immediately once the error changes
+ * sign after a long saturation.
+ *
+ * @author Sebastian Kaspari <s.kaspari@gmail.com>
+ */
+public class PiController
+{
+    private final double proportionalGain;
+    private final double integralGain;
+    private final double minOutput;
+    private final double maxOutput;
+
+    private double integral;
+
+    /**
+     * Create a new controller.
+     *
+     * @param proportionalGain Gain of the error.
+     * @param integralGain     Gain of the integrated error (per second).
+     * @param minOutput        Smallest output.
+     * @param maxOutput        Largest output.
+     */
+    public PiController(double proportionalGain, double integralGain, double minOutput, double maxOutput)
+    {
+        if (minOutput > maxOutput) {
+            throw new IllegalArgumentException("Minimum output above maximum output");
+        }
+
+        this.proportionalGain = proportionalGain;
+        this.integralGain     = integralGain;
+        this.minOutput        = minOutput;
+        this.maxOutput        = maxOutput;
+    }
+
+    /**
+     * Compute the output for a new error.
+     *
+     * @param error    Setpoint minus measured value.
+     * @param timeStep Time since the last update in seconds.
+     * @return The output, limited to the output range.
+     */
+    public double update(double error, double timeStep)
+    {
+        double candidate = integral + integralGain * error * timeStep;
+        double output    = proportionalGain * error + candidate;
+
+        if (output > maxOutput) {
+            output = maxOutput;
+        } else if (output < minOutput) {
+            output = minOutput;
+        } else {
+            integral = candidate;
+        }
+
+        return output;
+    }
+
+    /**
+     * Clear the integrated error.
+     */
+    public void reset()
+    {
+        integral = 0;
+    }
+}
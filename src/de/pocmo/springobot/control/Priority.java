@@ -0,0 +1,44 @@
+/*
+   Copyright 2011 Sebastian Kaspari
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package de.pocmo.springobot.control;
+
+/**
+ * Priority classes of the LinkScheduler, highest first.
+ *
+ * @author Sebastian Kaspari <s.kaspari@gmail.com>
+ */
+public enum Priority
+{
+    /**
+     * Safety commands (like stopping). Never limited by a budget.
+     */
+    CRITICAL,
+
+    /**
+     * Motion and actuator commands.
+     */
+    COMMAND,
+
+    /**
+     * Sensor polls (Sensors, Query List).
+     */
+    POLL,
+
+    /**
+     * Bulk transfers (Song and Script uploads).
+     */
+    BULK
+}
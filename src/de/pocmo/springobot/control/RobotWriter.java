@@ -15,6 +15,9 @@
  */
 package de.pocmo.springobot.control;
 
+import de.pocmo.springobot.clock.Clock;
+import de.pocmo.springobot.telemetry.WireTap;
+
 import java.io.IOException;
 import java.io.OutputStream;
 
@@ -26,19 +29,95 @@ import java.io.OutputStream;
  */
 public class RobotWriter
 {
+    /**
+     * Drive command with velocity 0 and radius 0.
+     */
+    private static final byte[] STOP = { (byte) Opcode.DRIVE, 0, 0, 0, 0 };
+
     /**
      * The output stream to write to.
      */
     private OutputStream stream;
 
+    /**
+     * Reused buffer of Drive Direct commands, so streaming wheel speeds
+     * does not allocate.
+     */
+    private final byte[] wheels = new byte[5];
+
+    /**
+     * Clock for timestamps.
+     */
+    private Clock clock;
+
+    /**
+     * Tap recording all bytes written or null.
+     */
+    private volatile WireTap tap;
+
+    /**
+     * Number of commands sent since this writer has been created.
+     * Stop commands are not counted.
+     */
+    private volatile long commandCount;
+
+    /**
+     * Time (see Clock.nanoTime()) of the last command sent.
+     */
+    private volatile long lastCommandTime;
+
+    /**
+     * The last error that occured while writing to the stream or
+     * null if all writes succeeded.
+     */
+    private volatile IOException error;
+
+    /**
+     * Number of writes that failed since this writer has been created.
+     */
+    private volatile long errorCount;
+
     /**
      * Create a new RobotWriter instance.
      *
      * @param stream The output stream to write to.
      */
     public RobotWriter(OutputStream stream)
+    {
+        this(stream, Clock.SYSTEM);
+    }
+
+    /**
+     * Create a new RobotWriter instance using the given clock.
+     *
+     * @param stream The output stream to write to.
+     * @param clock  The clock for timestamps.
+     */
+    public RobotWriter(OutputStream stream, Clock clock)
     {
         this.stream = stream;
+        this.clock  = clock;
+        this.lastCommandTime = clock.nanoTime();
+    }
+
+    /**
+     * Record all bytes written from now on with the given tap.
+     *
+     * @param tap The tap or null to stop recording.
+     */
+    public void setTap(WireTap tap)
+    {
+        this.tap = tap;
+    }
+
+    /**
+     * Get the clock of this writer.
+     *
+     * @return The clock used for timestamps.
+     */
+    public Clock getClock()
+    {
+        return clock;
     }
 
     /**
@@ -188,8 +267,10 @@ public class RobotWriter
      *                   Create turn more. The radius is measured
      *                   from the center of the turning circle to
      *                   the center of Create.
+     *
+     * @return True if the command has been written, false otherwise.
      */
-    public void drive(int velocity, int turnRadius)
+    public boolean drive(int velocity, int turnRadius)
     {
         if (velocity < -500 || velocity > 500) {
             throw new IllegalArgumentException("Velocity out of range (-500 to 500)");
@@ -200,12 +281,12 @@ public class RobotWriter
             throw new IllegalArgumentException("Turn radius out of range (-2000 to 2000)");
         }
 
-        this.send(
+        return this.send(
             Opcode.DRIVE,
-            velocity & 0x0000FF00,   // Velocity high byte
-            velocity & 0x000000FF,   // Velocity low byte
-            turnRadius & 0x0000FF00, // Turn radius high byte
-            turnRadius & 0x000000FF  // Turn radius low byte
+            (velocity & 0x0000FF00) >> 8,   // Velocity high byte
+            velocity & 0x000000FF,          // Velocity low byte
+            (turnRadius & 0x0000FF00) >> 8, // Turn radius high byte
+            turnRadius & 0x000000FF         // Turn radius low byte
         );
     }
 
@@ -220,8 +301,10 @@ public class RobotWriter
      * @param velocityLeft  Velocity of the left wheel in
      *                      millimeters per second (mm/s)
      *                      (-500 – 500 mm/s).
+     *
+     * @return True if the command has been written, false otherwise.
      */
-    public void driveDirect(int velocityRight, int velocityLeft)
+    public boolean driveDirect(int velocityRight, int velocityLeft)
     {
         if (velocityLeft < -500 || velocityLeft > 500) {
             throw new IllegalArgumentException("Velocity left is out of range (-500 to 500)");
@@ -231,13 +314,15 @@ public class RobotWriter
             throw new IllegalArgumentException("Velocity right is out of range (-500 to 500)");
         }
 
-        this.send(
-            Opcode.DRIVE_DIRECT,
-            (velocityRight & 0x0000FF00) >> 8, // Velocity right high byte
-            velocityRight & 0x000000FF,        // Velocity right low byte
-            (velocityLeft & 0x0000FF00) >> 8,  // Velocity left high byte
-            velocityLeft & 0x000000FF          // Velocity left low byte
-        );
+        synchronized (this) {
+            wheels[0] = (byte) Opcode.DRIVE_DIRECT;
+            wheels[1] = (byte) (velocityRight >> 8); // Velocity right high byte
+            wheels[2] = (byte) velocityRight;        // Velocity right low byte
+            wheels[3] = (byte) (velocityLeft >> 8);  // Velocity left high byte
+            wheels[4] = (byte) velocityLeft;         // Velocity left low byte
+
+            return write(wheels);
+        }
     }
 
     /**
@@ -301,21 +386,435 @@ public class RobotWriter
     }
 
     /**
-     * Send the given command byte and (optional) data byte(s).
+     * This command lets you control the three low side drivers
+     * (on or off).
      *
-     * @param command Command byte
-     * @param data    None, one or more data bytes
+     * Bit 0 is low side driver 0 (pin 23), bit 1 low side driver 1
+     * (pin 22) and bit 2 low side driver 2 (pin 24).
+     *
+     * Available in modes: Safe or Full.
+     *
+     * @param driverBits The drivers to turn on (0 - 7).
      */
-    private void send(int command, int... data)
+    public void setLowSideDrivers(int driverBits)
     {
-        try {
-            stream.write(command);
+        this.send(lowSideDrivers(driverBits));
+    }
+
+    /**
+     * This command lets you control the three low side drivers
+     * with variable power. The duty cycles range from 0 (off) to
+     * 128 (100%).
+     *
+     * Available in modes: Safe or Full.
+     *
+     * @param dutyCycle2 Duty cycle of low side driver 2 (pin 24).
+     * @param dutyCycle1 Duty cycle of low side driver 1 (pin 22).
+     * @param dutyCycle0 Duty cycle of low side driver 0 (pin 23).
+     */
+    public void setPwmLowSideDrivers(int dutyCycle2, int dutyCycle1, int dutyCycle0)
+    {
+        this.send(pwmLowSideDrivers(dutyCycle2, dutyCycle1, dutyCycle0));
+    }
+
+    /**
+     * This command controls the state of the 3 digital output
+     * pins on the 25 pin Cargo Bay Connector. The digital outputs
+     * can provide up to 20 mA of current.
+     *
+     * Bit 0 is digital output 0 (pin 19), bit 1 digital output 1
+     * (pin 7) and bit 2 digital output 2 (pin 20).
+     *
+     * Available in modes: Safe or Full.
+     *
+     * @param outputBits The outputs to set high (0 - 7).
+     */
+    public void setDigitalOutputs(int outputBits)
+    {
+        this.send(digitalOutputs(outputBits));
+    }
+
+    /**
+     * Encode a Low Side Drivers command.
+     *
+     * @param driverBits The drivers to turn on (0 - 7).
+     * @return The command.
+     */
+    public static Command lowSideDrivers(int driverBits)
+    {
+        if (driverBits < 0 || driverBits > 7) {
+            throw new IllegalArgumentException("Driver bits out of range (0 to 7)");
+        }
+
+        return new Command(Opcode.LOW_SIDE_DRIVERS, driverBits);
+    }
+
+    /**
+     * Encode a PWM Low Side Drivers command.
+     *
+     * @param dutyCycle2 Duty cycle of low side driver 2 (0 - 128).
+     * @param dutyCycle1 Duty cycle of low side driver 1 (0 - 128).
+     * @param dutyCycle0 Duty cycle of low side driver 0 (0 - 128).
+     * @return The command.
+     */
+    public static Command pwmLowSideDrivers(int dutyCycle2, int dutyCycle1, int dutyCycle0)
+    {
+        if (dutyCycle2 < 0 || dutyCycle2 > 128 || dutyCycle1 < 0 || dutyCycle1 > 128 || dutyCycle0 < 0 || dutyCycle0 > 128) {
+            throw new IllegalArgumentException("Duty cycle out of range (0 to 128)");
+        }
+
+        return new Command(Opcode.PWM_LOW_SIDE_DRIVERS, dutyCycle2, dutyCycle1, dutyCycle0);
+    }
+
+    /**
+     * Encode a Digital Outputs command.
+     *
+     * @param outputBits The outputs to set high (0 - 7).
+     * @return The command.
+     */
+    public static Command digitalOutputs(int outputBits)
+    {
+        if (outputBits < 0 || outputBits > 7) {
+            throw new IllegalArgumentException("Output bits out of range (0 to 7)");
+        }
+
+        return new Command(Opcode.DIGITAL_OUTPUTS, outputBits);
+    }
+
+    /**
+     * This command starts a continuous stream of data packets.
+     * The list of packets requested is sent every 15 ms, which is
+     * the rate iRobot Create uses to update data.
+     *
+     * Available in modes: Passive, Safe, or Full.
+     *
+     * @param packetIds The sensor packet ids to stream (see Sensor).
+     */
+    public void stream(int... packetIds)
+    {
+        int[] data = new int[packetIds.length + 1];
+
+        data[0] = packetIds.length;
+        System.arraycopy(packetIds, 0, data, 1, packetIds.length);
+
+        this.send(Opcode.STREAM, data);
+    }
+
+    /**
+     * This command requests a single sensor packet. The robot answers
+     * with the data bytes of the packet (see RobotReader.readSensor()).
+     *
+     * Available in modes: Passive, Safe, or Full.
+     *
+     * @param packetId The sensor packet id (see Sensor).
+     */
+    public void requestSensor(int packetId)
+    {
+        this.send(Opcode.SENSORS, packetId);
+    }
+
+    /**
+     * This command stops the stream without clearing the list of
+     * requested packets.
+     *
+     * Available in modes: Passive, Safe, or Full.
+     */
+    public void pauseStream()
+    {
+        this.send(Opcode.PAUSE_RESUME_STREAM, 0);
+    }
+
+    /**
+     * This command restarts the stream with the list of packets
+     * last requested.
+     *
+     * Available in modes: Passive, Safe, or Full.
+     */
+    public void resumeStream()
+    {
+        this.send(Opcode.PAUSE_RESUME_STREAM, 1);
+    }
+
+    /**
+     * This command specifies a script to be played later. A script
+     * consists of OI commands and can be up to 100 bytes long. The
+     * script is kept until it is replaced or the robot is power
+     * cycled.
+     *
+     * Available in modes: Passive, Safe, or Full.
+     *
+     * @param script The command bytes of the script.
+     */
+    public void script(int... script)
+    {
+        if (script.length > 100) {
+            throw new IllegalArgumentException("Script too long: " + script.length + " bytes");
+        }
+
+        int[] data = new int[script.length + 1];
+
+        data[0] = script.length;
+        System.arraycopy(script, 0, data, 1, script.length);
+
+        this.send(Opcode.SCRIPT, data);
+    }
+
+    /**
+     * This command loads a previously defined script into the
+     * serial input queue for playback.
+     *
+     * Available in modes: Passive, Safe, or Full.
+     */
+    public void playScript()
+    {
+        this.send(Opcode.PLAY_SCRIPT);
+    }
+
+    /**
+     * This command stores a song of up to 16 notes in one of the 16
+     * song slots of the robot. The song is kept until it is replaced
+     * or the robot is power cycled.
+     *
+     * Available in modes: Passive, Safe, or Full.
+     *
+     * @param songNumber The song slot (0 - 15).
+     * @param notes      Pairs of note number (31 - 127) and duration in
+     *                   1/64ths of a second (0 - 255).
+     * @return True if the command has been written, false otherwise.
+     */
+    public boolean song(int songNumber, int... notes)
+    {
+        if (songNumber < 0 || songNumber > 15) {
+            throw new IllegalArgumentException("Song number out of range (0 to 15)");
+        }
+
+        if (notes.length == 0 || notes.length > 32 || notes.length % 2 != 0) {
+            throw new IllegalArgumentException("Song must have 1 to 16 notes with durations");
+        }
+
+        int[] data = new int[notes.length + 2];
+
+        data[0] = songNumber;
+        data[1] = notes.length / 2;
 
-            for (int i = 0; i < data.length; i++) {
-                stream.write(data[i]);
+        for (int i = 0; i < notes.length; i += 2) {
+            if (notes[i] < 31 || notes[i] > 127) {
+                throw new IllegalArgumentException("Note out of range (31 to 127): " + notes[i]);
             }
+
+            if (notes[i + 1] < 0 || notes[i + 1] > 255) {
+                throw new IllegalArgumentException("Duration out of range (0 to 255): " + notes[i + 1]);
+            }
+
+            data[i + 2] = notes[i];
+            data[i + 3] = notes[i + 1];
+        }
+
+        return this.send(Opcode.SONG, data);
+    }
+
+    /**
+     * This command plays a song stored with song(). The robot ignores
+     * it while a song is playing.
+     *
+     * Available in modes: Safe or Full.
+     *
+     * @param songNumber The song slot (0 - 15).
+     * @return True if the command has been written, false otherwise.
+     */
+    public boolean playSong(int songNumber)
+    {
+        if (songNumber < 0 || songNumber > 15) {
+            throw new IllegalArgumentException("Song number out of range (0 to 15)");
+        }
+
+        return this.send(Opcode.PLAY_SONG, songNumber);
+    }
+
+    /**
+     * Stop both drive wheels immediately.
+     *
+     * The stop command (Drive with velocity and radius 0) is written
+     * as a single block. It only waits for a command that is currently
+     * being written, so it can not get interleaved with the bytes of
+     * another command.
+     *
+     * Stop commands are not counted as commands.
+     *
+     * @return True if the command has been written, false otherwise.
+     */
+    public synchronized boolean stop()
+    {
+        try {
+            stream.write(STOP);
+            stream.flush();
+
+            tap(STOP);
+
+            return true;
+        } catch (IOException exception) {
+            error = exception;
+            errorCount++;
+
+            return false;
+        }
+    }
+
+    /**
+     * Get the number of commands sent by this writer.
+     *
+     * @return Number of commands (without stop commands).
+     */
+    public long getCommandCount()
+    {
+        return commandCount;
+    }
+
+    /**
+     * Get the time the last command has been sent.
+     *
+     * If no command has been sent yet the time this writer has been
+     * created is returned.
+     *
+     * @return Timestamp as returned by Clock.nanoTime().
+     */
+    public long getLastCommandTime()
+    {
+        return lastCommandTime;
+    }
+
+    /**
+     * Get the last error that occured while writing to the robot.
+     *
+     * @return The exception or null if no write failed.
+     */
+    public IOException getError()
+    {
+        return error;
+    }
+
+    /**
+     * Get the number of writes that failed.
+     *
+     * Unlike getError() this allows to tell whether a write failed
+     * since an earlier call.
+     *
+     * @return Number of failed writes since this writer has been
+     *         created.
+     */
+    public long getErrorCount()
+    {
+        return errorCount;
+    }
+
+    /**
+     * Send an encoded command.
+     *
+     * The command is written with a single write, so it can not get
+     * interleaved with other commands sent by other threads.
+     *
+     * @param command The command to send.
+     * @return True if the command has been written, false otherwise.
+     */
+    public synchronized boolean send(Command command)
+    {
+        return write(command.getBytes());
+    }
+
+    /**
+     * Send several encoded commands at once.
+     *
+     * All commands are written with a single write, so they arrive at
+     * the robot back to back.
+     *
+     * @param commands The commands to send.
+     * @return True if the commands have been written, false otherwise.
+     */
+    public synchronized boolean send(Command... commands)
+    {
+        if (commands.length == 0) {
+            return true;
+        }
+
+        int size = 0;
+
+        for (Command command : commands) {
+            size += command.size();
+        }
+
+        byte[] bytes = new byte[size];
+        int offset = 0;
+
+        for (Command command : commands) {
+            byte[] encoded = command.toByteArray();
+
+            System.arraycopy(encoded, 0, bytes, offset, encoded.length);
+            offset += encoded.length;
+        }
+
+        commandCount += commands.length;
+        lastCommandTime = clock.nanoTime();
+
+        try {
+            stream.write(bytes);
+            stream.flush();
+
+            tap(bytes);
+
+            return true;
         } catch(IOException exception) {
-        // TODO: Exception?
+            error = exception;
+            errorCount++;
+
+            return false;
         }
     }
+
+    /**
+     * Write the bytes of one command. Must be called with the monitor
+     * held.
+     *
+     * @return True if the command has been written, false otherwise.
+     */
+    private boolean write(byte[] bytes)
+    {
+        commandCount++;
+        lastCommandTime = clock.nanoTime();
+
+        try {
+            stream.write(bytes);
+            stream.flush();
+
+            tap(bytes);
+
+            return true;
+        } catch(IOException exception) {
+            error = exception;
+            errorCount++;
+
+            return false;
+        }
+    }
+
+    private void tap(byte[] bytes)
+    {
+        WireTap current = tap;
+
+        // Do not read the clock for a disabled tap
+        if (current != null && current.isEnabled()) {
+            current.outbound(clock.nanoTime(), bytes, 0, bytes.length);
+        }
+    }
+
+    /**
+     * Send the given command byte and (optional) data byte(s).
+     *
+     * @param command Command byte
+     * @param data    None, one or more data bytes
+     * @return True if the command has been written, false otherwise.
+     */
+    private boolean send(int command, int... data)
+    {
+        return this.send(new Command(command, data));
+    }
 }
@@ -0,0 +1,117 @@
+/*
+   Copyright 2011 Sebastian Kaspari
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package de.pocmo.springobot.control;
+
+import de.pocmo.springobot.sensors.RobotReader;
+import de.pocmo.springobot.sensors.StreamLayout;
+
+
+/**
+ * Controls the sensor data stream of a robot.
+ *
+ * The list of streamed packets can be changed while the stream is
+ * running: The stream is paused, the reader is told to skip frames of
+ * the old layout still in flight, the new list is sent and the stream
+ * is resumed. The reader switches to the new layout with the first
+ * frame that has it, so no frame is decoded with the wrong layout.
+ *
+ * @author Sebastian Kaspari <s.kaspari@gmail.com>
+ */
+public class StreamController
+{
+    /**
+     * The reader reading the stream.
+     */
+    private RobotReader reader;
+
+    /**
+     * The writer to send stream commands with.
+     */
+    private RobotWriter writer;
+
+    /**
+     * Create a new StreamController instance.
+     *
+     * @param reader The reader reading the stream.
+     * @param writer The writer to send stream commands with.
+     */
+    public StreamController(RobotReader reader, RobotWriter writer)
+    {
+        this.reader = reader;
+        this.writer = writer;
+    }
+
+    /**
+     * Start streaming the given packets.
+     *
+     * @param packetIds The sensor packet ids to stream (see Sensor).
+     * @return The layout of the frames that will be streamed.
+     */
+    public StreamLayout start(int... packetIds)
+    {
+        StreamLayout layout = new StreamLayout(packetIds);
+
+        // Generate the decoder before the first frame arrives
+        layout.getDecoder();
+
+        reader.expectLayout(layout);
+        writer.stream(packetIds);
+
+        return layout;
+    }
+
+    /**
+     * Change the list of streamed packets without stopping the
+     * connection.
+     *
+     * The first frame with the new layout is usually read within two
+     * frame periods (30 ms). Use RobotReader.awaitLayout() to wait
+     * for it.
+     *
+     * @param packetIds The sensor packet ids to stream (see Sensor).
+     * @return The layout of the frames that will be streamed.
+     */
+    public StreamLayout reconfigure(int... packetIds)
+    {
+        StreamLayout layout = new StreamLayout(packetIds);
+
+        // Generate the decoder before the first frame arrives
+        layout.getDecoder();
+
+        writer.pauseStream();
+        reader.expectLayout(layout);
+        writer.stream(packetIds);
+        writer.resumeStream();
+
+        return layout;
+    }
+
+    /**
+     * Pause the stream.
+     */
+    public void pause()
+    {
+        writer.pauseStream();
+    }
+
+    /**
+     * Resume the stream with the last requested packets.
+     */
+    public void resume()
+    {
+        writer.resumeStream();
+    }
+}
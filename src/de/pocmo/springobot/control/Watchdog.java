@@ -0,0 +1,286 @@
+/*
+   Copyright 2011 Sebastian Kaspari
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package de.pocmo.springobot.control;
+
+import de.pocmo.springobot.sensors.RobotReader;
+
+
+/**
+ * Watchdog that stops the robot if no sensor data has been read for
+ * a given time or if writing to the robot failed.
+ *
+ * The watchdog only fires if the robot may be moving, that is if a
+ * command has been sent since the watchdog has been created or last
+ * stopped the robot. The stop command is sent via RobotWriter.stop()
+ * and does not wait for anything but a command that is currently being
+ * written. If writing the stop command fails the next check tries
+ * again.
+ *
+ * The worst-case reaction time (time between the last packet read and
+ * the stop command being written) is timeout + interval plus the time
+ * needed to write one command. Time is measured with the clock of
+ * the reader.
+ *
+ * @author Sebastian Kaspari <s.kaspari@gmail.com>
+ */
+public class Watchdog implements Runnable
+{
+    /**
+     * The reader to watch.
+     */
+    private RobotReader reader;
+
+    /**
+     * The writer used to stop the robot.
+     */
+    private RobotWriter writer;
+
+    /**
+     * Maximum time without packets in nanoseconds.
+     */
+    private long timeout;
+
+    /**
+     * Maximum time without commands in nanoseconds (0 = disabled).
+     */
+    private volatile long commandTimeout;
+
+    /**
+     * Time between two checks in milliseconds.
+     */
+    private long interval;
+
+    /**
+     * Command count of the writer at the time of the last stop or at
+     * the time the watchdog has been created.
+     */
+    private long stoppedAtCommand;
+
+    /**
+     * Error count of the writer at the time of the last check.
+     */
+    private long checkedErrors;
+
+    /**
+     * Number of times the watchdog stopped the robot.
+     */
+    private volatile int trips;
+
+    /**
+     * Time between the last packet read and the last stop in
+     * nanoseconds or -1 if the robot has not been stopped yet.
+     */
+    private volatile long lastReactionTime = -1;
+    private volatile long maxReactionTime = -1;
+
+    /**
+     * The thread running the watchdog or null if not started.
+     */
+    private Thread thread;
+
+    /**
+     * Create a new watchdog checking four times per timeout.
+     *
+     * @param reader  The reader to watch.
+     * @param writer  The writer used to stop the robot.
+     * @param timeout Maximum time without packets in milliseconds.
+     */
+    public Watchdog(RobotReader reader, RobotWriter writer, long timeout)
+    {
+        this(reader, writer, timeout, Math.max(1, timeout / 4));
+    }
+
+    /**
+     * Create a new watchdog.
+     *
+     * @param reader   The reader to watch.
+     * @param writer   The writer used to stop the robot.
+     * @param timeout  Maximum time without packets in milliseconds.
+     * @param interval Time between two checks in milliseconds.
+     */
+    public Watchdog(RobotReader reader, RobotWriter writer, long timeout, long interval)
+    {
+        if (timeout <= 0) {
+            throw new IllegalArgumentException("Timeout must be positive");
+        }
+
+        if (interval <= 0) {
+            throw new IllegalArgumentException("Interval must be positive");
+        }
+
+        this.reader   = reader;
+        this.writer   = writer;
+        this.timeout  = timeout * 1000000L;
+        this.interval = interval;
+
+        // Commands sent before the watchdog existed do not count
+        this.stoppedAtCommand = writer.getCommandCount();
+        this.checkedErrors    = writer.getErrorCount();
+    }
+
+    /**
+     * Additionally stop the robot if no command has been sent for the
+     * given time (dead man's switch).
+     *
+     * @param commandTimeout Maximum time without commands in milliseconds
+     *                       or 0 to disable.
+     */
+    public void setCommandTimeout(long commandTimeout)
+    {
+        if (commandTimeout < 0) {
+            throw new IllegalArgumentException("Command timeout must not be negative");
+        }
+
+        this.commandTimeout = commandTimeout * 1000000L;
+    }
+
+    /**
+     * Get the worst-case time between the last packet read and the
+     * watchdog sending the stop command.
+     *
+     * @return Reaction time in milliseconds.
+     */
+    public long getWorstCaseReactionTime()
+    {
+        return timeout / 1000000L + interval;
+    }
+
+    /**
+     * Get the number of times the watchdog stopped the robot.
+     *
+     * @return Number of stops.
+     */
+    public int getTripCount()
+    {
+        return trips;
+    }
+
+    /**
+     * Get the time between the last packet read and the last stop
+     * command written by the watchdog.
+     *
+     * For stops caused by a failed write or the command timeout this
+     * is the age of the sensor data at the time of the stop.
+     *
+     * @return Reaction time in nanoseconds or -1 if the watchdog did
+     *         not stop the robot yet.
+     */
+    public long getLastReactionTime()
+    {
+        return lastReactionTime;
+    }
+
+    /**
+     * Get the largest time between the last packet read and a stop
+     * command written by the watchdog.
+     *
+     * @return Reaction time in nanoseconds or -1 if the watchdog did
+     *         not stop the robot yet.
+     */
+    public long getMaxReactionTime()
+    {
+        return maxReactionTime;
+    }
+
+    /**
+     * Start watching in a new daemon thread.
+     */
+    public synchronized void start()
+    {
+        if (thread != null) {
+            return;
+        }
+
+        thread = new Thread(this, "Spring-o-Bot Watchdog");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MAX_PRIORITY);
+        thread.start();
+    }
+
+    /**
+     * Stop watching.
+     */
+    public synchronized void shutdown()
+    {
+        if (thread == null) {
+            return;
+        }
+
+        thread.interrupt();
+        thread = null;
+    }
+
+    /**
+     * Check the reader and writer once and stop the robot if needed.
+     *
+     * @return True if the robot has been stopped by this check.
+     */
+    public synchronized boolean check()
+    {
+        long commandCount = writer.getCommandCount();
+
+        // Only writes that failed since the last check count
+        long errors = writer.getErrorCount();
+        boolean failed = errors != checkedErrors;
+
+        checkedErrors = errors;
+
+        if (commandCount == stoppedAtCommand) {
+            // Nothing sent since the last stop
+            return false;
+        }
+
+        long now = reader.getClock().nanoTime();
+
+        boolean stale = now - reader.getLastPacketTime() > timeout;
+        boolean idle  = commandTimeout > 0 && now - writer.getLastCommandTime() > commandTimeout;
+
+        if (!stale && !idle && !failed) {
+            return false;
+        }
+
+        if (!writer.stop()) {
+            // The failed stop counts as a new error, so the next check
+            // tries again
+            return false;
+        }
+
+        long reaction = reader.getClock().nanoTime() - reader.getLastPacketTime();
+
+        lastReactionTime = reaction;
+        maxReactionTime  = Math.max(maxReactionTime, reaction);
+
+        stoppedAtCommand = commandCount;
+        trips++;
+
+        return true;
+    }
+
+    /**
+     * Check periodically until shutdown() is called.
+     */
+    public void run()
+    {
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                check();
+                reader.getClock().sleepNanos(interval * 1000000L);
+            }
+        } catch (InterruptedException exception) {
+            // Shut down
+        }
+    }
+}
@@ -0,0 +1,106 @@
+/*
+   Copyright 2011 Sebastian Kaspari
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package de.pocmo.springobot.filter;
+
+import de.pocmo.springobot.sensors.Frame;
+import de.pocmo.springobot.sensors.StreamLayout;
+
+
+/**
+ * Filters for several sensor channels, fed frame by frame.
+ *
+ * Register a filter per packet, for example WALL_SIGNAL and the four
+ * CLIFF_*_SIGNAL packets, then call update() for every frame. All
+ * registered channels present in the frame are decoded and filtered in
+ * one pass; the filtered values are read with get().
+ *
+ * @author Sebastian Kaspari <s.kaspari@gmail.com>
+ */
+public class ChannelFilters
+{
+    private final SignalFilter[] filters = new SignalFilter[StreamLayout.MAX_PACKET_ID + 1];
+    private final double[] values = new double[StreamLayout.MAX_PACKET_ID + 1];
+
+    /**
+     * Packet ids with a filter, in registration order.
+     */
+    private int[] channels = new int[0];
+
+    /**
+     * Set the filter of a channel, replacing any previous filter.
+     *
+     * @param packetId Sensor packet id.
+     * @param filter   The filter.
+     */
+    public synchronized void setFilter(int packetId, SignalFilter filter)
+    {
+        if (packetId < 0 || packetId > StreamLayout.MAX_PACKET_ID) {
+            throw new IllegalArgumentException("Unknown sensor packet id: " + packetId);
+        }
+
+        if (filters[packetId] == null) {
+            int[] extended = new int[channels.length + 1];
+
+            System.arraycopy(channels, 0, extended, 0, channels.length);
+            extended[channels.length] = packetId;
+
+            channels = extended;
+        }
+
+        filters[packetId] = filter;
+        values[packetId]  = Double.NaN;
+    }
+
+    /**
+     * Feed the values of a frame to the filters of their channels.
+     *
+     * @param frame The frame.
+     */
+    public synchronized void update(Frame frame)
+    {
+        for (int packetId : channels) {
+            if (frame.contains(packetId)) {
+                values[packetId] = filters[packetId].filter(frame.get(packetId));
+            }
+        }
+    }
+
+    /**
+     * Get the latest filtered value of a channel.
+     *
+     * @param packetId Sensor packet id.
+     * @return Filtered value or NaN if no value has been filtered yet.
+     */
+    public synchronized double get(int packetId)
+    {
+        if (packetId < 0 || packetId > StreamLayout.MAX_PACKET_ID || filters[packetId] == null) {
+            throw new IllegalArgumentException("No filter for packet: " + packetId);
+        }
+
+        return values[packetId];
+    }
+
+    /**
+     * Reset the filters of all channels.
+     */
+    public synchronized void reset()
+    {
+        for (int packetId : channels) {
+            filters[packetId].reset();
+            values[packetId] = Double.NaN;
+        }
+    }
+}
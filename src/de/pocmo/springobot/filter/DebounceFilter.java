@@ -0,0 +1,81 @@
+/*
+   Copyright 2011 Sebastian Kaspari
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package de.pocmo.springobot.filter;
+
+
+/**
+ * Passes a new value only after it has been seen in a row.
+ *
+ * Useful after a HysteresisFilter or on digital channels like WALL or
+ * the cliff sensors to ignore single-sample glitches. The first sample
+ * after a reset is passed through unchanged.
+ *
+ * @author Sebastian Kaspari <s.kaspari@gmail.com>
+ */
+public class DebounceFilter implements SignalFilter
+{
+    private final int samples;
+
+    private double value;
+    private double candidate;
+    private int seen;
+    private boolean initialized;
+
+    /**
+     * Create a new filter.
+     *
+     * @param samples Number of consecutive samples a new value must be
+     *                seen before it is passed.
+     */
+    public DebounceFilter(int samples)
+    {
+        if (samples < 1) {
+            throw new IllegalArgumentException("Samples must be positive");
+        }
+
+        this.samples = samples;
+    }
+
+    public double filter(double sample)
+    {
+        if (!initialized) {
+            value = sample;
+            initialized = true;
+        } else if (sample == value) {
+            seen = 0;
+        } else {
+            if (sample == candidate && seen > 0) {
+                seen++;
+            } else {
+                candidate = sample;
+                seen = 1;
+            }
+
+            if (seen >= samples) {
+                value = sample;
+                seen = 0;
+            }
+        }
+
+        return value;
+    }
+
+    public void reset()
+    {
+        initialized = false;
+        seen = 0;
+    }
+}
@@ -0,0 +1,64 @@
+/*
+   Copyright 2011 Sebastian Kaspari
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package de.pocmo.springobot.filter;
+
+
+/**
+ * Exponential moving average.
+ *
+ * The first sample after a reset is passed through unchanged.
+ *
+ * @author Sebastian Kaspari <s.kaspari@gmail.com>
+ */
+public class ExponentialFilter implements SignalFilter
+{
+    private final double alpha;
+
+    private double value;
+    private boolean initialized;
+
+    /**
+     * Create a new filter.
+     *
+     * @param alpha Weight of a new sample (0.0 - 1.0). Smaller values
+     *              smooth more.
+     */
+    public ExponentialFilter(double alpha)
+    {
+        if (!(alpha > 0 && alpha <= 1)) {
+            throw new IllegalArgumentException("Alpha must be in (0, 1]: " + alpha);
+        }
+
+        this.alpha = alpha;
+    }
+
+    public double filter(double sample)
+    {
+        if (initialized) {
+            value += alpha * (sample - value);
+        } else {
+            value = sample;
+            initialized = true;
+        }
+
+        return value;
+    }
+
+    public void reset()
+    {
+        initialized = false;
+    }
+}
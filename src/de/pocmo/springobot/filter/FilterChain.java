@@ -0,0 +1,61 @@
+/*
+   Copyright 2011 Sebastian Kaspari
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package de.pocmo.springobot.filter;
+
+
+/**
+ * Filters applied one after another.
+ *
+ * For example a median to remove spikes, an average to smooth and a
+ * threshold to get a digital signal:
+ *
+ * <pre>
+ * new FilterChain(new MedianFilter(5), new ExponentialFilter(0.2),
+ *     new HysteresisFilter(200, 400));
+ * </pre>
+ *
+ * @author Sebastian Kaspari <s.kaspari@gmail.com>
+ */
+public class FilterChain implements SignalFilter
+{
+    private final SignalFilter[] filters;
+
+    /**
+     * Create a new chain.
+     *
+     * @param filters The filters in the order they are applied.
+     */
+    public FilterChain(SignalFilter... filters)
+    {
+        this.filters = filters.clone();
+    }
+
+    public double filter(double sample)
+    {
+        for (SignalFilter filter : filters) {
+            sample = filter.filter(sample);
+        }
+
+        return sample;
+    }
+
+    public void reset()
+    {
+        for (SignalFilter filter : filters) {
+            filter.reset();
+        }
+    }
+}
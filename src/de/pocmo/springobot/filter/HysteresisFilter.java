@@ -0,0 +1,67 @@
+/*
+   Copyright 2011 Sebastian Kaspari
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package de.pocmo.springobot.filter;
+
+
+/**
+ * Threshold with hysteresis.
+ *
+ * The output switches to 1 once a sample reaches the upper threshold
+ * and back to 0 once a sample drops to the lower threshold. Samples in
+ * between keep the previous output, so a signal hovering around one
+ * threshold does not toggle the output.
+ *
+ * @author Sebastian Kaspari <s.kaspari@gmail.com>
+ */
+public class HysteresisFilter implements SignalFilter
+{
+    private final double low;
+    private final double high;
+
+    private boolean on;
+
+    /**
+     * Create a new filter.
+     *
+     * @param low  Samples at or below this switch the output off.
+     * @param high Samples at or above this switch the output on.
+     */
+    public HysteresisFilter(double low, double high)
+    {
+        if (low > high) {
+            throw new IllegalArgumentException("Lower threshold above upper threshold");
+        }
+
+        this.low  = low;
+        this.high = high;
+    }
+
+    public double filter(double sample)
+    {
+        if (sample >= high) {
+            on = true;
+        } else if (sample <= low) {
+            on = false;
+        }
+
+        return on ? 1 : 0;
+    }
+
+    public void reset()
+    {
+        on = false;
+    }
+}
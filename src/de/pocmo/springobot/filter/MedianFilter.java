@@ -0,0 +1,108 @@
+/*
+   Copyright 2011 Sebastian Kaspari
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package de.pocmo.springobot.filter;
+
+
+/**
+ * Median of the last samples.
+ *
+ * The samples are kept in a ring buffer and, in parallel, in a sorted
+ * array. Each sample replaces the oldest one in the sorted array by
+ * shifting the elements in between, which is cheap for the small
+ * window sizes used to remove spikes. Until the window is filled the
+ * median of the samples so far is returned.
+ *
+ * @author Sebastian Kaspari <s.kaspari@gmail.com>
+ */
+public class MedianFilter implements SignalFilter
+{
+    private final double[] ring;
+    private final double[] sorted;
+
+    private int next;
+    private int count;
+
+    /**
+     * Create a new filter.
+     *
+     * @param size Number of samples to take the median of.
+     */
+    public MedianFilter(int size)
+    {
+        if (size < 1) {
+            throw new IllegalArgumentException("Size must be positive");
+        }
+
+        ring   = new double[size];
+        sorted = new double[size];
+    }
+
+    public double filter(double sample)
+    {
+        int position;
+
+        if (count == ring.length) {
+            // Remove the oldest sample from the sorted array
+            position = indexOf(ring[next]);
+        } else {
+            position = count++;
+        }
+
+        ring[next] = sample;
+        next = (next + 1) % ring.length;
+
+        // Move the hole to the position of the new sample
+        while (position > 0 && sorted[position - 1] > sample) {
+            sorted[position] = sorted[position - 1];
+            position--;
+        }
+
+        while (position < count - 1 && sorted[position + 1] < sample) {
+            sorted[position] = sorted[position + 1];
+            position++;
+        }
+
+        sorted[position] = sample;
+
+        int middle = count >> 1;
+
+        return (count & 1) == 1 ? sorted[middle] : (sorted[middle - 1] + sorted[middle]) / 2;
+    }
+
+    public void reset()
+    {
+        next  = 0;
+        count = 0;
+    }
+
+    private int indexOf(double value)
+    {
+        int low  = 0;
+        int high = count - 1;
+
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+
+            if (sorted[middle] < value) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+
+        return low;
+    }
+}
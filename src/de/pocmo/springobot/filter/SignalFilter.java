@@ -0,0 +1,42 @@
+/*
+   Copyright 2011 Sebastian Kaspari
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package de.pocmo.springobot.filter;
+
+
+/**
+ * A filter for one sensor channel.
+ *
+ * Filters are fed one sample at a time and keep their state in
+ * preallocated primitive fields, so filtering does not allocate.
+ * Filters are not thread-safe.
+ *
+ * @author Sebastian Kaspari <s.kaspari@gmail.com>
+ */
+public interface SignalFilter
+{
+    /**
+     * Feed a sample to the filter.
+     *
+     * @param value The sample.
+     * @return The filtered value.
+     */
+    public double filter(double value);
+
+    /**
+     * Forget all previous samples.
+     */
+    public void reset();
+}
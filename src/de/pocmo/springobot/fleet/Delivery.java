@@ -0,0 +1,175 @@
+/*
+   Copyright 2011 Sebastian Kaspari
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package de.pocmo.springobot.fleet;
+
+
+/**
+ * Outcome of sending one command to all robots of a fleet.
+ *
+ * @author Sebastian Kaspari <s.kaspari@gmail.com>
+ */
+public class Delivery
+{
+    private final long start;
+    private final long[] times;
+    private final boolean[] written;
+    private final boolean[] returned;
+
+    private final int delivered;
+    private final int unreached;
+    private final long first;
+    private final long last;
+
+    /**
+     * Create a new delivery report.
+     *
+     * @param start    Time the broadcast started.
+     * @param times    Time each write returned, by robot.
+     * @param written  Whether each write succeeded, by robot.
+     * @param returned Whether each write returned in time, by robot.
+     */
+    Delivery(long start, long[] times, boolean[] written, boolean[] returned)
+    {
+        this.start    = start;
+        this.times    = times;
+        this.written  = written;
+        this.returned = returned;
+
+        int count = 0;
+        int missing = 0;
+        long min = Long.MAX_VALUE;
+        long max = Long.MIN_VALUE;
+
+        for (int i = 0; i < times.length; i++) {
+            if (!returned[i]) {
+                missing++;
+            }
+
+            if (!written[i]) {
+                continue;
+            }
+
+            count++;
+            min = Math.min(min, times[i] - start);
+            max = Math.max(max, times[i] - start);
+        }
+
+        this.delivered = count;
+        this.unreached = missing;
+        this.first     = count > 0 ? min : -1;
+        this.last      = count > 0 ? max : -1;
+    }
+
+    /**
+     * Get the number of robots the command has been written to.
+     *
+     * @return Number of successful writes.
+     */
+    public int getDelivered()
+    {
+        return delivered;
+    }
+
+    /**
+     * Get the number of robots the command could not be written to,
+     * including the robots not reached in time.
+     *
+     * @return Number of failed writes.
+     */
+    public int getFailed()
+    {
+        return times.length - delivered;
+    }
+
+    /**
+     * Get the number of robots whose write had not returned when the
+     * broadcast timed out, or whose command has been left to be sent
+     * after an earlier write to them that was still blocked.
+     *
+     * @return Number of robots not reached in time.
+     */
+    public int getUnreached()
+    {
+        return unreached;
+    }
+
+    /**
+     * Check whether the write to a robot returned in time.
+     *
+     * @param index Index of the robot in the fleet.
+     * @return True if the write returned before the timeout.
+     */
+    public boolean isReached(int index)
+    {
+        return returned[index];
+    }
+
+    /**
+     * Check whether the command has been written to a robot.
+     *
+     * @param index Index of the robot in the fleet.
+     * @return True if the write succeeded.
+     */
+    public boolean isDelivered(int index)
+    {
+        return written[index];
+    }
+
+    /**
+     * Get the time from the start of the broadcast until the write to
+     * a robot returned.
+     *
+     * @param index Index of the robot in the fleet.
+     * @return Time in nanoseconds or -1 if the robot was not reached in
+     *         time.
+     */
+    public long getLatency(int index)
+    {
+        return returned[index] ? times[index] - start : -1;
+    }
+
+    /**
+     * Get the time from the start of the broadcast until the first
+     * robot has been written to.
+     *
+     * @return Time in nanoseconds or -1 if no write succeeded.
+     */
+    public long getFirst()
+    {
+        return first;
+    }
+
+    /**
+     * Get the time from the start of the broadcast until the last
+     * robot has been written to.
+     *
+     * @return Time in nanoseconds or -1 if no write succeeded.
+     */
+    public long getLast()
+    {
+        return last;
+    }
+
+    /**
+     * Get the time between the first and the last successful write.
+     *
+     * @return Spread in nanoseconds or -1 if no write succeeded.
+     */
+    public long getSpread()
+    {
+        return delivered > 0 ? last - first : -1;
+    }
+}
@@ -0,0 +1,315 @@
+/*
+   Copyright 2011 Sebastian Kaspari
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package de.pocmo.springobot.fleet;
+
+import de.pocmo.springobot.clock.Clock;
+import de.pocmo.springobot.control.Command;
+import de.pocmo.springobot.control.RobotWriter;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * Sends commands to all robots of a fleet at once.
+ *
+ * A command is encoded once and the same bytes are written to every
+ * robot. The writes are spread over a number of threads that take the
+ * next robot as soon as their last write returned, so a robot with a
+ * slow or blocked connection only holds up one thread and the others
+ * keep going.
+ *
+ * A broadcast waits at most for its timeout. Robots that have not been
+ * written to by then are reported as not reached and no further robots
+ * are taken. Threads stuck in a blocked write are not reused; later
+ * broadcasts get fresh threads.
+ *
+ * While a write to a robot is blocked, later broadcasts do not wait for
+ * it but leave their command with the robot and report it as not
+ * reached. Only the latest of these commands is kept, and the thread of
+ * the blocked write sends it as soon as that write returned. So a robot
+ * always ends up with the last command broadcast to it, for example
+ * a stop after a drive command that was stuck in a full buffer.
+ *
+ * Every broadcast returns a Delivery reporting which robots have been
+ * written to and the spread between the first and the last write.
+ *
+ * @author Sebastian Kaspari <s.kaspari@gmail.com>
+ */
+public class FleetBroadcast
+{
+    /**
+     * Default number of threads writing in parallel.
+     */
+    public static final int DEFAULT_PARALLELISM = 8;
+
+    /**
+     * Default time to wait for a broadcast in milliseconds.
+     */
+    public static final long DEFAULT_TIMEOUT = 100;
+
+    private final RobotWriter[] writers;
+    private final int parallelism;
+    private final ExecutorService executor;
+    private final Clock clock;
+
+    /**
+     * Write state by robot index.
+     */
+    private final Lane[] lanes;
+
+    private volatile long timeout = DEFAULT_TIMEOUT;
+
+    /**
+     * Create a new broadcast with the default parallelism.
+     *
+     * @param writers The writers of the robots.
+     */
+    public FleetBroadcast(List<RobotWriter> writers)
+    {
+        this(writers, DEFAULT_PARALLELISM);
+    }
+
+    /**
+     * Create a new broadcast.
+     *
+     * @param writers     The writers of the robots.
+     * @param parallelism Number of threads writing in parallel.
+     */
+    public FleetBroadcast(List<RobotWriter> writers, int parallelism)
+    {
+        if (writers.isEmpty()) {
+            throw new IllegalArgumentException("Fleet must not be empty");
+        }
+
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Parallelism must be positive");
+        }
+
+        this.writers     = writers.toArray(new RobotWriter[writers.size()]);
+        this.parallelism = Math.min(parallelism, this.writers.length);
+        this.clock       = this.writers[0].getClock();
+        this.lanes       = new Lane[this.writers.length];
+
+        for (int i = 0; i < lanes.length; i++) {
+            lanes[i] = new Lane();
+        }
+
+        // Idle threads are reused, blocked ones are replaced by new threads
+        this.executor = new ThreadPoolExecutor(0, Integer.MAX_VALUE, 60, TimeUnit.SECONDS,
+            new SynchronousQueue<Runnable>(), new ThreadFactory() {
+                public Thread newThread(Runnable runnable)
+                {
+                    Thread thread = new Thread(runnable, "Spring-o-Bot Broadcast");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+    }
+
+    /**
+     * Set the maximum time to wait for a broadcast.
+     *
+     * @param timeout Timeout in milliseconds.
+     */
+    public void setTimeout(long timeout)
+    {
+        if (timeout <= 0) {
+            throw new IllegalArgumentException("Timeout must be positive");
+        }
+
+        this.timeout = timeout;
+    }
+
+    /**
+     * Get the number of robots.
+     *
+     * @return Size of the fleet.
+     */
+    public int size()
+    {
+        return writers.length;
+    }
+
+    /**
+     * Send a command to all robots and wait until every write returned
+     * or the timeout expired.
+     *
+     * @param command The command.
+     * @return The delivery report.
+     * @throws InterruptedException
+     */
+    public Delivery broadcast(Command command) throws InterruptedException
+    {
+        return fanOut(command);
+    }
+
+    /**
+     * Stop the drive wheels of all robots (see RobotWriter.stop()).
+     *
+     * @return The delivery report.
+     * @throws InterruptedException
+     */
+    public Delivery stopAll() throws InterruptedException
+    {
+        return fanOut(null);
+    }
+
+    /**
+     * Stop the threads. Broadcasts are not possible afterwards.
+     */
+    public void close()
+    {
+        executor.shutdown();
+    }
+
+    /**
+     * Write a command (or stop if null) to all robots.
+     */
+    private Delivery fanOut(final Command command) throws InterruptedException
+    {
+        final int count = writers.length;
+        final long[] times = new long[count];
+        final boolean[] written = new boolean[count];
+        final boolean[] returned = new boolean[count];
+
+        final AtomicInteger next = new AtomicInteger();
+        final AtomicBoolean expired = new AtomicBoolean();
+        final CountDownLatch done = new CountDownLatch(parallelism);
+
+        Runnable worker = new Runnable() {
+            public void run()
+            {
+                try {
+                    int index;
+
+                    while (!expired.get() && (index = next.getAndIncrement()) < count) {
+                        Lane lane = lanes[index];
+
+                        synchronized (lane) {
+                            if (lane.writing) {
+                                // Still blocked in an earlier write, leave
+                                // the command to that write's thread
+                                lane.command = command;
+                                lane.queued  = true;
+                                continue;
+                            }
+
+                            lane.writing = true;
+                        }
+
+                        try {
+                            boolean result = write(index, command);
+                            long time = clock.nanoTime();
+
+                            synchronized (returned) {
+                                written[index]  = result;
+                                times[index]    = time;
+                                returned[index] = true;
+                            }
+                        } finally {
+                            writeQueued(index);
+                        }
+                    }
+                } finally {
+                    done.countDown();
+                }
+            }
+        };
+
+        long start = clock.nanoTime();
+
+        try {
+            for (int i = 0; i < parallelism; i++) {
+                try {
+                    executor.execute(worker);
+                } catch (RejectedExecutionException exception) {
+                    throw new IllegalStateException("Broadcast has been closed");
+                }
+            }
+
+            done.await(timeout, TimeUnit.MILLISECONDS);
+        } finally {
+            expired.set(true);
+        }
+
+        // Writes returning from now on are not part of the report
+        synchronized (returned) {
+            return new Delivery(start, times.clone(), written.clone(), returned.clone());
+        }
+    }
+
+    /**
+     * Write a command (or stop if null) to one robot.
+     */
+    private boolean write(int index, Command command)
+    {
+        return command != null ? writers[index].send(command) : writers[index].stop();
+    }
+
+    /**
+     * Write the commands left for a robot while its last write was
+     * blocked, then release the robot.
+     */
+    private void writeQueued(int index)
+    {
+        Lane lane = lanes[index];
+
+        while (true) {
+            Command command;
+
+            synchronized (lane) {
+                if (!lane.queued) {
+                    lane.writing = false;
+                    return;
+                }
+
+                command = lane.command;
+
+                lane.command = null;
+                lane.queued  = false;
+            }
+
+            write(index, command);
+        }
+    }
+
+    /**
+     * Write state of one robot. Guarded by its own monitor.
+     */
+    private static class Lane
+    {
+        /**
+         * True while a thread is writing to the robot.
+         */
+        private boolean writing;
+
+        /**
+         * True if a command (or stop if null) is waiting for the
+         * current write to return; later commands replace it.
+         */
+        private boolean queued;
+        private Command command;
+    }
+}
@@ -0,0 +1,209 @@
+/*
+   Copyright 2011 Sebastian Kaspari
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package de.pocmo.springobot.navigation;
+
+import de.pocmo.springobot.sensors.BumpsAndWheelDrops;
+import de.pocmo.springobot.sensors.Frame;
+import de.pocmo.springobot.sensors.Sensor;
+
+
+/**
+ * Builds a hazard map from the sensor stream.
+ *
+ * Feed every frame to update(). The pose is integrated from DISTANCE and
+ * ANGLE, the cell below the robot is marked free and every hazard seen
+ * in the frame (bumps, cliffs, walls and virtual walls) marks the cell
+ * at the sensor's position on the robot's edge as occupied. Frames
+ * should contain DISTANCE and ANGLE; all hazard packets are optional.
+ *
+ * @author Sebastian Kaspari <s.kaspari@gmail.com>
+ */
+public class HazardMapper
+{
+    /**
+     * Distance from the center of the robot to its edge in millimeters.
+     */
+    public static final double ROBOT_RADIUS = 170;
+
+    /**
+     * Default threshold below which a cliff signal counts as cliff.
+     */
+    public static final int DEFAULT_CLIFF_THRESHOLD = 100;
+
+    /**
+     * Default threshold above which a wall signal counts as wall.
+     */
+    public static final int DEFAULT_WALL_THRESHOLD = 20;
+
+    /**
+     * Direction of the bumpers relative to the heading.
+     */
+    private static final double BUMP_ANGLE = Math.toRadians(40);
+
+    /**
+     * Direction of the cliff sensors (left, front left, front right,
+     * right) relative to the heading.
+     */
+    private static final double[] CLIFF_ANGLES = {
+        Math.toRadians(60),
+        Math.toRadians(15),
+        Math.toRadians(-15),
+        Math.toRadians(-60)
+    };
+
+    private static final int[] CLIFF_PACKETS = {
+        Sensor.CLIFF_LEFT,
+        Sensor.CLIFF_FRONT_LEFT,
+        Sensor.CLIFF_FRONT_RIGHT,
+        Sensor.CLIFF_RIGHT
+    };
+
+    private static final int[] CLIFF_SIGNAL_PACKETS = {
+        Sensor.CLIFF_LEFT_SIGNAL,
+        Sensor.CLIFF_FRONT_LEFT_SIGNAL,
+        Sensor.CLIFF_FRONT_RIGHT_SIGNAL,
+        Sensor.CLIFF_RIGHT_SIGNAL
+    };
+
+    /**
+     * Direction of the wall sensor relative to the heading.
+     */
+    private static final double WALL_ANGLE = Math.toRadians(-90);
+
+    private final OccupancyGrid grid;
+    private final Odometry odometry;
+
+    private int cliffThreshold = DEFAULT_CLIFF_THRESHOLD;
+    private int wallThreshold = DEFAULT_WALL_THRESHOLD;
+
+    /**
+     * Create a new mapper.
+     *
+     * @param grid The grid to update.
+     */
+    public HazardMapper(OccupancyGrid grid)
+    {
+        this(grid, new Odometry());
+    }
+
+    /**
+     * Create a new mapper using an existing pose estimate.
+     *
+     * @param grid     The grid to update.
+     * @param odometry The pose estimate, updated by this mapper.
+     */
+    public HazardMapper(OccupancyGrid grid, Odometry odometry)
+    {
+        this.grid     = grid;
+        this.odometry = odometry;
+    }
+
+    /**
+     * Set the cliff signal strength below which a cliff is assumed
+     * even if the robot does not report one.
+     *
+     * @param cliffThreshold Signal strength (0 - 4095).
+     */
+    public void setCliffThreshold(int cliffThreshold)
+    {
+        this.cliffThreshold = cliffThreshold;
+    }
+
+    /**
+     * Set the wall signal strength above which a wall is assumed even
+     * if the robot does not report one.
+     *
+     * @param wallThreshold Signal strength (0 - 4095).
+     */
+    public void setWallThreshold(int wallThreshold)
+    {
+        this.wallThreshold = wallThreshold;
+    }
+
+    /**
+     * Get the grid this mapper updates.
+     *
+     * @return The grid.
+     */
+    public OccupancyGrid getGrid()
+    {
+        return grid;
+    }
+
+    /**
+     * Get the pose estimate.
+     *
+     * @return The odometry.
+     */
+    public Odometry getOdometry()
+    {
+        return odometry;
+    }
+
+    /**
+     * Update pose and map with a frame.
+     *
+     * @param frame The frame.
+     */
+    public void update(Frame frame)
+    {
+        odometry.update(frame);
+
+        grid.markFree(odometry.getX(), odometry.getY());
+
+        if (frame.contains(Sensor.BUMPS_AND_WHEEL_DROPS)) {
+            BumpsAndWheelDrops bumps = BumpsAndWheelDrops.from(frame);
+
+            if (bumps.isBumpLeft() && bumps.isBumpRight()) {
+                mark(0);
+            } else if (bumps.isBumpLeft()) {
+                mark(BUMP_ANGLE);
+            } else if (bumps.isBumpRight()) {
+                mark(-BUMP_ANGLE);
+            }
+        }
+
+        for (int i = 0; i < CLIFF_PACKETS.length; i++) {
+            if (frame.get(CLIFF_PACKETS[i], 0) != 0
+                    || frame.get(CLIFF_SIGNAL_PACKETS[i], Integer.MAX_VALUE) < cliffThreshold) {
+                mark(CLIFF_ANGLES[i]);
+            }
+        }
+
+        if (frame.get(Sensor.WALL, 0) != 0 || frame.get(Sensor.WALL_SIGNAL, 0) > wallThreshold) {
+            mark(WALL_ANGLE);
+        }
+
+        if (frame.get(Sensor.VIRTUAL_WALL, 0) != 0) {
+            mark(0);
+        }
+    }
+
+    /**
+     * Mark the cell at the robot's edge in the given direction occupied.
+     *
+     * @param angle Direction relative to the heading in radians.
+     */
+    private void mark(double angle)
+    {
+        double direction = odometry.getHeading() + angle;
+
+        grid.markOccupied(
+            odometry.getX() + ROBOT_RADIUS * Math.cos(direction),
+            odometry.getY() + ROBOT_RADIUS * Math.sin(direction)
+        );
+    }
+}
@@ -0,0 +1,373 @@
+/*
+   Copyright 2011 Sebastian Kaspari
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package de.pocmo.springobot.navigation;
+
+import java.util.Arrays;
+
+
+/**
+ * Sparse occupancy grid with log-odds cells.
+ *
+ * The grid is split into square tiles of 64 x 64 cells. Tiles are only
+ * allocated when a cell in them is updated, and every cell is a single
+ * byte holding the log-odds of being occupied (scaled by 16). Tiles are
+ * looked up in an open addressing table keyed by tile coordinates.
+ *
+ * Memory is bounded: Once the maximum number of tiles is reached, the
+ * tile that has not been updated for the longest time is dropped.
+ * Unknown cells have a log-odds of 0 (probability 0.5).
+ *
+ * @author Sebastian Kaspari <s.kaspari@gmail.com>
+ */
+public class OccupancyGrid
+{
+    /**
+     * Cells per tile side as power of two.
+     */
+    private static final int TILE_SHIFT = 6;
+
+    private static final int TILE_SIZE = 1 << TILE_SHIFT;
+    private static final int TILE_MASK = TILE_SIZE - 1;
+
+    /**
+     * Factor between stored values and log-odds.
+     */
+    private static final double SCALE = 16;
+
+    /**
+     * Log-odds change for a hit (p = 0.85) and a miss (p = 0.4).
+     */
+    private static final int HIT  = (int) Math.round(Math.log(0.85 / 0.15) * SCALE);
+    private static final int MISS = (int) Math.round(Math.log(0.4 / 0.6) * SCALE);
+
+    private static final long EMPTY = Long.MIN_VALUE;
+
+    private final double cellSize;
+    private final int maxTiles;
+
+    /**
+     * Cells of the allocated tiles.
+     */
+    private final byte[][] tiles;
+
+    /**
+     * Key of each tile in the pool.
+     */
+    private final long[] tileKeys;
+
+    /**
+     * Update counter value of the last update of each tile.
+     */
+    private final long[] tileUsed;
+
+    /**
+     * Hash table from tile key to pool index.
+     */
+    private final long[] tableKeys;
+    private final int[] tableValues;
+
+    private int tileCount;
+    private long updates;
+
+    /**
+     * Create a new grid.
+     *
+     * @param cellSize Side length of a cell in millimeters.
+     * @param maxTiles Maximum number of tiles kept in memory (each
+     *                 takes 4 KB).
+     */
+    public OccupancyGrid(double cellSize, int maxTiles)
+    {
+        if (cellSize <= 0) {
+            throw new IllegalArgumentException("Cell size must be positive");
+        }
+
+        if (maxTiles < 1) {
+            throw new IllegalArgumentException("Maximum number of tiles must be positive");
+        }
+
+        this.cellSize = cellSize;
+        this.maxTiles = maxTiles;
+
+        tiles    = new byte[maxTiles][];
+        tileKeys = new long[maxTiles];
+        tileUsed = new long[maxTiles];
+
+        int tableSize = Integer.highestOneBit(maxTiles) * 4;
+
+        tableKeys   = new long[tableSize];
+        tableValues = new int[tableSize];
+
+        Arrays.fill(tableKeys, EMPTY);
+    }
+
+    /**
+     * Get the side length of a cell.
+     *
+     * @return Cell size in millimeters.
+     */
+    public double getCellSize()
+    {
+        return cellSize;
+    }
+
+    /**
+     * Get the number of allocated tiles.
+     *
+     * @return Number of tiles.
+     */
+    public int getTileCount()
+    {
+        return tileCount;
+    }
+
+    /**
+     * Record that the given point is occupied.
+     *
+     * @param x Position in millimeters.
+     * @param y Position in millimeters.
+     */
+    public void markOccupied(double x, double y)
+    {
+        update(cell(x), cell(y), HIT);
+    }
+
+    /**
+     * Record that the given point is free.
+     *
+     * @param x Position in millimeters.
+     * @param y Position in millimeters.
+     */
+    public void markFree(double x, double y)
+    {
+        update(cell(x), cell(y), MISS);
+    }
+
+    /**
+     * Get the log-odds of the given point being occupied.
+     *
+     * @param x Position in millimeters.
+     * @param y Position in millimeters.
+     * @return Log-odds (0 for unknown points).
+     */
+    public double getLogOdds(double x, double y)
+    {
+        int cellX = cell(x);
+        int cellY = cell(y);
+
+        int index = find(key(cellX >> TILE_SHIFT, cellY >> TILE_SHIFT));
+
+        if (index == -1) {
+            return 0;
+        }
+
+        return tiles[index][offset(cellX, cellY)] / SCALE;
+    }
+
+    /**
+     * Get the probability of the given point being occupied.
+     *
+     * @param x Position in millimeters.
+     * @param y Position in millimeters.
+     * @return Probability (0.5 for unknown points).
+     */
+    public double getProbability(double x, double y)
+    {
+        return 1 - 1 / (1 + Math.exp(getLogOdds(x, y)));
+    }
+
+    /**
+     * Count the cells in a rectangle that are more likely occupied than
+     * free. Tiles that have never been updated are skipped as a whole.
+     *
+     * @param x1 Corner of the rectangle in millimeters.
+     * @param y1 Corner of the rectangle in millimeters.
+     * @param x2 Opposite corner of the rectangle in millimeters.
+     * @param y2 Opposite corner of the rectangle in millimeters.
+     * @return Number of occupied cells.
+     */
+    public int countOccupied(double x1, double y1, double x2, double y2)
+    {
+        int minX = cell(Math.min(x1, x2));
+        int maxX = cell(Math.max(x1, x2));
+        int minY = cell(Math.min(y1, y2));
+        int maxY = cell(Math.max(y1, y2));
+
+        int count = 0;
+
+        for (int tileX = minX >> TILE_SHIFT; tileX <= maxX >> TILE_SHIFT; tileX++) {
+            for (int tileY = minY >> TILE_SHIFT; tileY <= maxY >> TILE_SHIFT; tileY++) {
+                int index = find(key(tileX, tileY));
+
+                if (index == -1) {
+                    continue;
+                }
+
+                byte[] cells = tiles[index];
+
+                int fromX = Math.max(minX, tileX << TILE_SHIFT);
+                int toX   = Math.min(maxX, (tileX << TILE_SHIFT) + TILE_MASK);
+                int fromY = Math.max(minY, tileY << TILE_SHIFT);
+                int toY   = Math.min(maxY, (tileY << TILE_SHIFT) + TILE_MASK);
+
+                for (int cellY = fromY; cellY <= toY; cellY++) {
+                    for (int cellX = fromX; cellX <= toX; cellX++) {
+                        if (cells[offset(cellX, cellY)] > 0) {
+                            count++;
+                        }
+                    }
+                }
+            }
+        }
+
+        return count;
+    }
+
+    /**
+     * Apply a log-odds change to a cell.
+     */
+    private void update(int cellX, int cellY, int change)
+    {
+        long key = key(cellX >> TILE_SHIFT, cellY >> TILE_SHIFT);
+        int index = find(key);
+
+        if (index == -1) {
+            index = allocate(key);
+        }
+
+        tileUsed[index] = ++updates;
+
+        byte[] cells = tiles[index];
+        int offset = offset(cellX, cellY);
+
+        cells[offset] = (byte) Math.max(-127, Math.min(127, cells[offset] + change));
+    }
+
+    /**
+     * Allocate a tile, dropping the least recently updated tile if the
+     * maximum number of tiles is reached.
+     */
+    private int allocate(long key)
+    {
+        int index;
+
+        if (tileCount < maxTiles) {
+            index = tileCount++;
+            tiles[index] = new byte[TILE_SIZE * TILE_SIZE];
+        } else {
+            index = 0;
+
+            for (int i = 1; i < maxTiles; i++) {
+                if (tileUsed[i] < tileUsed[index]) {
+                    index = i;
+                }
+            }
+
+            remove(tileKeys[index]);
+            Arrays.fill(tiles[index], (byte) 0);
+        }
+
+        tileKeys[index] = key;
+
+        int slot = slot(key);
+
+        while (tableKeys[slot] != EMPTY) {
+            slot = (slot + 1) & (tableKeys.length - 1);
+        }
+
+        tableKeys[slot]   = key;
+        tableValues[slot] = index;
+
+        return index;
+    }
+
+    /**
+     * Find the pool index of a tile.
+     *
+     * @return The index or -1 if the tile is not allocated.
+     */
+    private int find(long key)
+    {
+        int slot = slot(key);
+
+        while (tableKeys[slot] != EMPTY) {
+            if (tableKeys[slot] == key) {
+                return tableValues[slot];
+            }
+
+            slot = (slot + 1) & (tableKeys.length - 1);
+        }
+
+        return -1;
+    }
+
+    /**
+     * Remove a key from the hash table, shifting back following entries
+     * of the same probe sequence.
+     */
+    private void remove(long key)
+    {
+        int mask = tableKeys.length - 1;
+        int slot = slot(key);
+
+        while (tableKeys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+
+        int next = slot;
+
+        while (true) {
+            next = (next + 1) & mask;
+
+            if (tableKeys[next] == EMPTY) {
+                break;
+            }
+
+            int home = slot(tableKeys[next]);
+
+            // Move the entry if its home is not between the hole and it
+            if (((next - home) & mask) >= ((next - slot) & mask)) {
+                tableKeys[slot]   = tableKeys[next];
+                tableValues[slot] = tableValues[next];
+                slot = next;
+            }
+        }
+
+        tableKeys[slot] = EMPTY;
+    }
+
+    private int slot(long key)
+    {
+        long hash = key * 0x9E3779B97F4A7C15L;
+
+        return (int) (hash >>> 32) & (tableKeys.length - 1);
+    }
+
+    private int cell(double position)
+    {
+        return (int) Math.floor(position / cellSize);
+    }
+
+    private static long key(int tileX, int tileY)
+    {
+        return ((long) tileX << 32) | (tileY & 0xFFFFFFFFL);
+    }
+
+    private static int offset(int cellX, int cellY)
+    {
+        return ((cellY & TILE_MASK) << TILE_SHIFT) | (cellX & TILE_MASK);
+    }
+}
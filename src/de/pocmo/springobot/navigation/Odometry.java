@@ -0,0 +1,128 @@
+/*
+   Copyright 2011 Sebastian Kaspari
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package de.pocmo.springobot.navigation;
+
+import de.pocmo.springobot.sensors.Frame;
+import de.pocmo.springobot.sensors.Sensor;
+
+
+/**
+ * Dead reckoning of the robot pose from the DISTANCE and ANGLE packets.
+ *
+ * The pose starts at x = 0, y = 0 facing along the x axis. Angles are
+ * counter-clockwise in radians, positions in millimeters.
+ *
+ * @author Sebastian Kaspari <s.kaspari@gmail.com>
+ */
+public class Odometry
+{
+    private double x;
+    private double y;
+    private double heading;
+    private double traveled;
+
+    /**
+     * Update the pose with the DISTANCE and ANGLE packets of a frame.
+     * Both are relative to the last time they have been sent.
+     *
+     * @param frame The frame.
+     */
+    public void update(Frame frame)
+    {
+        int distance = frame.get(Sensor.DISTANCE, 0);
+        int angle    = frame.get(Sensor.ANGLE, 0);
+
+        move(distance, Math.toRadians(angle));
+    }
+
+    /**
+     * Update the pose with a movement.
+     *
+     * @param distance Distance traveled in millimeters.
+     * @param turn     Angle turned in radians (counter-clockwise).
+     */
+    public void move(double distance, double turn)
+    {
+        // Assume the turn happened evenly during the movement
+        double middle = heading + turn / 2;
+
+        x += distance * Math.cos(middle);
+        y += distance * Math.sin(middle);
+
+        heading  += turn;
+        traveled += Math.abs(distance);
+
+        if (heading > Math.PI) {
+            heading -= 2 * Math.PI;
+        } else if (heading <= -Math.PI) {
+            heading += 2 * Math.PI;
+        }
+    }
+
+    /**
+     * Set the pose.
+     *
+     * @param x       Position in millimeters.
+     * @param y       Position in millimeters.
+     * @param heading Heading in radians.
+     */
+    public void reset(double x, double y, double heading)
+    {
+        this.x       = x;
+        this.y       = y;
+        this.heading = heading;
+    }
+
+    /**
+     * Get the x position.
+     *
+     * @return Position in millimeters.
+     */
+    public double getX()
+    {
+        return x;
+    }
+
+    /**
+     * Get the y position.
+     *
+     * @return Position in millimeters.
+     */
+    public double getY()
+    {
+        return y;
+    }
+
+    /**
+     * Get the heading.
+     *
+     * @return Heading in radians (-PI to PI, counter-clockwise).
+     */
+    public double getHeading()
+    {
+        return heading;
+    }
+
+    /**
+     * Get the total distance traveled (forward and backward).
+     *
+     * @return Distance in millimeters.
+     */
+    public double getTraveled()
+    {
+        return traveled;
+    }
+}
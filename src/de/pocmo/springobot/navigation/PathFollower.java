@@ -0,0 +1,449 @@
+/*
+   Copyright 2011 Sebastian Kaspari
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package de.pocmo.springobot.navigation;
+
+import de.pocmo.springobot.control.RobotWriter;
+import de.pocmo.springobot.sensors.Frame;
+import de.pocmo.springobot.sensors.FrameListener;
+
+
+/**
+ * Follows a path with the pure pursuit method.
+ *
+ * Register as listener of a stream containing DISTANCE and ANGLE. For
+ * every frame the pose is updated, the point one lookahead distance
+ * further along the path is chosen and the wheel speeds of the arc
+ * through that point are sent as Drive Direct command. If a wheel would
+ * exceed 500 mm/s both wheels are scaled down, so the robot stays on
+ * the arc. The robot slows down towards the end of the path and stops
+ * once it is within the goal tolerance.
+ *
+ * The path is kept in primitive arrays and following it does not
+ * allocate.
+ *
+ * @author Sebastian Kaspari <s.kaspari@gmail.com>
+ */
+public class PathFollower implements FrameListener
+{
+    /**
+     * Distance between the drive wheels in millimeters.
+     */
+    public static final double WHEEL_BASE = 258;
+
+    /**
+     * Largest wheel velocity in mm/s.
+     */
+    public static final int MAX_VELOCITY = 500;
+
+    /**
+     * Default distance of the pursued point in millimeters.
+     */
+    public static final double DEFAULT_LOOKAHEAD = 300;
+
+    /**
+     * Default velocity in mm/s.
+     */
+    public static final double DEFAULT_SPEED = 300;
+
+    /**
+     * Default distance to the end of the path at which it counts as
+     * reached, in millimeters.
+     */
+    public static final double DEFAULT_TOLERANCE = 30;
+
+    /**
+     * Velocity in mm/s per millimeter left when approaching the end.
+     */
+    private static final double APPROACH_GAIN = 1.5;
+
+    /**
+     * Lowest velocity in mm/s while approaching the end.
+     */
+    private static final double MIN_SPEED = 50;
+
+    private final RobotWriter writer;
+    private final Odometry odometry;
+
+    private double lookahead = DEFAULT_LOOKAHEAD;
+    private double speed = DEFAULT_SPEED;
+    private double tolerance = DEFAULT_TOLERANCE;
+
+    // The path and the distance along it at every point
+    private double[] xs = new double[0];
+    private double[] ys = new double[0];
+    private double[] along = new double[0];
+
+    /**
+     * Segment the robot is closest to; only moves forward.
+     */
+    private int segment;
+
+    private boolean following;
+    private boolean finished;
+
+    private double crossTrackError;
+    private double remaining;
+    private double maxCrossTrackError;
+
+    private long lastFrame;
+    private boolean received;
+
+    private volatile long lastInterval = -1;
+    private volatile long lastLatency = -1;
+    private volatile long maxLatency = -1;
+
+    /**
+     * Create a new path follower with its own odometry.
+     *
+     * @param writer The writer to send wheel commands with.
+     */
+    public PathFollower(RobotWriter writer)
+    {
+        this(writer, new Odometry());
+    }
+
+    /**
+     * Create a new path follower.
+     *
+     * @param writer   The writer to send wheel commands with.
+     * @param odometry The pose estimate, updated by this follower.
+     */
+    public PathFollower(RobotWriter writer, Odometry odometry)
+    {
+        this.writer   = writer;
+        this.odometry = odometry;
+    }
+
+    /**
+     * Set the distance of the pursued point. Longer distances give
+     * smoother but wider curves.
+     *
+     * @param lookahead Distance in millimeters.
+     */
+    public synchronized void setLookahead(double lookahead)
+    {
+        if (lookahead <= 0) {
+            throw new IllegalArgumentException("Lookahead must be positive");
+        }
+
+        this.lookahead = lookahead;
+    }
+
+    /**
+     * Set the velocity of the robot along the path.
+     *
+     * @param speed Velocity in mm/s (1 - 500).
+     */
+    public synchronized void setSpeed(double speed)
+    {
+        if (speed <= 0 || speed > MAX_VELOCITY) {
+            throw new IllegalArgumentException("Speed out of range (1 to 500)");
+        }
+
+        this.speed = speed;
+    }
+
+    /**
+     * Set the distance to the end of the path at which it counts as
+     * reached.
+     *
+     * @param tolerance Distance in millimeters.
+     */
+    public synchronized void setTolerance(double tolerance)
+    {
+        if (tolerance <= 0) {
+            throw new IllegalArgumentException("Tolerance must be positive");
+        }
+
+        this.tolerance = tolerance;
+    }
+
+    /**
+     * Start following a path. The path is copied.
+     *
+     * @param xs X coordinates of the points in millimeters.
+     * @param ys Y coordinates of the points in millimeters.
+     */
+    public synchronized void follow(double[] xs, double[] ys)
+    {
+        if (xs.length != ys.length || xs.length == 0) {
+            throw new IllegalArgumentException("Path needs the same number of x and y coordinates");
+        }
+
+        this.xs    = xs.clone();
+        this.ys    = ys.clone();
+        this.along = new double[xs.length];
+
+        for (int i = 1; i < xs.length; i++) {
+            along[i] = along[i - 1] + Math.hypot(xs[i] - xs[i - 1], ys[i] - ys[i - 1]);
+        }
+
+        segment   = 0;
+        following = true;
+        finished  = false;
+
+        maxCrossTrackError = 0;
+    }
+
+    /**
+     * Stop following the path and stop the robot.
+     */
+    public synchronized void cancel()
+    {
+        if (following) {
+            following = false;
+            writer.driveDirect(0, 0);
+        }
+    }
+
+    /**
+     * Update the pose and send the wheel speeds for the next step.
+     *
+     * @param frame The frame.
+     */
+    public synchronized void frameReceived(Frame frame)
+    {
+        long time = frame.getTimestamp();
+
+        if (received) {
+            lastInterval = time - lastFrame;
+        }
+
+        lastFrame = time;
+        received  = true;
+
+        odometry.update(frame);
+
+        if (!following) {
+            return;
+        }
+
+        track();
+
+        if (remaining <= tolerance) {
+            following = false;
+            finished  = true;
+
+            writer.driveDirect(0, 0);
+        } else {
+            steer();
+        }
+
+        long latency = writer.getClock().nanoTime() - time;
+
+        lastLatency = latency;
+        maxLatency  = Math.max(maxLatency, latency);
+    }
+
+    /**
+     * Check whether the robot is following a path.
+     *
+     * @return True while following.
+     */
+    public synchronized boolean isFollowing()
+    {
+        return following;
+    }
+
+    /**
+     * Check whether the end of the last path has been reached.
+     *
+     * @return True if the path has been completed.
+     */
+    public synchronized boolean isFinished()
+    {
+        return finished;
+    }
+
+    /**
+     * Get the distance of the robot to the path, positive if the robot
+     * is left of the path.
+     *
+     * @return Distance in millimeters.
+     */
+    public synchronized double getCrossTrackError()
+    {
+        return crossTrackError;
+    }
+
+    /**
+     * Get the largest distance of the robot to the current path.
+     *
+     * @return Distance in millimeters.
+     */
+    public synchronized double getMaxCrossTrackError()
+    {
+        return maxCrossTrackError;
+    }
+
+    /**
+     * Get the length of the path still ahead of the robot.
+     *
+     * @return Distance in millimeters.
+     */
+    public synchronized double getRemaining()
+    {
+        return remaining;
+    }
+
+    /**
+     * Get the odometry used to follow the path.
+     *
+     * @return The odometry.
+     */
+    public Odometry getOdometry()
+    {
+        return odometry;
+    }
+
+    /**
+     * Get the time between the last two frames.
+     *
+     * @return Interval in nanoseconds or -1 if less than two frames
+     *         have been received.
+     */
+    public long getLastInterval()
+    {
+        return lastInterval;
+    }
+
+    /**
+     * Get the time from receiving the last frame to sending the wheel
+     * speeds.
+     *
+     * @return Latency in nanoseconds or -1 if nothing has been sent.
+     */
+    public long getLastLatency()
+    {
+        return lastLatency;
+    }
+
+    /**
+     * Get the largest time from receiving a frame to sending the wheel
+     * speeds.
+     *
+     * @return Latency in nanoseconds or -1 if nothing has been sent.
+     */
+    public long getMaxLatency()
+    {
+        return maxLatency;
+    }
+
+    /**
+     * Find the point of the path closest to the robot, starting at the
+     * current segment, and update cross track error and remaining
+     * distance.
+     */
+    private void track()
+    {
+        double x = odometry.getX();
+        double y = odometry.getY();
+
+        if (xs.length == 1) {
+            crossTrackError = 0;
+            remaining = Math.hypot(xs[0] - x, ys[0] - y);
+            return;
+        }
+
+        double best = Double.MAX_VALUE;
+
+        for (int i = segment; i < xs.length - 1; i++) {
+            double dx = xs[i + 1] - xs[i];
+            double dy = ys[i + 1] - ys[i];
+            double length = along[i + 1] - along[i];
+
+            double t = length > 0 ? ((x - xs[i]) * dx + (y - ys[i]) * dy) / (length * length) : 0;
+            t = Math.max(0, Math.min(1, t));
+
+            double distance = Math.hypot(x - xs[i] - t * dx, y - ys[i] - t * dy);
+
+            if (distance < best) {
+                best    = distance;
+                segment = i;
+
+                crossTrackError = length > 0 ? (dx * (y - ys[i]) - dy * (x - xs[i])) / length : distance;
+                remaining = along[xs.length - 1] - along[i] - t * length;
+            } else if (along[i] - along[segment] > lookahead + best) {
+                // Further segments can not be closer
+                break;
+            }
+        }
+
+        // Near the end, the distance to the goal counts
+        if (segment == xs.length - 2) {
+            remaining = Math.max(remaining, Math.hypot(xs[xs.length - 1] - x, ys[ys.length - 1] - y));
+        }
+
+        maxCrossTrackError = Math.max(maxCrossTrackError, Math.abs(crossTrackError));
+    }
+
+    /**
+     * Send the wheel speeds of the arc to the lookahead point.
+     */
+    private void steer()
+    {
+        double target = along[xs.length - 1] - remaining + lookahead;
+        int last = xs.length - 1;
+
+        double goalX;
+        double goalY;
+
+        if (target >= along[last]) {
+            goalX = xs[last];
+            goalY = ys[last];
+        } else {
+            int i = segment;
+
+            while (along[i + 1] < target) {
+                i++;
+            }
+
+            double length = along[i + 1] - along[i];
+            double t = length > 0 ? (target - along[i]) / length : 0;
+
+            goalX = xs[i] + t * (xs[i + 1] - xs[i]);
+            goalY = ys[i] + t * (ys[i + 1] - ys[i]);
+        }
+
+        double heading = odometry.getHeading();
+        double cos = Math.cos(heading);
+        double sin = Math.sin(heading);
+
+        double dx = goalX - odometry.getX();
+        double dy = goalY - odometry.getY();
+
+        // Lookahead point in robot coordinates
+        double ahead   = cos * dx + sin * dy;
+        double lateral = -sin * dx + cos * dy;
+
+        double squared = ahead * ahead + lateral * lateral;
+        double curvature = squared > 0 ? 2 * lateral / squared : 0;
+
+        double velocity = Math.min(speed, Math.max(MIN_SPEED, remaining * APPROACH_GAIN));
+
+        double right = velocity * (1 + curvature * WHEEL_BASE / 2);
+        double left  = velocity * (1 - curvature * WHEEL_BASE / 2);
+
+        double largest = Math.max(Math.abs(right), Math.abs(left));
+
+        if (largest > MAX_VELOCITY) {
+            right *= MAX_VELOCITY / largest;
+            left  *= MAX_VELOCITY / largest;
+        }
+
+        writer.driveDirect((int) Math.round(right), (int) Math.round(left));
+    }
+}
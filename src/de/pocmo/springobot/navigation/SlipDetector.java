@@ -0,0 +1,415 @@
+/*
+   Copyright 2011 Sebastian Kaspari
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package de.pocmo.springobot.navigation;
+
+import de.pocmo.springobot.filter.ExponentialFilter;
+import de.pocmo.springobot.sensors.Frame;
+import de.pocmo.springobot.sensors.FrameListener;
+import de.pocmo.springobot.sensors.Overcurrents;
+import de.pocmo.springobot.sensors.Sensor;
+
+
+/**
+ * Detects stalled and slipping wheels by comparing the requested with
+ * the measured motion.
+ *
+ * Register as listener of a stream containing DISTANCE, ANGLE and
+ * either REQUESTED_RIGHT_VELOCITY and REQUESTED_LEFT_VELOCITY or
+ * REQUESTED_VELOCITY and REQUESTED_RADIUS. LOW_SLIDE_DRIVER_AND_WHEEL_OVERCURRENTS
+ * is used if present.
+ *
+ * For every frame the requested wheel velocities are turned into the
+ * travel and rotation expected since the last frame, assuming the
+ * wheels take some time to reach a new velocity. Expected and measured
+ * motion are smoothed over a few frames. The robot is stalled if it
+ * covers less than a quarter of the requested motion or a wheel
+ * reports overcurrent. It slips if it falls behind the requested
+ * motion by more than a fifth or turns without being requested to,
+ * for example when one wheel is stuck or drags. Slipping is not
+ * checked while the wheels change velocity.
+ *
+ * DISTANCE and ANGLE are whole millimeters and degrees since the last
+ * frame, and the robot drops the fractions. The comparison allows for
+ * this, so slow motion is not checked and small deviations are not
+ * reported. A wheel spinning freely on a slick floor is not seen, as
+ * its encoder counts normally.
+ *
+ * Faults are reported after two consecutive frames and cleared after
+ * two consecutive good frames. Each frame costs O(1) and the detector
+ * keeps no history besides the smoothed values.
+ *
+ * @author Sebastian Kaspari <s.kaspari@gmail.com>
+ */
+public class SlipDetector implements FrameListener
+{
+    /**
+     * The robot does not move although it is requested to.
+     */
+    public static final int STALL = 1;
+
+    /**
+     * The robot moves, but not as requested.
+     */
+    public static final int SLIP = 2;
+
+    /**
+     * Number of consecutive frames confirming or clearing a fault.
+     */
+    public static final int CONFIRM_FRAMES = 2;
+
+    /**
+     * Weight of a new frame in the smoothed motion.
+     */
+    private static final double ALPHA = 0.5;
+
+    /**
+     * Acceleration of the wheels assumed when the requested velocity
+     * changes, in mm/s^2. Lower than the robot's, so a wheel speeding
+     * up is never taken for a stalled one.
+     */
+    private static final double ACCELERATION = 500;
+
+    /**
+     * Motion per frame (mm or degrees) below which it is not checked.
+     */
+    private static final double MIN_MOTION = 2;
+
+    /**
+     * Error of the smoothed DISTANCE per frame caused by rounding, in
+     * millimeters.
+     */
+    private static final double DISTANCE_ERROR = 0.5;
+
+    /**
+     * Error of the smoothed ANGLE per frame caused by dropping the
+     * fractions, in degrees.
+     */
+    private static final double ANGLE_ERROR = 1;
+
+    /**
+     * Share of the requested motion below which the robot is stalled.
+     */
+    private static final double STALL_RATIO = 0.25;
+
+    /**
+     * Share of the requested motion the robot may fall behind before
+     * it slips, besides the rounding of the packets.
+     */
+    private static final double SLIP_TOLERANCE = 0.2;
+
+    /**
+     * Radius values of the Drive command with special meaning.
+     */
+    private static final int STRAIGHT = 32767;
+    private static final int STRAIGHT_ALTERNATIVE = -32768;
+    private static final int TURN_CLOCKWISE = -1;
+    private static final int TURN_COUNTER_CLOCKWISE = 1;
+
+    private final ExponentialFilter requestedDistance = new ExponentialFilter(ALPHA);
+    private final ExponentialFilter requestedAngle = new ExponentialFilter(ALPHA);
+    private final ExponentialFilter measuredDistance = new ExponentialFilter(ALPHA);
+    private final ExponentialFilter measuredAngle = new ExponentialFilter(ALPHA);
+
+    private final SlipListener listener;
+
+    private long lastTime;
+    private boolean received;
+
+    // Requested wheel velocities (mm/s) valid since the last frame
+    private int velocityLeft;
+    private int velocityRight;
+
+    // Expected wheel velocities (mm/s), following the requested ones
+    // with limited acceleration
+    private double rampLeft;
+    private double rampRight;
+
+    private double distanceRatio = Double.NaN;
+    private double angleRatio = Double.NaN;
+
+    private int faults;
+
+    /**
+     * Consecutive frames each fault has been seen (positive) or not
+     * seen (negative), indexed by bit number.
+     */
+    private final int[] streaks = new int[2];
+
+    private volatile long detections;
+
+    /**
+     * Create a new detector.
+     *
+     * @param listener Listener for faults or null.
+     */
+    public SlipDetector(SlipListener listener)
+    {
+        this.listener = listener;
+    }
+
+    /**
+     * Compare the requested and measured motion of a frame.
+     *
+     * @param frame The frame.
+     */
+    public synchronized void frameReceived(Frame frame)
+    {
+        if (!frame.contains(Sensor.DISTANCE) || !frame.contains(Sensor.ANGLE)) {
+            return;
+        }
+
+        long time = frame.getTimestamp();
+        double elapsed = received ? (time - lastTime) / 1e9 : 0;
+
+        lastTime = time;
+        received = true;
+
+        // Distance and angle cover the time since the last frame, during
+        // which the previous request was active
+        int activeLeft  = velocityLeft;
+        int activeRight = velocityRight;
+
+        readRequest(frame);
+
+        if (elapsed <= 0) {
+            return;
+        }
+
+        double step = ACCELERATION * elapsed;
+
+        double left  = rampLeft;
+        double right = rampRight;
+
+        rampLeft  = approach(rampLeft, activeLeft, step);
+        rampRight = approach(rampRight, activeRight, step);
+
+        left  = (left + rampLeft) / 2 * elapsed;
+        right = (right + rampRight) / 2 * elapsed;
+
+        double expectedDistance = requestedDistance.filter((left + right) / 2);
+        double expectedAngle    = requestedAngle.filter(Math.toDegrees((right - left) / PathFollower.WHEEL_BASE));
+        double movedDistance    = measuredDistance.filter(frame.get(Sensor.DISTANCE));
+        double movedAngle       = measuredAngle.filter(frame.get(Sensor.ANGLE));
+
+        boolean checkDistance = Math.abs(expectedDistance) >= MIN_MOTION;
+        boolean checkAngle    = Math.abs(expectedAngle) >= MIN_MOTION;
+
+        distanceRatio = checkDistance ? movedDistance / expectedDistance : Double.NaN;
+        angleRatio    = checkAngle ? movedAngle / expectedAngle : Double.NaN;
+
+        boolean overcurrent = false;
+
+        if (frame.contains(Sensor.LOW_SLIDE_DRIVER_AND_WHEEL_OVERCURRENTS)) {
+            Overcurrents overcurrents = Overcurrents.from(frame);
+
+            overcurrent = (overcurrents.isLeftWheel() && activeLeft != 0)
+                || (overcurrents.isRightWheel() && activeRight != 0);
+        }
+
+        boolean stall = overcurrent || ((checkDistance || checkAngle)
+            && (!checkDistance || distanceRatio < STALL_RATIO)
+            && (!checkAngle || angleRatio < STALL_RATIO));
+
+        // While the wheels change velocity the robot may be ahead of or
+        // behind the expected motion. Unrequested turns count while
+        // driving straight, too.
+        boolean ramping = rampLeft != activeLeft || rampRight != activeRight;
+
+        boolean slip = !stall && !ramping && (
+            (checkDistance && lags(movedDistance, expectedDistance, DISTANCE_ERROR))
+            || (checkAngle && lags(movedAngle, expectedAngle, ANGLE_ERROR))
+            || (checkDistance && !checkAngle && Math.abs(movedAngle - expectedAngle) > MIN_MOTION));
+
+        update(STALL, 0, stall, frame);
+        update(SLIP, 1, slip, frame);
+    }
+
+    /**
+     * Get the faults currently detected.
+     *
+     * @return Combination of STALL and SLIP or 0.
+     */
+    public synchronized int getFaults()
+    {
+        return faults;
+    }
+
+    /**
+     * Check whether the robot is stalled.
+     *
+     * @return True if the robot does not move as requested.
+     */
+    public synchronized boolean isStalled()
+    {
+        return (faults & STALL) != 0;
+    }
+
+    /**
+     * Check whether the robot slips.
+     *
+     * @return True if the robot moves, but not as requested.
+     */
+    public synchronized boolean isSlipping()
+    {
+        return (faults & SLIP) != 0;
+    }
+
+    /**
+     * Get the smoothed share of the requested distance the robot
+     * covered.
+     *
+     * @return Ratio (1.0 if the robot follows) or NaN if the requested
+     *         distance is too small to check.
+     */
+    public synchronized double getDistanceRatio()
+    {
+        return distanceRatio;
+    }
+
+    /**
+     * Get the smoothed share of the requested rotation the robot
+     * covered.
+     *
+     * @return Ratio (1.0 if the robot follows) or NaN if the requested
+     *         rotation is too small to check.
+     */
+    public synchronized double getAngleRatio()
+    {
+        return angleRatio;
+    }
+
+    /**
+     * Get the number of faults detected.
+     *
+     * @return Number of faults reported to the listener.
+     */
+    public long getDetections()
+    {
+        return detections;
+    }
+
+    /**
+     * Forget all smoothed values and faults, for example after the
+     * robot has been picked up.
+     */
+    public synchronized void reset()
+    {
+        requestedDistance.reset();
+        requestedAngle.reset();
+        measuredDistance.reset();
+        measuredAngle.reset();
+
+        received      = false;
+        velocityLeft  = 0;
+        velocityRight = 0;
+        rampLeft      = 0;
+        rampRight     = 0;
+        distanceRatio = Double.NaN;
+        angleRatio    = Double.NaN;
+        faults        = 0;
+
+        for (int i = 0; i < streaks.length; i++) {
+            streaks[i] = 0;
+        }
+    }
+
+    /**
+     * Read the requested wheel velocities of a frame.
+     */
+    private void readRequest(Frame frame)
+    {
+        if (frame.contains(Sensor.REQUESTED_LEFT_VELOCITY) && frame.contains(Sensor.REQUESTED_RIGHT_VELOCITY)) {
+            velocityLeft  = frame.get(Sensor.REQUESTED_LEFT_VELOCITY);
+            velocityRight = frame.get(Sensor.REQUESTED_RIGHT_VELOCITY);
+            return;
+        }
+
+        if (!frame.contains(Sensor.REQUESTED_VELOCITY) || !frame.contains(Sensor.REQUESTED_RADIUS)) {
+            return;
+        }
+
+        int velocity = frame.get(Sensor.REQUESTED_VELOCITY);
+        int radius   = frame.get(Sensor.REQUESTED_RADIUS);
+
+        if (radius == STRAIGHT || radius == STRAIGHT_ALTERNATIVE || radius == 0) {
+            velocityLeft  = velocity;
+            velocityRight = velocity;
+        } else if (radius == TURN_CLOCKWISE) {
+            velocityLeft  = velocity;
+            velocityRight = -velocity;
+        } else if (radius == TURN_COUNTER_CLOCKWISE) {
+            velocityLeft  = -velocity;
+            velocityRight = velocity;
+        } else {
+            double half = PathFollower.WHEEL_BASE / 2;
+
+            velocityLeft  = (int) Math.round(velocity * (radius - half) / radius);
+            velocityRight = (int) Math.round(velocity * (radius + half) / radius);
+        }
+    }
+
+    /**
+     * Check whether measured motion falls behind the expected one by
+     * more than the tolerance and the error of the packets.
+     */
+    private static boolean lags(double measured, double expected, double error)
+    {
+        return Math.signum(expected) * measured < (1 - SLIP_TOLERANCE) * Math.abs(expected) - error;
+    }
+
+    /**
+     * Move a value towards a target by at most the given step.
+     */
+    private static double approach(double value, double target, double step)
+    {
+        if (value < target) {
+            return Math.min(target, value + step);
+        }
+
+        return Math.max(target, value - step);
+    }
+
+    /**
+     * Count a frame for or against a fault and report changes.
+     */
+    private void update(int fault, int index, boolean seen, Frame frame)
+    {
+        int streak = streaks[index];
+
+        if (seen) {
+            streak = streak > 0 ? streak + 1 : 1;
+        } else {
+            streak = streak < 0 ? streak - 1 : -1;
+        }
+
+        streaks[index] = streak;
+
+        if (streak == CONFIRM_FRAMES && (faults & fault) == 0) {
+            faults |= fault;
+            detections++;
+
+            if (listener != null) {
+                listener.faultDetected(fault, frame);
+            }
+        } else if (streak == -CONFIRM_FRAMES && (faults & fault) != 0) {
+            faults &= ~fault;
+
+            if (listener != null) {
+                listener.faultCleared(fault, frame);
+            }
+        }
+    }
+}
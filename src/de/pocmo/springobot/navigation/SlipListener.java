@@ -0,0 +1,45 @@
+/*
+   Copyright 2011 Sebastian Kaspari
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package de.pocmo.springobot.navigation;
+
+import de.pocmo.springobot.sensors.Frame;
+
+
+/**
+ * Listener for wheel faults reported by a SlipDetector.
+ *
+ * Called on the thread delivering frames; must not block.
+ *
+ * @author Sebastian Kaspari <s.kaspari@gmail.com>
+ */
+public interface SlipListener
+{
+    /**
+     * Called when a fault has been detected.
+     *
+     * @param fault The fault (SlipDetector.STALL or SLIP).
+     * @param frame The frame that confirmed the fault.
+     */
+    public void faultDetected(int fault, Frame frame);
+
+    /**
+     * Called when a fault is gone.
+     *
+     * @param fault The fault.
+     * @param frame The frame that cleared the fault.
+     */
+    public void faultCleared(int fault, Frame frame);
+}
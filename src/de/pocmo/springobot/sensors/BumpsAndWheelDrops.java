@@ -0,0 +1,118 @@
+/*
+   Copyright 2011 Sebastian Kaspari
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package de.pocmo.springobot.sensors;
+
+
+/**
+ * State of the bumper and wheel drop sensors (packet 7).
+ *
+ * @author Sebastian Kaspari <s.kaspari@gmail.com>
+ */
+public final class BumpsAndWheelDrops extends Flags
+{
+    private static final String[] NAMES = { "BUMP_RIGHT", "BUMP_LEFT", "WHEEL_DROP_RIGHT", "WHEEL_DROP_LEFT", "WHEEL_DROP_CASTER" };
+
+    private static final BumpsAndWheelDrops[] VALUES = new BumpsAndWheelDrops[256];
+
+    static {
+        for (int i = 0; i < VALUES.length; i++) {
+            VALUES[i] = new BumpsAndWheelDrops(i);
+        }
+    }
+
+    private BumpsAndWheelDrops(int value)
+    {
+        super(value);
+    }
+
+    /**
+     * Get the view for the given data byte.
+     *
+     * @param value The data byte of the BUMPS_AND_WHEEL_DROPS packet.
+     * @return The interned instance.
+     */
+    public static BumpsAndWheelDrops valueOf(int value)
+    {
+        return VALUES[checkValue(value)];
+    }
+
+    /**
+     * Get the view of the BUMPS_AND_WHEEL_DROPS packet of a frame.
+     *
+     * @param frame A frame containing the packet.
+     * @return The interned instance.
+     */
+    public static BumpsAndWheelDrops from(Frame frame)
+    {
+        return VALUES[frame.get(Sensor.BUMPS_AND_WHEEL_DROPS)];
+    }
+
+    /**
+     * Check whether the right bumper is pressed.
+     *
+     * @return True if pressed.
+     */
+    public boolean isBumpRight()
+    {
+        return isSet(0);
+    }
+
+    /**
+     * Check whether the left bumper is pressed.
+     *
+     * @return True if pressed.
+     */
+    public boolean isBumpLeft()
+    {
+        return isSet(1);
+    }
+
+    /**
+     * Check whether the right wheel has dropped.
+     *
+     * @return True if dropped.
+     */
+    public boolean isWheelDropRight()
+    {
+        return isSet(2);
+    }
+
+    /**
+     * Check whether the left wheel has dropped.
+     *
+     * @return True if dropped.
+     */
+    public boolean isWheelDropLeft()
+    {
+        return isSet(3);
+    }
+
+    /**
+     * Check whether the caster wheel has dropped.
+     *
+     * @return True if dropped.
+     */
+    public boolean isWheelDropCaster()
+    {
+        return isSet(4);
+    }
+
+    @Override
+    protected String[] getBitNames()
+    {
+        return NAMES;
+    }
+}
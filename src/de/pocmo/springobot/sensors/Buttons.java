@@ -0,0 +1,88 @@
+/*
+   Copyright 2011 Sebastian Kaspari
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package de.pocmo.springobot.sensors;
+
+
+/**
+ * State of the Play and Advance buttons (packet 18).
+ *
+ * @author Sebastian Kaspari <s.kaspari@gmail.com>
+ */
+public final class Buttons extends Flags
+{
+    private static final String[] NAMES = { "PLAY", null, "ADVANCE" };
+
+    private static final Buttons[] VALUES = new Buttons[256];
+
+    static {
+        for (int i = 0; i < VALUES.length; i++) {
+            VALUES[i] = new Buttons(i);
+        }
+    }
+
+    private Buttons(int value)
+    {
+        super(value);
+    }
+
+    /**
+     * Get the view for the given data byte.
+     *
+     * @param value The data byte of the BUTTONS packet.
+     * @return The interned instance.
+     */
+    public static Buttons valueOf(int value)
+    {
+        return VALUES[checkValue(value)];
+    }
+
+    /**
+     * Get the view of the BUTTONS packet of a frame.
+     *
+     * @param frame A frame containing the packet.
+     * @return The interned instance.
+     */
+    public static Buttons from(Frame frame)
+    {
+        return VALUES[frame.get(Sensor.BUTTONS)];
+    }
+
+    /**
+     * Check whether the Play button is pressed.
+     *
+     * @return True if pressed.
+     */
+    public boolean isPlay()
+    {
+        return isSet(0);
+    }
+
+    /**
+     * Check whether the Advance button is pressed.
+     *
+     * @return True if pressed.
+     */
+    public boolean isAdvance()
+    {
+        return isSet(2);
+    }
+
+    @Override
+    protected String[] getBitNames()
+    {
+        return NAMES;
+    }
+}
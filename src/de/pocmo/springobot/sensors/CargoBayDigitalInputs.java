@@ -0,0 +1,118 @@
+/*
+   Copyright 2011 Sebastian Kaspari
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package de.pocmo.springobot.sensors;
+
+
+/**
+ * State of the digital inputs on the Cargo Bay Connector (packet 32).
+ *
+ * @author Sebastian Kaspari <s.kaspari@gmail.com>
+ */
+public final class CargoBayDigitalInputs extends Flags
+{
+    private static final String[] NAMES = { "DIGITAL_INPUT_0", "DIGITAL_INPUT_1", "DIGITAL_INPUT_2", "DIGITAL_INPUT_3", "DEVICE_DETECT" };
+
+    private static final CargoBayDigitalInputs[] VALUES = new CargoBayDigitalInputs[256];
+
+    static {
+        for (int i = 0; i < VALUES.length; i++) {
+            VALUES[i] = new CargoBayDigitalInputs(i);
+        }
+    }
+
+    private CargoBayDigitalInputs(int value)
+    {
+        super(value);
+    }
+
+    /**
+     * Get the view for the given data byte.
+     *
+     * @param value The data byte of the CARGO_BAY_DIGITAL_INPUTS packet.
+     * @return The interned instance.
+     */
+    public static CargoBayDigitalInputs valueOf(int value)
+    {
+        return VALUES[checkValue(value)];
+    }
+
+    /**
+     * Get the view of the CARGO_BAY_DIGITAL_INPUTS packet of a frame.
+     *
+     * @param frame A frame containing the packet.
+     * @return The interned instance.
+     */
+    public static CargoBayDigitalInputs from(Frame frame)
+    {
+        return VALUES[frame.get(Sensor.CARGO_BAY_DIGITAL_INPUTS)];
+    }
+
+    /**
+     * Check whether digital input 0 (pin 17) is high.
+     *
+     * @return True if high.
+     */
+    public boolean isDigitalInput0()
+    {
+        return isSet(0);
+    }
+
+    /**
+     * Check whether digital input 1 (pin 4) is high.
+     *
+     * @return True if high.
+     */
+    public boolean isDigitalInput1()
+    {
+        return isSet(1);
+    }
+
+    /**
+     * Check whether digital input 2 (pin 16) is high.
+     *
+     * @return True if high.
+     */
+    public boolean isDigitalInput2()
+    {
+        return isSet(2);
+    }
+
+    /**
+     * Check whether digital input 3 (pin 6) is high.
+     *
+     * @return True if high.
+     */
+    public boolean isDigitalInput3()
+    {
+        return isSet(3);
+    }
+
+    /**
+     * Check whether the device detect / baud rate change pin (pin 15) is high.
+     *
+     * @return True if high.
+     */
+    public boolean isDeviceDetect()
+    {
+        return isSet(4);
+    }
+
+    @Override
+    protected String[] getBitNames()
+    {
+        return NAMES;
+    }
+}
@@ -0,0 +1,88 @@
+/*
+   Copyright 2011 Sebastian Kaspari
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package de.pocmo.springobot.sensors;
+
+
+/**
+ * Charging sources available to Create (packet 34).
+ *
+ * @author Sebastian Kaspari <s.kaspari@gmail.com>
+ */
+public final class ChargingSources extends Flags
+{
+    private static final String[] NAMES = { "INTERNAL_CHARGER", "HOME_BASE" };
+
+    private static final ChargingSources[] VALUES = new ChargingSources[256];
+
+    static {
+        for (int i = 0; i < VALUES.length; i++) {
+            VALUES[i] = new ChargingSources(i);
+        }
+    }
+
+    private ChargingSources(int value)
+    {
+        super(value);
+    }
+
+    /**
+     * Get the view for the given data byte.
+     *
+     * @param value The data byte of the CHARGING_SOURCES_AVAILABLE packet.
+     * @return The interned instance.
+     */
+    public static ChargingSources valueOf(int value)
+    {
+        return VALUES[checkValue(value)];
+    }
+
+    /**
+     * Get the view of the CHARGING_SOURCES_AVAILABLE packet of a frame.
+     *
+     * @param frame A frame containing the packet.
+     * @return The interned instance.
+     */
+    public static ChargingSources from(Frame frame)
+    {
+        return VALUES[frame.get(Sensor.CHARGING_SOURCES_AVAILABLE)];
+    }
+
+    /**
+     * Check whether the internal charger is connected.
+     *
+     * @return True if connected.
+     */
+    public boolean isInternalCharger()
+    {
+        return isSet(0);
+    }
+
+    /**
+     * Check whether Create is docked on the Home Base.
+     *
+     * @return True if docked.
+     */
+    public boolean isHomeBase()
+    {
+        return isSet(1);
+    }
+
+    @Override
+    protected String[] getBitNames()
+    {
+        return NAMES;
+    }
+}
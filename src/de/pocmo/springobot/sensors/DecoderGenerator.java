@@ -0,0 +1,275 @@
+/*
+   Copyright 2011 Sebastian Kaspari
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package de.pocmo.springobot.sensors;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * Generates a LayoutDecoder subclass for a layout.
+ *
+ * The class is written directly as class file (version 50) with a
+ * single decode() method that has no branches, so it needs no stack
+ * map frames. Each class gets its own class loader and can be unloaded
+ * together with its layout.
+ *
+ * For a signed 2 byte packet with id 19 at offset 3 the generated code
+ * is equivalent to:
+ *
+ * <pre>
+ * values[19] = (short) ((buffer[offset + 3] &lt;&lt; 8) | (buffer[offset + 4] &amp; 0xFF));
+ * </pre>
+ *
+ * @author Sebastian Kaspari <s.kaspari@gmail.com>
+ */
+final class DecoderGenerator
+{
+    private static final String SUPER_CLASS = "de/pocmo/springobot/sensors/LayoutDecoder";
+
+    private static final AtomicInteger counter = new AtomicInteger();
+
+    // Constant pool indexes
+    private static final int THIS_CLASS  = 2;
+    private static final int SUPER       = 4;
+    private static final int INIT        = 5;
+    private static final int VOID        = 6;
+    private static final int SUPER_INIT  = 8;
+    private static final int CODE        = 9;
+    private static final int DECODE      = 10;
+    private static final int DECODE_TYPE = 11;
+    private static final int POOL_SIZE   = 12;
+
+    // Opcodes
+    private static final int ALOAD_0       = 0x2A;
+    private static final int ALOAD_1       = 0x2B;
+    private static final int ILOAD_2       = 0x1C;
+    private static final int ALOAD_3       = 0x2D;
+    private static final int BIPUSH        = 0x10;
+    private static final int SIPUSH        = 0x11;
+    private static final int IADD          = 0x60;
+    private static final int BALOAD        = 0x33;
+    private static final int ISHL          = 0x78;
+    private static final int IAND          = 0x7E;
+    private static final int IOR           = 0x80;
+    private static final int I2C           = 0x92;
+    private static final int I2S           = 0x93;
+    private static final int IASTORE       = 0x4F;
+    private static final int RETURN        = 0xB1;
+    private static final int INVOKESPECIAL = 0xB7;
+
+    private DecoderGenerator()
+    {
+    }
+
+    /**
+     * Generate and load the decoder for a layout.
+     *
+     * @param layout The layout.
+     * @return A new instance of the generated class.
+     */
+    static LayoutDecoder generate(StreamLayout layout)
+    {
+        String name = "de.pocmo.springobot.sensors.GeneratedDecoder" + counter.incrementAndGet();
+        byte[] bytes;
+
+        try {
+            bytes = writeClass(name.replace('.', '/'), layout);
+        } catch (IOException exception) {
+            // Writing to memory does not fail
+            throw new IllegalStateException(exception);
+        }
+
+        Class<?> type = new Loader().define(name, bytes);
+
+        try {
+            return (LayoutDecoder) type.getConstructor().newInstance();
+        } catch (NoSuchMethodException exception) {
+            throw new LinkageError(exception.toString());
+        } catch (InstantiationException exception) {
+            throw new LinkageError(exception.toString());
+        } catch (IllegalAccessException exception) {
+            throw new LinkageError(exception.toString());
+        } catch (InvocationTargetException exception) {
+            throw new LinkageError(exception.toString());
+        }
+    }
+
+    private static byte[] writeClass(String name, StreamLayout layout) throws IOException
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+
+        out.writeInt(0xCAFEBABE);
+        out.writeShort(0);
+        out.writeShort(50);
+
+        // Constant pool
+        out.writeShort(POOL_SIZE);
+        utf8(out, name);                                 // 1
+        reference(out, 7, 1);                            // 2: this class
+        utf8(out, SUPER_CLASS);                          // 3
+        reference(out, 7, 3);                            // 4: super class
+        utf8(out, "<init>");                             // 5
+        utf8(out, "()V");                                // 6
+        out.writeByte(12);                               // 7: name and type
+        out.writeShort(INIT);
+        out.writeShort(VOID);
+        out.writeByte(10);                               // 8: method ref
+        out.writeShort(SUPER);
+        out.writeShort(7);
+        utf8(out, "Code");                               // 9
+        utf8(out, "decode");                             // 10
+        utf8(out, "([BI[I)V");                           // 11
+
+        out.writeShort(0x0031);                          // public final super
+        out.writeShort(THIS_CLASS);
+        out.writeShort(SUPER);
+        out.writeShort(0);                               // interfaces
+        out.writeShort(0);                               // fields
+        out.writeShort(2);                               // methods
+
+        // Constructor calling the super constructor
+        method(out, INIT, VOID, 1, 1, new byte[] {
+            (byte) ALOAD_0, (byte) INVOKESPECIAL, 0, (byte) SUPER_INIT, (byte) RETURN
+        });
+
+        method(out, DECODE, DECODE_TYPE, 6, 4, decodeCode(layout));
+
+        out.writeShort(0);                               // attributes
+        out.flush();
+
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Generate the code of decode(byte[] buffer, int offset, int[] values).
+     */
+    private static byte[] decodeCode(StreamLayout layout)
+    {
+        ByteArrayOutputStream code = new ByteArrayOutputStream();
+
+        for (int i = 0; i < layout.size(); i++) {
+            int packetId = layout.getPacketId(i);
+            int position = layout.getOffset(packetId);
+            boolean signed = Sensor.isSigned(packetId);
+
+            // values[packetId] = ...
+            code.write(ALOAD_3);
+            push(code, packetId);
+
+            if (layout.getWidth(packetId) == 1) {
+                loadByte(code, position);
+
+                if (!signed) {
+                    push(code, 0xFF);
+                    code.write(IAND);
+                }
+            } else {
+                loadByte(code, position);
+                push(code, 8);
+                code.write(ISHL);
+
+                loadByte(code, position + 1);
+                push(code, 0xFF);
+                code.write(IAND);
+
+                code.write(IOR);
+
+                // Drop the sign extension of the high byte
+                code.write(signed ? I2S : I2C);
+            }
+
+            code.write(IASTORE);
+        }
+
+        code.write(RETURN);
+
+        return code.toByteArray();
+    }
+
+    /**
+     * Push buffer[offset + position].
+     */
+    private static void loadByte(ByteArrayOutputStream code, int position)
+    {
+        code.write(ALOAD_1);
+        code.write(ILOAD_2);
+        push(code, position);
+        code.write(IADD);
+        code.write(BALOAD);
+    }
+
+    private static void push(ByteArrayOutputStream code, int value)
+    {
+        if (value <= Byte.MAX_VALUE) {
+            code.write(BIPUSH);
+            code.write(value);
+        } else {
+            code.write(SIPUSH);
+            code.write(value >> 8);
+            code.write(value);
+        }
+    }
+
+    private static void method(DataOutputStream out, int name, int type, int maxStack, int maxLocals, byte[] code) throws IOException
+    {
+        out.writeShort(0x0001);                          // public
+        out.writeShort(name);
+        out.writeShort(type);
+        out.writeShort(1);                               // attributes
+
+        out.writeShort(CODE);
+        out.writeInt(12 + code.length);
+        out.writeShort(maxStack);
+        out.writeShort(maxLocals);
+        out.writeInt(code.length);
+        out.write(code);
+        out.writeShort(0);                               // exception table
+        out.writeShort(0);                               // attributes
+    }
+
+    private static void utf8(DataOutputStream out, String value) throws IOException
+    {
+        out.writeByte(1);
+        out.writeUTF(value);
+    }
+
+    private static void reference(DataOutputStream out, int tag, int index) throws IOException
+    {
+        out.writeByte(tag);
+        out.writeShort(index);
+    }
+
+    /**
+     * Class loader defining a single generated class.
+     */
+    private static class Loader extends ClassLoader
+    {
+        Loader()
+        {
+            super(LayoutDecoder.class.getClassLoader());
+        }
+
+        Class<?> define(String name, byte[] bytes)
+        {
+            return defineClass(name, bytes, 0, bytes.length);
+        }
+    }
+}
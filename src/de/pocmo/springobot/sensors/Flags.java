@@ -0,0 +1,129 @@
+/*
+   Copyright 2011 Sebastian Kaspari
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package de.pocmo.springobot.sensors;
+
+
+/**
+ * Base class for immutable views of sensor packets whose data byte
+ * is a set of individual bits.
+ *
+ * Subclasses keep one interned instance for each of the 256 possible
+ * byte values, so converting a sensor value into a flag view does not
+ * allocate and instances can be compared with ==.
+ *
+ * @author Sebastian Kaspari <s.kaspari@gmail.com>
+ */
+public abstract class Flags
+{
+    /**
+     * The raw data byte.
+     */
+    private final int value;
+
+    /**
+     * Create a new flag view.
+     *
+     * @param value The raw data byte.
+     */
+    protected Flags(int value)
+    {
+        this.value = value;
+    }
+
+    /**
+     * Get the raw data byte.
+     *
+     * @return The value (0-255).
+     */
+    public int getValue()
+    {
+        return value;
+    }
+
+    /**
+     * Check whether no bit is set.
+     *
+     * @return True if the value is 0.
+     */
+    public boolean isEmpty()
+    {
+        return value == 0;
+    }
+
+    /**
+     * Check whether the given bit is set.
+     *
+     * @param bit Bit number (0-7).
+     * @return True if the bit is set.
+     */
+    public boolean isSet(int bit)
+    {
+        return (value & (1 << bit)) != 0;
+    }
+
+    /**
+     * Get the names of the bits, indexed by bit number.
+     *
+     * @return Names (null for unused bits).
+     */
+    protected abstract String[] getBitNames();
+
+    /**
+     * Check the value of a sensor byte before looking it up.
+     *
+     * @param value The raw data byte.
+     * @return The value.
+     */
+    protected static int checkValue(int value)
+    {
+        if (value < 0 || value > 255) {
+            throw new IllegalArgumentException("Value out of range (0 to 255): " + value);
+        }
+
+        return value;
+    }
+
+    @Override
+    public boolean equals(Object object)
+    {
+        return object != null && object.getClass() == getClass() && ((Flags) object).value == value;
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return value;
+    }
+
+    @Override
+    public String toString()
+    {
+        StringBuilder builder = new StringBuilder(getClass().getSimpleName()).append('[');
+        String[] names = getBitNames();
+
+        for (int bit = 0; bit < 8; bit++) {
+            if (isSet(bit)) {
+                if (builder.charAt(builder.length() - 1) != '[') {
+                    builder.append(", ");
+                }
+
+                builder.append(bit < names.length && names[bit] != null ? names[bit] : "BIT_" + bit);
+            }
+        }
+
+        return builder.append(']').toString();
+    }
+}
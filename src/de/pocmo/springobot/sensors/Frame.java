@@ -0,0 +1,274 @@
+/*
+   Copyright 2011 Sebastian Kaspari
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package de.pocmo.springobot.sensors;
+
+
+/**
+ * A frame of the sensor data stream.
+ *
+ * Frames keep the raw bytes as received and decode values on access.
+ * A frame instance is meant to be reused for reading frame after
+ * frame, so reading a stream does not allocate.
+ *
+ * @author Sebastian Kaspari <s.kaspari@gmail.com>
+ */
+public class Frame
+{
+    /**
+     * First byte of every stream frame.
+     */
+    public static final int HEADER = 19;
+
+    /**
+     * Number of bytes before the first packet id (header and N).
+     */
+    public static final int HEADER_SIZE = 2;
+
+    /**
+     * Maximum size of a frame in bytes.
+     */
+    public static final int MAX_SIZE = HEADER_SIZE + 255 + 1;
+
+    /**
+     * The raw frame including header and checksum.
+     */
+    private final byte[] buffer = new byte[MAX_SIZE];
+
+    /**
+     * The layout of the current frame.
+     */
+    private StreamLayout layout;
+
+    /**
+     * Time (see Clock.nanoTime()) the frame has been received.
+     */
+    private long timestamp;
+
+    /**
+     * Check whether the frame starting at the given offset has a valid
+     * header and checksum.
+     *
+     * @param buffer Buffer containing the frame.
+     * @param offset Offset of the frame header.
+     * @param limit  End of the valid data in the buffer.
+     * @return True if a complete and valid frame starts at offset.
+     */
+    public static boolean isValid(byte[] buffer, int offset, int limit)
+    {
+        if (limit - offset < HEADER_SIZE + 1 || (buffer[offset] & 0xFF) != HEADER) {
+            return false;
+        }
+
+        int end = offset + HEADER_SIZE + (buffer[offset + 1] & 0xFF) + 1;
+
+        if (end > limit) {
+            return false;
+        }
+
+        int sum = 0;
+
+        for (int i = offset; i < end; i++) {
+            sum += buffer[i];
+        }
+
+        return (sum & 0xFF) == 0;
+    }
+
+    /**
+     * Copy a frame from a buffer into this frame, for example when
+     * decoding a recorded capture.
+     *
+     * @param source    Buffer containing the frame.
+     * @param offset    Offset of the frame header.
+     * @param limit     End of the valid data in the buffer.
+     * @param timestamp Time the frame has been received.
+     * @return Size of the frame or -1 if no valid frame with known
+     *         packets starts at offset.
+     */
+    public int read(byte[] source, int offset, int limit, long timestamp)
+    {
+        if (!isValid(source, offset, limit)) {
+            return -1;
+        }
+
+        StreamLayout frameLayout = layout != null && layout.matches(source, offset)
+            ? layout
+            : StreamLayout.parse(source, offset);
+
+        if (frameLayout == null) {
+            return -1;
+        }
+
+        int size = HEADER_SIZE + (source[offset + 1] & 0xFF) + 1;
+
+        System.arraycopy(source, offset, buffer, 0, size);
+        set(frameLayout, timestamp);
+
+        return size;
+    }
+
+    /**
+     * Decode a value from raw frame data.
+     *
+     * @param buffer Buffer containing the value.
+     * @param offset Offset of the first (high) byte.
+     * @param width  Number of data bytes (1 or 2).
+     * @param signed Whether the value is signed.
+     * @return The decoded value.
+     */
+    public static int decode(byte[] buffer, int offset, int width, boolean signed)
+    {
+        if (width == 1) {
+            return signed ? buffer[offset] : buffer[offset] & 0xFF;
+        }
+
+        int value = ((buffer[offset] & 0xFF) << 8) | (buffer[offset + 1] & 0xFF);
+
+        return signed ? (short) value : value;
+    }
+
+    /**
+     * Get the raw bytes of the frame.
+     *
+     * The array is reused for the next frame read into this instance.
+     *
+     * @return Buffer containing the frame at offset 0.
+     */
+    public byte[] getBuffer()
+    {
+        return buffer;
+    }
+
+    /**
+     * Get the size of the frame including header and checksum.
+     *
+     * @return Number of bytes in the buffer belonging to this frame.
+     */
+    public int getSize()
+    {
+        return HEADER_SIZE + (buffer[1] & 0xFF) + 1;
+    }
+
+    /**
+     * Get the layout of this frame.
+     *
+     * @return The layout or null if no frame has been read yet.
+     */
+    public StreamLayout getLayout()
+    {
+        return layout;
+    }
+
+    /**
+     * Get the time the frame has been received.
+     *
+     * @return Timestamp as returned by Clock.nanoTime() of the reader.
+     */
+    public long getTimestamp()
+    {
+        return timestamp;
+    }
+
+    /**
+     * Check whether this frame contains the given packet.
+     *
+     * @param packetId Sensor packet id.
+     * @return True if the frame contains the packet.
+     */
+    public boolean contains(int packetId)
+    {
+        return layout != null && layout.contains(packetId);
+    }
+
+    /**
+     * Get the decoded value of the given packet.
+     *
+     * Signed packets (like DISTANCE or CURRENT) are sign-extended.
+     *
+     * @param packetId Sensor packet id.
+     * @return The value.
+     */
+    public int get(int packetId)
+    {
+        if (!contains(packetId)) {
+            throw new IllegalArgumentException("Packet not part of frame: " + packetId);
+        }
+
+        return decode(buffer, layout.getOffset(packetId), layout.getWidth(packetId), Sensor.isSigned(packetId));
+    }
+
+    /**
+     * Get the value of the given packet or a default value if the
+     * frame does not contain the packet.
+     *
+     * @param packetId     Sensor packet id.
+     * @param defaultValue Value to return if the packet is missing.
+     * @return The value.
+     */
+    public int get(int packetId, int defaultValue)
+    {
+        return contains(packetId) ? get(packetId) : defaultValue;
+    }
+
+    /**
+     * Decode all packets of this frame at once with the decoder of its
+     * layout.
+     *
+     * @param values Array of at least StreamLayout.MAX_PACKET_ID + 1
+     *               slots, receiving the values by packet id. Slots of
+     *               packets not in the frame are left untouched.
+     */
+    public void decodeAll(int[] values)
+    {
+        layout.getDecoder().decode(buffer, 0, values);
+    }
+
+    /**
+     * Convert this frame into packets.
+     *
+     * @return One packet per requested sensor.
+     */
+    public Packet[] toPackets()
+    {
+        Packet[] packets = new Packet[layout.size()];
+
+        for (int i = 0; i < packets.length; i++) {
+            int packetId = layout.getPacketId(i);
+            int offset   = layout.getOffset(packetId);
+            int[] data   = new int[layout.getWidth(packetId)];
+
+            for (int j = 0; j < data.length; j++) {
+                data[j] = buffer[offset + j] & 0xFF;
+            }
+
+            packets[i] = new Packet(packetId, data);
+        }
+
+        return packets;
+    }
+
+    /**
+     * Set layout and timestamp after the buffer has been filled.
+     *
+     * @param layout    Layout of the frame in the buffer.
+     * @param timestamp Time the frame has been received.
+     */
+    void set(StreamLayout layout, long timestamp)
+    {
+        this.layout    = layout;
+        this.timestamp = timestamp;
+    }
+}
@@ -0,0 +1,141 @@
+/*
+   Copyright 2011 Sebastian Kaspari
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package de.pocmo.springobot.sensors;
+
+import de.pocmo.springobot.clock.Clock;
+
+import java.nio.ByteBuffer;
+
+
+/**
+ * Incremental decoder for the sensor data stream.
+ *
+ * In contrast to RobotReader the decoder does not read by itself: It
+ * is fed with whatever bytes have arrived and calls its listener for
+ * every complete frame. This makes it usable with non-blocking I/O.
+ * Bytes that do not belong to a valid frame are skipped.
+ *
+ * @author Sebastian Kaspari <s.kaspari@gmail.com>
+ */
+public class FrameDecoder
+{
+    private FrameListener listener;
+    private Clock clock;
+    private Frame frame = new Frame();
+
+    /**
+     * Bytes received but not decoded yet.
+     */
+    private byte[] input = new byte[2 * Frame.MAX_SIZE];
+    private int start;
+    private int end;
+
+    /**
+     * Create a new decoder.
+     *
+     * @param listener The listener to call for every frame.
+     */
+    public FrameDecoder(FrameListener listener)
+    {
+        this(listener, Clock.SYSTEM);
+    }
+
+    /**
+     * Create a new decoder using the given clock for frame timestamps.
+     *
+     * @param listener The listener to call for every frame.
+     * @param clock    The clock for frame timestamps.
+     */
+    public FrameDecoder(FrameListener listener, Clock clock)
+    {
+        this.listener = listener;
+        this.clock    = clock;
+    }
+
+    /**
+     * Decode the remaining bytes of the buffer.
+     *
+     * @param buffer Buffer with received bytes, consumed completely.
+     */
+    public void decode(ByteBuffer buffer)
+    {
+        while (buffer.hasRemaining()) {
+            compact();
+
+            int count = Math.min(buffer.remaining(), input.length - end);
+
+            buffer.get(input, end, count);
+            end += count;
+
+            scan();
+        }
+    }
+
+    /**
+     * Decode the given bytes.
+     *
+     * @param data   Received bytes.
+     * @param offset Position of the first byte.
+     * @param length Number of bytes.
+     */
+    public void decode(byte[] data, int offset, int length)
+    {
+        decode(ByteBuffer.wrap(data, offset, length));
+    }
+
+    /**
+     * Decode all complete frames in the input buffer.
+     */
+    private void scan()
+    {
+        while (true) {
+            while (start < end && (input[start] & 0xFF) != Frame.HEADER) {
+                start++;
+            }
+
+            if (end - start < Frame.HEADER_SIZE) {
+                return;
+            }
+
+            int size = Frame.HEADER_SIZE + (input[start + 1] & 0xFF) + 1;
+
+            if (end - start < size) {
+                return;
+            }
+
+            if (frame.read(input, start, end, clock.nanoTime()) == -1) {
+                start++;
+                continue;
+            }
+
+            start += size;
+
+            listener.frameReceived(frame);
+        }
+    }
+
+    /**
+     * Move undecoded bytes to the start of the input buffer.
+     */
+    private void compact()
+    {
+        if (start > 0) {
+            System.arraycopy(input, start, input, 0, end - start);
+            end  -= start;
+            start = 0;
+        }
+    }
+}
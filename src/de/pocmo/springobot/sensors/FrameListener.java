@@ -0,0 +1,35 @@
+/*
+   Copyright 2011 Sebastian Kaspari
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package de.pocmo.springobot.sensors;
+
+
+/**
+ * Listener for frames of the sensor data stream.
+ *
+ * @author Sebastian Kaspari <s.kaspari@gmail.com>
+ */
+public interface FrameListener
+{
+    /**
+     * Called for every frame received.
+     *
+     * The frame instance is reused for the next frame, copy values that
+     * are needed later.
+     *
+     * @param frame The frame.
+     */
+    void frameReceived(Frame frame);
+}
@@ -0,0 +1,64 @@
+/*
+   Copyright 2011 Sebastian Kaspari
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package de.pocmo.springobot.sensors;
+
+
+/**
+ * Decoder walking the packets of a layout, used if decoders can not be
+ * generated.
+ *
+ * @author Sebastian Kaspari <s.kaspari@gmail.com>
+ */
+final class GenericLayoutDecoder extends LayoutDecoder
+{
+    private final int[] packetIds;
+    private final int[] offsets;
+    private final int[] widths;
+    private final boolean[] signed;
+
+    GenericLayoutDecoder(StreamLayout layout)
+    {
+        int size = layout.size();
+
+        packetIds = new int[size];
+        offsets   = new int[size];
+        widths    = new int[size];
+        signed    = new boolean[size];
+
+        for (int i = 0; i < size; i++) {
+            int packetId = layout.getPacketId(i);
+
+            packetIds[i] = packetId;
+            offsets[i]   = layout.getOffset(packetId);
+            widths[i]    = layout.getWidth(packetId);
+            signed[i]    = Sensor.isSigned(packetId);
+        }
+    }
+
+    @Override
+    public void decode(byte[] buffer, int offset, int[] values)
+    {
+        for (int i = 0; i < packetIds.length; i++) {
+            values[packetIds[i]] = Frame.decode(buffer, offset + offsets[i], widths[i], signed[i]);
+        }
+    }
+
+    @Override
+    public boolean isGenerated()
+    {
+        return false;
+    }
+}
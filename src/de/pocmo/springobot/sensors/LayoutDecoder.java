@@ -0,0 +1,80 @@
+/*
+   Copyright 2011 Sebastian Kaspari
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package de.pocmo.springobot.sensors;
+
+
+/**
+ * Decodes all packets of frames with one fixed layout.
+ *
+ * Get the decoder of a layout with StreamLayout.getDecoder(). For a
+ * layout the decoder is generated as a class with one straight-line
+ * method: every packet is decoded from its fixed offset and stored into
+ * its slot without loops or branches. If classes can not be generated
+ * (for example because a security manager forbids class loaders), a
+ * generic decoder walking the layout is used instead.
+ *
+ * @author Sebastian Kaspari <s.kaspari@gmail.com>
+ */
+public abstract class LayoutDecoder
+{
+    /**
+     * Constructor for generated subclasses.
+     */
+    protected LayoutDecoder()
+    {
+    }
+
+    /**
+     * Decode all packets of a frame.
+     *
+     * Values are sign-extended for signed packets. Slots of packets
+     * not in the layout are left untouched.
+     *
+     * @param buffer Buffer containing a valid frame of the layout.
+     * @param offset Offset of the frame header.
+     * @param values Array of at least StreamLayout.MAX_PACKET_ID + 1
+     *               slots, receiving the values by packet id.
+     */
+    public abstract void decode(byte[] buffer, int offset, int[] values);
+
+    /**
+     * Create the decoder for a layout.
+     *
+     * @param layout The layout.
+     * @return A generated decoder or the generic decoder if generation
+     *         is not possible.
+     */
+    static LayoutDecoder create(StreamLayout layout)
+    {
+        try {
+            return DecoderGenerator.generate(layout);
+        } catch (LinkageError error) {
+            return new GenericLayoutDecoder(layout);
+        } catch (SecurityException exception) {
+            return new GenericLayoutDecoder(layout);
+        }
+    }
+
+    /**
+     * Check whether this decoder has been generated for its layout.
+     *
+     * @return False for the generic decoder.
+     */
+    public boolean isGenerated()
+    {
+        return true;
+    }
+}
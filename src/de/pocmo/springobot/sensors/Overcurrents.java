@@ -0,0 +1,118 @@
+/*
+   Copyright 2011 Sebastian Kaspari
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package de.pocmo.springobot.sensors;
+
+
+/**
+ * State of the low side driver and wheel overcurrent sensors (packet 14).
+ *
+ * @author Sebastian Kaspari <s.kaspari@gmail.com>
+ */
+public final class Overcurrents extends Flags
+{
+    private static final String[] NAMES = { "LOW_SIDE_DRIVER_1", "LOW_SIDE_DRIVER_0", "LOW_SIDE_DRIVER_2", "RIGHT_WHEEL", "LEFT_WHEEL" };
+
+    private static final Overcurrents[] VALUES = new Overcurrents[256];
+
+    static {
+        for (int i = 0; i < VALUES.length; i++) {
+            VALUES[i] = new Overcurrents(i);
+        }
+    }
+
+    private Overcurrents(int value)
+    {
+        super(value);
+    }
+
+    /**
+     * Get the view for the given data byte.
+     *
+     * @param value The data byte of the LOW_SLIDE_DRIVER_AND_WHEEL_OVERCURRENTS packet.
+     * @return The interned instance.
+     */
+    public static Overcurrents valueOf(int value)
+    {
+        return VALUES[checkValue(value)];
+    }
+
+    /**
+     * Get the view of the LOW_SLIDE_DRIVER_AND_WHEEL_OVERCURRENTS packet of a frame.
+     *
+     * @param frame A frame containing the packet.
+     * @return The interned instance.
+     */
+    public static Overcurrents from(Frame frame)
+    {
+        return VALUES[frame.get(Sensor.LOW_SLIDE_DRIVER_AND_WHEEL_OVERCURRENTS)];
+    }
+
+    /**
+     * Check whether low side driver 1 is overcurrent.
+     *
+     * @return True on overcurrent.
+     */
+    public boolean isLowSideDriver1()
+    {
+        return isSet(0);
+    }
+
+    /**
+     * Check whether low side driver 0 is overcurrent.
+     *
+     * @return True on overcurrent.
+     */
+    public boolean isLowSideDriver0()
+    {
+        return isSet(1);
+    }
+
+    /**
+     * Check whether low side driver 2 is overcurrent.
+     *
+     * @return True on overcurrent.
+     */
+    public boolean isLowSideDriver2()
+    {
+        return isSet(2);
+    }
+
+    /**
+     * Check whether the right wheel is overcurrent.
+     *
+     * @return True on overcurrent.
+     */
+    public boolean isRightWheel()
+    {
+        return isSet(3);
+    }
+
+    /**
+     * Check whether the left wheel is overcurrent.
+     *
+     * @return True on overcurrent.
+     */
+    public boolean isLeftWheel()
+    {
+        return isSet(4);
+    }
+
+    @Override
+    protected String[] getBitNames()
+    {
+        return NAMES;
+    }
+}
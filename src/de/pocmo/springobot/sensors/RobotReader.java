@@ -15,6 +15,9 @@
  */
 package de.pocmo.springobot.sensors;
 
+import de.pocmo.springobot.clock.Clock;
+import de.pocmo.springobot.telemetry.WireTap;
+
 import java.io.IOException;
 import java.io.InputStream;
 
@@ -31,14 +34,101 @@ public class RobotReader
      */
     private InputStream stream;
 
+    /**
+     * Clock for timestamps and timeouts.
+     */
+    private Clock clock;
+
+    /**
+     * Time (see Clock.nanoTime()) of the last packet that has been read
+     * successfully.
+     */
+    private volatile long lastPacketTime;
+
+    /**
+     * Layout of the last stream frame read.
+     */
+    private volatile StreamLayout layout;
+
+    /**
+     * Layout announced by expectLayout() that has not been seen yet.
+     */
+    private volatile StreamLayout expectedLayout;
+
+    /**
+     * Tap recording all bytes read or null.
+     */
+    private volatile WireTap tap;
+
+    /**
+     * Bytes read from the stream but not consumed yet.
+     */
+    private final byte[] input = new byte[2 * Frame.MAX_SIZE];
+
+    /**
+     * Position of the first unconsumed byte in the input buffer.
+     */
+    private int start;
+
+    /**
+     * Position after the last unconsumed byte in the input buffer.
+     */
+    private int end;
+
     /**
      * Create a new RobotReader instance
      *
      * @param stream The input stream to read from.
      */
     public RobotReader(InputStream stream)
+    {
+        this(stream, Clock.SYSTEM);
+    }
+
+    /**
+     * Create a new RobotReader instance using the given clock.
+     *
+     * @param stream The input stream to read from.
+     * @param clock  The clock for timestamps and timeouts.
+     */
+    public RobotReader(InputStream stream, Clock clock)
     {
         this.stream = stream;
+        this.clock  = clock;
+        this.lastPacketTime = clock.nanoTime();
+    }
+
+    /**
+     * Get the clock of this reader.
+     *
+     * @return The clock used for timestamps and timeouts.
+     */
+    public Clock getClock()
+    {
+        return clock;
+    }
+
+    /**
+     * Get the time the last packet has been read successfully.
+     *
+     * If no packet has been read yet the time this reader has been
+     * created is returned.
+     *
+     * @return Timestamp as returned by Clock.nanoTime().
+     */
+    public long getLastPacketTime()
+    {
+        return lastPacketTime;
+    }
+
+    /**
+     * Record all bytes read from now on with the given tap.
+     *
+     * @param tap The tap or null to stop recording.
+     */
+    public void setTap(WireTap tap)
+    {
+        this.tap = tap;
     }
 
     /**
@@ -49,19 +139,329 @@ public class RobotReader
     public Packet readPacket()
     {
         try {
-            int packetId = stream.read();
+            int packetId = read();
 
             int numberOfDataBytes = Sensor.getDataBytesByPacketId(packetId);
             int[] dataBuffer = new int[numberOfDataBytes];
 
             for (int i = 0; i < numberOfDataBytes; i++) {
-                dataBuffer[i] = stream.read();
+                dataBuffer[i] = read();
             }
 
+            lastPacketTime = clock.nanoTime();
+
             return new Packet(packetId, dataBuffer);
         }
         catch (IOException e) {
             return null;
         }
     }
+
+    /**
+     * Read the next valid frame of the sensor data stream into the
+     * given frame.
+     *
+     * Bytes are skipped until a frame with a valid header and checksum
+     * has been found. If a layout is expected (see expectLayout()),
+     * frames with another layout are skipped too.
+     *
+     * @param frame The frame to read into.
+     * @return True if a frame has been read, false if the end of the
+     *         stream has been reached or reading failed.
+     */
+    public boolean readFrame(Frame frame)
+    {
+        try {
+            while (true) {
+                while (start < end && (input[start] & 0xFF) != Frame.HEADER) {
+                    start++;
+                }
+
+                if (!fill(Frame.HEADER_SIZE) || !fill(Frame.HEADER_SIZE + (input[start + 1] & 0xFF) + 1)) {
+                    if (end - start <= 1) {
+                        return false;
+                    }
+
+                    // End of stream: Scan the rest of the buffer
+                    start++;
+                    continue;
+                }
+
+                int size = Frame.HEADER_SIZE + (input[start + 1] & 0xFF) + 1;
+
+                if (!Frame.isValid(input, start, end)) {
+                    // Not a frame, look for the next header
+                    start++;
+                    continue;
+                }
+
+                StreamLayout frameLayout = resolveLayout(input, start);
+
+                if (frameLayout == null) {
+                    // Frame with an old or unknown layout
+                    start += size;
+                    continue;
+                }
+
+                System.arraycopy(input, start, frame.getBuffer(), 0, size);
+                start += size;
+
+                long now = clock.nanoTime();
+
+                frame.set(frameLayout, now);
+                lastPacketTime = now;
+
+                return true;
+            }
+        }
+        catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Read the answer to a single sensor request (see
+     * RobotWriter.requestSensor()).
+     *
+     * Waits until all data bytes of the packet are available, so a
+     * lost request does not block the caller forever.
+     *
+     * @param packetId The requested sensor packet id.
+     * @param timeout  Maximum time to wait in milliseconds.
+     * @return The packet or null on timeout or if reading failed.
+     */
+    public Packet readSensor(int packetId, long timeout)
+    {
+        int numberOfDataBytes = Sensor.getDataBytesByPacketId(packetId);
+        long deadline = clock.nanoTime() + timeout * 1000000L;
+
+        try {
+            while (end - start + stream.available() < numberOfDataBytes) {
+                if (clock.nanoTime() - deadline >= 0) {
+                    return null;
+                }
+
+                clock.sleepNanos(1000000L);
+            }
+
+            int[] dataBuffer = new int[numberOfDataBytes];
+
+            for (int i = 0; i < numberOfDataBytes; i++) {
+                dataBuffer[i] = read();
+
+                if (dataBuffer[i] == -1) {
+                    return null;
+                }
+            }
+
+            lastPacketTime = clock.nanoTime();
+
+            return new Packet(packetId, dataBuffer);
+        }
+        catch (IOException e) {
+            return null;
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+
+    /**
+     * Discard all buffered input and all bytes that can be read from
+     * the stream without blocking, for example stale stream frames or
+     * answers to earlier requests.
+     *
+     * @return Number of bytes discarded.
+     */
+    public int drain()
+    {
+        int discarded = end - start;
+
+        start = 0;
+        end   = 0;
+
+        try {
+            int available;
+
+            while ((available = stream.available()) > 0) {
+                int read = stream.read(input, 0, Math.min(available, input.length));
+
+                if (read == -1) {
+                    break;
+                }
+
+                tap(input, 0, read);
+                discarded += read;
+            }
+        }
+        catch (IOException e) {
+            // Nothing left to discard
+        }
+
+        return discarded;
+    }
+
+    /**
+     * Announce that the stream is about to switch to the given layout.
+     *
+     * Until the first frame with this layout has been read, frames
+     * with any other layout (still in flight from the old stream) are
+     * skipped.
+     *
+     * @param layout The new layout or null to accept any layout.
+     */
+    public synchronized void expectLayout(StreamLayout layout)
+    {
+        expectedLayout = layout;
+    }
+
+    /**
+     * Wait until a frame with the given layout has been read.
+     *
+     * Another thread must be reading frames while waiting.
+     *
+     * @param layout  The expected layout.
+     * @param timeout Maximum time to wait in milliseconds.
+     * @return True if the layout is active, false on timeout.
+     * @throws InterruptedException
+     */
+    public synchronized boolean awaitLayout(StreamLayout layout, long timeout) throws InterruptedException
+    {
+        long deadline = clock.nanoTime() + timeout * 1000000L;
+
+        while (!layout.equals(this.layout)) {
+            long remaining = deadline - clock.nanoTime();
+
+            if (remaining <= 0) {
+                return false;
+            }
+
+            clock.awaitNanos(this, remaining);
+        }
+
+        return true;
+    }
+
+    /**
+     * Get the layout of the last frame read.
+     *
+     * @return The layout or null if no frame has been read yet.
+     */
+    public StreamLayout getLayout()
+    {
+        return layout;
+    }
+
+    /**
+     * Find the layout of the frame in the buffer.
+     *
+     * @param buffer Buffer containing a valid frame.
+     * @param offset Offset of the frame header.
+     * @return The layout or null if the frame should be skipped.
+     */
+    private StreamLayout resolveLayout(byte[] buffer, int offset)
+    {
+        StreamLayout expected = expectedLayout;
+
+        if (expected != null) {
+            if (!expected.matches(buffer, offset)) {
+                return null;
+            }
+
+            switchLayout(expected);
+
+            return expected;
+        }
+
+        StreamLayout current = layout;
+
+        if (current != null && current.matches(buffer, offset)) {
+            return current;
+        }
+
+        StreamLayout parsed = StreamLayout.parse(buffer, offset);
+
+        if (parsed != null) {
+            switchLayout(parsed);
+        }
+
+        return parsed;
+    }
+
+    /**
+     * Make the given layout the current layout and wake up threads
+     * waiting for it.
+     *
+     * @param layout The new layout.
+     */
+    private synchronized void switchLayout(StreamLayout layout)
+    {
+        this.layout = layout;
+
+        if (layout.equals(expectedLayout)) {
+            expectedLayout = null;
+        }
+
+        notifyAll();
+    }
+
+    /**
+     * Read a single byte, consuming buffered input first.
+     *
+     * @return The byte or -1 at the end of the stream.
+     * @throws IOException
+     */
+    private int read() throws IOException
+    {
+        if (!fill(1)) {
+            return -1;
+        }
+
+        return input[start++] & 0xFF;
+    }
+
+    /**
+     * Make sure at least the given number of bytes is buffered after
+     * the current position.
+     *
+     * @param count Number of bytes needed.
+     * @return True if the bytes are available, false on end of stream.
+     * @throws IOException
+     */
+    private boolean fill(int count) throws IOException
+    {
+        if (end - start >= count) {
+            return true;
+        }
+
+        if (start + count > input.length) {
+            System.arraycopy(input, start, input, 0, end - start);
+            end  -= start;
+            start = 0;
+        }
+
+        while (end - start < count) {
+            int read = stream.read(input, end, input.length - end);
+
+            if (read == -1) {
+                return false;
+            }
+
+            tap(input, end, read);
+            end += read;
+        }
+
+        return true;
+    }
+
+    private void tap(byte[] buffer, int offset, int length)
+    {
+        WireTap current = tap;
+
+        // Do not read the clock for a disabled tap
+        if (current != null && current.isEnabled()) {
+            current.inbound(clock.nanoTime(), buffer, offset, length);
+        }
+    }
 }
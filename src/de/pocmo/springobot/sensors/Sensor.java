@@ -409,4 +409,27 @@ public class Sensor
 
         throw new IllegalArgumentException("Unknown sensor packet id: " + packetId);
     }
+
+    /**
+     * Check whether the data of the given packet id is a signed value.
+     *
+     * @param packetId
+     * @return True for signed values, false for unsigned values.
+     */
+    public static boolean isSigned(int packetId)
+    {
+        switch (packetId) {
+            case DISTANCE:
+            case ANGLE:
+            case CURRENT:
+            case BATTERY_TEMPERATURE:
+            case REQUESTED_VELOCITY:
+            case REQUESTED_RADIUS:
+            case REQUESTED_RIGHT_VELOCITY:
+            case REQUESTED_LEFT_VELOCITY:
+                return true;
+        }
+
+        return false;
+    }
 }
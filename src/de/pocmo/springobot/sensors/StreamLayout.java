@@ -0,0 +1,327 @@
+/*
+   Copyright 2011 Sebastian Kaspari
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package de.pocmo.springobot.sensors;
+
+import java.util.Arrays;
+
+
+/**
+ * The layout of a stream frame: The list of packets requested with
+ * the Stream command and the position of their data bytes.
+ *
+ * A stream frame looks like this:
+ *
+ *   [19] [N] [id 1] [data 1] ... [id k] [data k] [checksum]
+ *
+ * N is the number of bytes between N and the checksum. Layouts are
+ * immutable and can be shared between threads.
+ *
+ * @author Sebastian Kaspari <s.kaspari@gmail.com>
+ */
+public class StreamLayout
+{
+    /**
+     * Highest supported packet id.
+     */
+    public static final int MAX_PACKET_ID = Sensor.REQUESTED_LEFT_VELOCITY;
+
+    /**
+     * The requested packet ids in stream order.
+     */
+    private final int[] packetIds;
+
+    /**
+     * Offset of the data bytes (relative to the frame start) by packet
+     * id or -1 if the packet is not part of this layout.
+     */
+    private final int[] offsets;
+
+    /**
+     * Number of data bytes by packet id.
+     */
+    private final int[] widths;
+
+    /**
+     * Number of bytes between N and the checksum.
+     */
+    private final int length;
+
+    /**
+     * Decoder for this layout, created on first use.
+     */
+    private volatile LayoutDecoder decoder;
+
+    /**
+     * Create a new layout for the given packet ids.
+     *
+     * @param packetIds Sensor packet ids in the order they are streamed.
+     */
+    public StreamLayout(int... packetIds)
+    {
+        if (packetIds.length == 0) {
+            throw new IllegalArgumentException("No packets requested");
+        }
+
+        this.packetIds = packetIds.clone();
+        this.offsets   = new int[MAX_PACKET_ID + 1];
+        this.widths    = new int[MAX_PACKET_ID + 1];
+
+        Arrays.fill(offsets, -1);
+
+        int position = Frame.HEADER_SIZE;
+
+        for (int i = 0; i < packetIds.length; i++) {
+            int packetId = packetIds[i];
+
+            if (packetId < 0 || packetId > MAX_PACKET_ID) {
+                throw new IllegalArgumentException("Unknown sensor packet id: " + packetId);
+            }
+
+            if (offsets[packetId] != -1) {
+                throw new IllegalArgumentException("Packet requested twice: " + packetId);
+            }
+
+            int dataBytes = Sensor.getDataBytesByPacketId(packetId);
+
+            offsets[packetId] = position + 1;
+            widths[packetId]  = dataBytes;
+
+            position += 1 + dataBytes;
+        }
+
+        this.length = position - Frame.HEADER_SIZE;
+
+        if (length > 255) {
+            throw new IllegalArgumentException("Too many packets requested: " + length + " bytes");
+        }
+    }
+
+    /**
+     * Read the layout of the given frame from its packet ids.
+     *
+     * @param buffer Buffer containing the frame.
+     * @param offset Offset of the frame header.
+     * @return The layout or null if the frame contains unknown packet
+     *         ids.
+     */
+    public static StreamLayout parse(byte[] buffer, int offset)
+    {
+        int length = buffer[offset + 1] & 0xFF;
+        int end    = offset + Frame.HEADER_SIZE + length;
+
+        int[] packetIds = new int[length / 2];
+        int count = 0;
+
+        for (int position = offset + Frame.HEADER_SIZE; position < end; count++) {
+            int packetId = buffer[position] & 0xFF;
+
+            if (packetId > MAX_PACKET_ID || !isKnown(packetId) || count == packetIds.length) {
+                return null;
+            }
+
+            packetIds[count] = packetId;
+            position += 1 + Sensor.getDataBytesByPacketId(packetId);
+
+            if (position > end) {
+                return null;
+            }
+        }
+
+        try {
+            return new StreamLayout(Arrays.copyOf(packetIds, count));
+        } catch (IllegalArgumentException exception) {
+            return null;
+        }
+    }
+
+    /**
+     * Check whether the given frame has this layout.
+     *
+     * This compares N and all packet ids without allocating.
+     *
+     * @param buffer Buffer containing the frame.
+     * @param offset Offset of the frame header.
+     * @return True if the frame has this layout.
+     */
+    public boolean matches(byte[] buffer, int offset)
+    {
+        if ((buffer[offset + 1] & 0xFF) != length) {
+            return false;
+        }
+
+        for (int i = 0; i < packetIds.length; i++) {
+            int packetId = packetIds[i];
+
+            if ((buffer[offset + offsets[packetId] - 1] & 0xFF) != packetId) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Get the requested packet ids in stream order.
+     *
+     * @return Copy of the packet ids.
+     */
+    public int[] getPacketIds()
+    {
+        return packetIds.clone();
+    }
+
+    /**
+     * Get the number of packets in this layout.
+     *
+     * @return Number of packets.
+     */
+    public int size()
+    {
+        return packetIds.length;
+    }
+
+    /**
+     * Get the packet id at the given position.
+     *
+     * @param index Position in the stream.
+     * @return The packet id.
+     */
+    public int getPacketId(int index)
+    {
+        return packetIds[index];
+    }
+
+    /**
+     * Check whether the given packet is part of this layout.
+     *
+     * @param packetId Sensor packet id.
+     * @return True if the packet is part of this layout.
+     */
+    public boolean contains(int packetId)
+    {
+        return packetId >= 0 && packetId <= MAX_PACKET_ID && offsets[packetId] != -1;
+    }
+
+    /**
+     * Get the offset of the data bytes of the given packet relative to
+     * the start of the frame.
+     *
+     * @param packetId Sensor packet id.
+     * @return The offset or -1 if the packet is not part of this layout.
+     */
+    public int getOffset(int packetId)
+    {
+        return offsets[packetId];
+    }
+
+    /**
+     * Get the number of data bytes of the given packet.
+     *
+     * @param packetId Sensor packet id.
+     * @return Number of data bytes or 0 if the packet is not part of
+     *         this layout.
+     */
+    public int getWidth(int packetId)
+    {
+        return widths[packetId];
+    }
+
+    /**
+     * Get the number of bytes between N and the checksum (N).
+     *
+     * @return Length of the frame without header and checksum.
+     */
+    public int getLength()
+    {
+        return length;
+    }
+
+    /**
+     * Get the number of bytes of a complete frame including header
+     * and checksum.
+     *
+     * @return Size of a frame in bytes.
+     */
+    public int getFrameSize()
+    {
+        return Frame.HEADER_SIZE + length + 1;
+    }
+
+    /**
+     * Get the decoder for frames of this layout.
+     *
+     * The decoder is generated on the first call, so call this when
+     * subscribing to a stream to keep the cost out of the read path.
+     *
+     * @return The decoder.
+     */
+    public LayoutDecoder getDecoder()
+    {
+        LayoutDecoder current = decoder;
+
+        if (current == null) {
+            synchronized (this) {
+                current = decoder;
+
+                if (current == null) {
+                    current = LayoutDecoder.create(this);
+                    decoder = current;
+                }
+            }
+        }
+
+        return current;
+    }
+
+    @Override
+    public boolean equals(Object object)
+    {
+        if (!(object instanceof StreamLayout)) {
+            return false;
+        }
+
+        return Arrays.equals(packetIds, ((StreamLayout) object).packetIds);
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return Arrays.hashCode(packetIds);
+    }
+
+    @Override
+    public String toString()
+    {
+        return "StreamLayout" + Arrays.toString(packetIds);
+    }
+
+    /**
+     * Check whether the given packet id is a known sensor packet.
+     *
+     * @param packetId
+     * @return True for known packets.
+     */
+    private static boolean isKnown(int packetId)
+    {
+        try {
+            Sensor.getDataBytesByPacketId(packetId);
+
+            return true;
+        } catch (IllegalArgumentException exception) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,235 @@
+/*
+   Copyright 2011 Sebastian Kaspari
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package de.pocmo.springobot.telemetry;
+
+import de.pocmo.springobot.constants.ChargingState;
+import de.pocmo.springobot.sensors.Frame;
+import de.pocmo.springobot.sensors.Sensor;
+
+
+/**
+ * Streaming estimate of the battery state.
+ *
+ * Feed every frame to update(). The estimator keeps an exponentially
+ * smoothed current draw, the state of charge and the time until the
+ * battery is empty or full. Between BATTERY_CHARGE readings the charge
+ * is integrated from the current. Whenever the robot starts or stops
+ * charging the smoothed current restarts from the latest reading, so
+ * charge and discharge currents are never mixed.
+ *
+ * Each update costs O(1). Queries only read the latest estimate and
+ * can be called from any thread.
+ *
+ * @author Sebastian Kaspari <s.kaspari@gmail.com>
+ */
+public class BatteryEstimator
+{
+    /**
+     * Default time constant of the current smoothing in milliseconds.
+     */
+    public static final long DEFAULT_TIME_CONSTANT = 30000;
+
+    /**
+     * Currents below this (in mA) are treated as no current.
+     */
+    private static final double IDLE_CURRENT = 5;
+
+    private static final double NANOS_PER_HOUR = 3600e9;
+
+    /**
+     * Time constant of the current smoothing in nanoseconds.
+     */
+    private double timeConstant;
+
+    private long lastTime;
+    private boolean initialized;
+    private boolean charging;
+
+    /**
+     * Charge in mAh, integrated between readings.
+     */
+    private double charge = Double.NaN;
+
+    private volatile int capacity;
+    private volatile ChargingState chargingState = ChargingState.NOT_CHARGING;
+    private volatile double current;
+    private volatile double stateOfCharge = Double.NaN;
+    private volatile long timeToEmpty = -1;
+    private volatile long timeToFull = -1;
+
+    /**
+     * Create a new estimator with the default time constant.
+     */
+    public BatteryEstimator()
+    {
+        this(DEFAULT_TIME_CONSTANT);
+    }
+
+    /**
+     * Create a new estimator.
+     *
+     * @param timeConstant Time constant of the current smoothing in
+     *                     milliseconds.
+     */
+    public BatteryEstimator(long timeConstant)
+    {
+        if (timeConstant <= 0) {
+            throw new IllegalArgumentException("Time constant must be positive");
+        }
+
+        this.timeConstant = timeConstant * 1e6;
+    }
+
+    /**
+     * Update the estimate with the battery packets of a frame.
+     *
+     * Frames should contain CURRENT and, at least from time to time,
+     * BATTERY_CHARGE and BATTERY_CAPACITY. CHARGING_STATE is used to
+     * detect charging transitions.
+     *
+     * @param frame The frame.
+     */
+    public synchronized void update(Frame frame)
+    {
+        long time = frame.getTimestamp();
+        double elapsed = initialized ? time - lastTime : 0;
+
+        boolean restart = !initialized;
+
+        ChargingState state = frame.contains(Sensor.CHARGING_STATE)
+            ? ChargingState.fromValue(frame.get(Sensor.CHARGING_STATE))
+            : null;
+
+        if (state != null) {
+            if (state.isCharging() != charging) {
+                restart = true;
+            }
+
+            charging      = state.isCharging();
+            chargingState = state;
+        }
+
+        if (frame.contains(Sensor.CURRENT)) {
+            int measured = frame.get(Sensor.CURRENT);
+
+            if (restart) {
+                current = measured;
+            } else {
+                double alpha = 1 - Math.exp(-elapsed / timeConstant);
+
+                current += alpha * (measured - current);
+            }
+        }
+
+        if (frame.contains(Sensor.BATTERY_CAPACITY)) {
+            capacity = frame.get(Sensor.BATTERY_CAPACITY);
+        }
+
+        if (frame.contains(Sensor.BATTERY_CHARGE)) {
+            charge = frame.get(Sensor.BATTERY_CHARGE);
+        } else if (!Double.isNaN(charge)) {
+            charge += current * elapsed / NANOS_PER_HOUR;
+            charge = Math.max(0, capacity > 0 ? Math.min(capacity, charge) : charge);
+        }
+
+        estimate();
+
+        lastTime    = time;
+        initialized = true;
+    }
+
+    /**
+     * Get the smoothed battery current. Negative values are drawn from
+     * the battery, positive values charge it.
+     *
+     * @return Current in mA.
+     */
+    public double getCurrent()
+    {
+        return current;
+    }
+
+    /**
+     * Get the state of charge.
+     *
+     * @return Charge relative to capacity (0.0 - 1.0) or NaN if charge
+     *         or capacity are not known yet.
+     */
+    public double getStateOfCharge()
+    {
+        return stateOfCharge;
+    }
+
+    /**
+     * Get the estimated time until the battery is empty.
+     *
+     * @return Time in milliseconds or -1 if the battery is not being
+     *         discharged.
+     */
+    public long getTimeToEmpty()
+    {
+        return timeToEmpty;
+    }
+
+    /**
+     * Get the estimated time until the battery is full.
+     *
+     * @return Time in milliseconds or -1 if the battery is not being
+     *         charged.
+     */
+    public long getTimeToFull()
+    {
+        return timeToFull;
+    }
+
+    /**
+     * Get the last charging state reported by the robot.
+     *
+     * @return The charging state.
+     */
+    public ChargingState getChargingState()
+    {
+        return chargingState;
+    }
+
+    /**
+     * Derive state of charge and remaining times from charge, capacity
+     * and smoothed current.
+     */
+    private void estimate()
+    {
+        if (Double.isNaN(charge) || capacity <= 0) {
+            stateOfCharge = Double.NaN;
+            timeToEmpty   = -1;
+            timeToFull    = -1;
+            return;
+        }
+
+        stateOfCharge = Math.min(1.0, charge / capacity);
+
+        if (current < -IDLE_CURRENT) {
+            timeToEmpty = (long) (charge / -current * 3600000);
+        } else {
+            timeToEmpty = -1;
+        }
+
+        if (current > IDLE_CURRENT) {
+            timeToFull = (long) (Math.max(0, capacity - charge) / current * 3600000);
+        } else {
+            timeToFull = -1;
+        }
+    }
+}
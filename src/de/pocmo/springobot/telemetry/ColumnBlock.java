@@ -0,0 +1,116 @@
+/*
+   Copyright 2011 Sebastian Kaspari
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package de.pocmo.springobot.telemetry;
+
+
+/**
+ * Index entry of a block of a column in a columnar telemetry file.
+ *
+ * @author Sebastian Kaspari <s.kaspari@gmail.com>
+ */
+public class ColumnBlock
+{
+    private final int column;
+    private final long startRow;
+    private final int count;
+    private final long min;
+    private final long max;
+    private final long offset;
+    private final int length;
+
+    /**
+     * Create a new index entry.
+     *
+     * @param column   Column (packet id or ColumnarReader.TIME).
+     * @param startRow Row of the first value in the block.
+     * @param count    Number of values in the block.
+     * @param min      Smallest value in the block.
+     * @param max      Largest value in the block.
+     * @param offset   Position of the block in the file.
+     * @param length   Number of encoded bytes.
+     */
+    ColumnBlock(int column, long startRow, int count, long min, long max, long offset, int length)
+    {
+        this.column   = column;
+        this.startRow = startRow;
+        this.count    = count;
+        this.min      = min;
+        this.max      = max;
+        this.offset   = offset;
+        this.length   = length;
+    }
+
+    /**
+     * Get the column of this block.
+     *
+     * @return Packet id or ColumnarReader.TIME.
+     */
+    public int getColumn()
+    {
+        return column;
+    }
+
+    /**
+     * Get the row of the first value in this block.
+     *
+     * @return Row number (0 for the first frame written).
+     */
+    public long getStartRow()
+    {
+        return startRow;
+    }
+
+    /**
+     * Get the number of values in this block. The values belong to
+     * consecutive rows.
+     *
+     * @return Number of values.
+     */
+    public int getCount()
+    {
+        return count;
+    }
+
+    /**
+     * Get the smallest value in this block.
+     *
+     * @return Minimum value.
+     */
+    public long getMin()
+    {
+        return min;
+    }
+
+    /**
+     * Get the largest value in this block.
+     *
+     * @return Maximum value.
+     */
+    public long getMax()
+    {
+        return max;
+    }
+
+    long getOffset()
+    {
+        return offset;
+    }
+
+    int getLength()
+    {
+        return length;
+    }
+}
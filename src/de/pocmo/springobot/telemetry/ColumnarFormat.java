@@ -0,0 +1,225 @@
+/*
+   Copyright 2011 Sebastian Kaspari
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package de.pocmo.springobot.telemetry;
+
+
+/**
+ * Constants and encoding helpers of the columnar telemetry format.
+ *
+ * File layout:
+ *
+ *   [magic] [version] [block]* [index] [index offset (8 bytes)] [magic]
+ *
+ * Every block holds consecutive rows of one column. Values are stored
+ * as differences to the previous value (time stamps as differences of
+ * differences), zig-zag and varint encoded. Runs of zero differences
+ * are stored as a single token. The index lists column, first row,
+ * row count, minimum, maximum, offset and length of every block.
+ *
+ * @author Sebastian Kaspari <s.kaspari@gmail.com>
+ */
+class ColumnarFormat
+{
+    /**
+     * Magic bytes at the start and end of a file ("SOBT").
+     */
+    static final int MAGIC = 0x534F4254;
+
+    /**
+     * Version of the format.
+     */
+    static final int VERSION = 1;
+
+    /**
+     * Number of columns (time column and one per packet id).
+     */
+    static final int COLUMNS = 43;
+
+    /**
+     * Zig-zag encode a signed value.
+     */
+    static long zigZag(long value)
+    {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    /**
+     * Decode a zig-zag encoded value.
+     */
+    static long unZigZag(long value)
+    {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    /**
+     * Number of difference orders used for the given column.
+     */
+    static int order(int column)
+    {
+        return column == ColumnarReader.TIME ? 2 : 1;
+    }
+
+    /**
+     * Encode count values of a column into the given buffer.
+     *
+     * @param values Values to encode.
+     * @param count  Number of values.
+     * @param order  1 for differences, 2 for differences of differences.
+     * @param buffer Buffer to append the encoded bytes to.
+     */
+    static void encode(long[] values, int count, int order, EncodeBuffer buffer)
+    {
+        buffer.writeVarLong(zigZag(values[0]));
+
+        long previous = values[0];
+        long previousDelta = 0;
+        long zeros = 0;
+
+        for (int i = 1; i < count; i++) {
+            long delta = values[i] - previous;
+            long token = order == 2 && i > 1 ? delta - previousDelta : delta;
+
+            previous      = values[i];
+            previousDelta = delta;
+
+            if (order == 2 && i == 1) {
+                buffer.writeVarLong(zigZag(delta));
+                continue;
+            }
+
+            if (token == 0) {
+                zeros++;
+                continue;
+            }
+
+            if (zeros > 0) {
+                buffer.writeVarLong((zeros << 1) | 1);
+                zeros = 0;
+            }
+
+            buffer.writeVarLong(zigZag(token) << 1);
+        }
+
+        if (zeros > 0) {
+            buffer.writeVarLong((zeros << 1) | 1);
+        }
+    }
+
+    /**
+     * Decode count values of a column.
+     *
+     * @param data   Encoded block.
+     * @param count  Number of values in the block.
+     * @param order  1 for differences, 2 for differences of differences.
+     * @param values Array to store the values in.
+     * @param offset Position of the first value in the array.
+     */
+    static void decode(byte[] data, int count, int order, long[] values, int offset)
+    {
+        int[] position = { 0 };
+
+        long value = unZigZag(readVarLong(data, position));
+        long delta = 0;
+
+        values[offset] = value;
+
+        int i = 1;
+
+        if (order == 2 && count > 1) {
+            delta = unZigZag(readVarLong(data, position));
+            value += delta;
+            values[offset + i++] = value;
+        }
+
+        while (i < count) {
+            long token = readVarLong(data, position);
+            long run   = 1;
+            long step  = 0;
+
+            if ((token & 1) == 1) {
+                run = token >>> 1;
+            } else {
+                step = unZigZag(token >>> 1);
+            }
+
+            for (long r = 0; r < run && i < count; r++) {
+                if (order == 2) {
+                    delta += step;
+                    value += delta;
+                } else {
+                    value += step;
+                }
+
+                values[offset + i++] = value;
+            }
+        }
+    }
+
+    /**
+     * Read an unsigned varint.
+     *
+     * @param data     Buffer to read from.
+     * @param position Read position, updated.
+     * @return The value.
+     */
+    static long readVarLong(byte[] data, int[] position)
+    {
+        long value = 0;
+        int shift  = 0;
+
+        while (true) {
+            int b = data[position[0]++];
+
+            value |= (long) (b & 0x7F) << shift;
+
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+
+            shift += 7;
+        }
+    }
+
+    /**
+     * Growable byte buffer with varint support.
+     */
+    static class EncodeBuffer
+    {
+        byte[] data = new byte[1024];
+        int size;
+
+        void clear()
+        {
+            size = 0;
+        }
+
+        void writeVarLong(long value)
+        {
+            if (size + 10 > data.length) {
+                byte[] grown = new byte[data.length * 2];
+                System.arraycopy(data, 0, grown, 0, size);
+                data = grown;
+            }
+
+            while ((value & ~0x7FL) != 0) {
+                data[size++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+
+            data[size++] = (byte) value;
+        }
+    }
+}
@@ -0,0 +1,222 @@
+/*
+   Copyright 2011 Sebastian Kaspari
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package de.pocmo.springobot.telemetry;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+
+/**
+ * Reads columnar telemetry files written by ColumnarWriter.
+ *
+ * Opening a file only reads its index. Reading a column only reads the
+ * blocks of that column.
+ *
+ * @author Sebastian Kaspari <s.kaspari@gmail.com>
+ * @see de.pocmo.springobot.telemetry.ColumnarWriter
+ */
+public class ColumnarReader
+{
+    /**
+     * Column of the receive time in microseconds.
+     */
+    public static final int TIME = 0;
+
+    private RandomAccessFile file;
+    private long rows;
+
+    /**
+     * Blocks by column.
+     */
+    private List<List<ColumnBlock>> blocks = new ArrayList<List<ColumnBlock>>();
+
+    /**
+     * Open a columnar telemetry file.
+     *
+     * @param file The file to read.
+     * @throws IOException If the file can not be read or is not a
+     *                     columnar telemetry file.
+     */
+    public ColumnarReader(File file) throws IOException
+    {
+        this.file = new RandomAccessFile(file, "r");
+
+        for (int column = 0; column < ColumnarFormat.COLUMNS; column++) {
+            blocks.add(new ArrayList<ColumnBlock>());
+        }
+
+        try {
+            readIndex();
+        } catch (IOException exception) {
+            this.file.close();
+            throw exception;
+        }
+    }
+
+    /**
+     * Get the number of rows (frames) in the file.
+     *
+     * @return Number of rows.
+     */
+    public long getRowCount()
+    {
+        return rows;
+    }
+
+    /**
+     * Get the blocks of the given column in row order.
+     *
+     * @param column Packet id or TIME.
+     * @return The blocks (may be empty).
+     */
+    public List<ColumnBlock> getBlocks(int column)
+    {
+        return Collections.unmodifiableList(blocks.get(column));
+    }
+
+    /**
+     * Read and decode a single block.
+     *
+     * @param block The block to read.
+     * @return One value per row of the block.
+     * @throws IOException
+     */
+    public long[] readBlock(ColumnBlock block) throws IOException
+    {
+        long[] values = new long[block.getCount()];
+
+        readBlock(block, values, 0);
+
+        return values;
+    }
+
+    /**
+     * Read all values of a column.
+     *
+     * Rows in which the packet has not been streamed are left out, use
+     * getBlocks() to map values to rows.
+     *
+     * @param column Packet id or TIME.
+     * @return The values in row order.
+     * @throws IOException
+     */
+    public long[] readColumn(int column) throws IOException
+    {
+        List<ColumnBlock> columnBlocks = blocks.get(column);
+
+        long total = 0;
+
+        for (ColumnBlock block : columnBlocks) {
+            total += block.getCount();
+        }
+
+        if (total > Integer.MAX_VALUE) {
+            throw new IOException("Column too large, read it block by block");
+        }
+
+        long[] values = new long[(int) total];
+        int offset = 0;
+
+        for (ColumnBlock block : columnBlocks) {
+            readBlock(block, values, offset);
+            offset += block.getCount();
+        }
+
+        return values;
+    }
+
+    /**
+     * Close the file.
+     *
+     * @throws IOException
+     */
+    public void close() throws IOException
+    {
+        file.close();
+    }
+
+    private void readBlock(ColumnBlock block, long[] values, int offset) throws IOException
+    {
+        byte[] data = new byte[block.getLength()];
+
+        synchronized (file) {
+            file.seek(block.getOffset());
+            file.readFully(data);
+        }
+
+        ColumnarFormat.decode(data, block.getCount(), ColumnarFormat.order(block.getColumn()), values, offset);
+    }
+
+    private void readIndex() throws IOException
+    {
+        long length = file.length();
+
+        file.seek(0);
+
+        if (length < 20 || file.readInt() != ColumnarFormat.MAGIC) {
+            throw new IOException("Not a columnar telemetry file");
+        }
+
+        if (file.readInt() != ColumnarFormat.VERSION) {
+            throw new IOException("Unsupported columnar telemetry version");
+        }
+
+        file.seek(length - 12);
+
+        long indexOffset = file.readLong();
+
+        if (file.readInt() != ColumnarFormat.MAGIC || indexOffset < 8 || indexOffset > length - 12) {
+            throw new IOException("Columnar telemetry file is incomplete");
+        }
+
+        byte[] data = new byte[(int) (length - 12 - indexOffset)];
+
+        file.seek(indexOffset);
+        file.readFully(data);
+
+        DataInputStream index = new DataInputStream(new ByteArrayInputStream(data));
+
+        rows = index.readLong();
+
+        int count = index.readInt();
+
+        for (int i = 0; i < count; i++) {
+            int column = index.readUnsignedByte();
+
+            if (column >= ColumnarFormat.COLUMNS) {
+                throw new IOException("Invalid column in index: " + column);
+            }
+
+            ColumnBlock block = new ColumnBlock(
+                column,
+                index.readLong(),  // Start row
+                index.readInt(),   // Count
+                index.readLong(),  // Min
+                index.readLong(),  // Max
+                index.readLong(),  // Offset
+                index.readInt()    // Length
+            );
+
+            blocks.get(column).add(block);
+        }
+    }
+}
@@ -0,0 +1,220 @@
+/*
+   Copyright 2011 Sebastian Kaspari
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package de.pocmo.springobot.telemetry;
+
+import de.pocmo.springobot.sensors.Frame;
+import de.pocmo.springobot.sensors.StreamLayout;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+
+/**
+ * Writes stream frames into a compact columnar telemetry file.
+ *
+ * Every frame is a row. The receive time (in microseconds) and every
+ * packet are stored in their own column, split into blocks of a fixed
+ * number of rows. Blocks are written as soon as they are full, the
+ * index is written by close().
+ *
+ * @author Sebastian Kaspari <s.kaspari@gmail.com>
+ * @see de.pocmo.springobot.telemetry.ColumnarReader
+ */
+public class ColumnarWriter
+{
+    /**
+     * Default number of rows per block.
+     */
+    public static final int DEFAULT_BLOCK_SIZE = 4096;
+
+    private DataOutputStream stream;
+    private int blockSize;
+
+    /**
+     * Buffered values by column.
+     */
+    private long[][] values = new long[ColumnarFormat.COLUMNS][];
+
+    /**
+     * Number of buffered values by column.
+     */
+    private int[] counts = new int[ColumnarFormat.COLUMNS];
+
+    /**
+     * Row of the first buffered value by column.
+     */
+    private long[] startRows = new long[ColumnarFormat.COLUMNS];
+
+    private List<ColumnBlock> index = new ArrayList<ColumnBlock>();
+    private ColumnarFormat.EncodeBuffer encoded = new ColumnarFormat.EncodeBuffer();
+
+    private long rows;
+    private long position;
+
+    /**
+     * Create a new writer with the default block size.
+     *
+     * @param stream The stream to write to.
+     * @throws IOException
+     */
+    public ColumnarWriter(OutputStream stream) throws IOException
+    {
+        this(stream, DEFAULT_BLOCK_SIZE);
+    }
+
+    /**
+     * Create a new writer.
+     *
+     * @param stream    The stream to write to.
+     * @param blockSize Number of rows per block.
+     * @throws IOException
+     */
+    public ColumnarWriter(OutputStream stream, int blockSize) throws IOException
+    {
+        if (blockSize < 2) {
+            throw new IllegalArgumentException("Block size must be at least 2");
+        }
+
+        this.stream    = new DataOutputStream(new BufferedOutputStream(stream, 65536));
+        this.blockSize = blockSize;
+
+        this.stream.writeInt(ColumnarFormat.MAGIC);
+        this.stream.writeInt(ColumnarFormat.VERSION);
+        this.position = 8;
+    }
+
+    /**
+     * Append a frame as new row.
+     *
+     * @param frame The frame to write.
+     * @throws IOException
+     */
+    public void write(Frame frame) throws IOException
+    {
+        StreamLayout layout = frame.getLayout();
+
+        // A column that is missing in this row ends its current block
+        for (int column = 1; column < ColumnarFormat.COLUMNS; column++) {
+            if (counts[column] > 0 && !layout.contains(column)) {
+                flush(column);
+            }
+        }
+
+        append(ColumnarReader.TIME, frame.getTimestamp() / 1000);
+
+        for (int i = 0; i < layout.size(); i++) {
+            int packetId = layout.getPacketId(i);
+
+            append(packetId, frame.get(packetId));
+        }
+
+        rows++;
+    }
+
+    /**
+     * Get the number of rows written.
+     *
+     * @return Number of frames written.
+     */
+    public long getRowCount()
+    {
+        return rows;
+    }
+
+    /**
+     * Write all buffered blocks and the index and close the stream.
+     *
+     * @throws IOException
+     */
+    public void close() throws IOException
+    {
+        for (int column = 0; column < ColumnarFormat.COLUMNS; column++) {
+            if (counts[column] > 0) {
+                flush(column);
+            }
+        }
+
+        long indexOffset = position;
+
+        stream.writeLong(rows);
+        stream.writeInt(index.size());
+
+        for (ColumnBlock block : index) {
+            stream.writeByte(block.getColumn());
+            stream.writeLong(block.getStartRow());
+            stream.writeInt(block.getCount());
+            stream.writeLong(block.getMin());
+            stream.writeLong(block.getMax());
+            stream.writeLong(block.getOffset());
+            stream.writeInt(block.getLength());
+        }
+
+        stream.writeLong(indexOffset);
+        stream.writeInt(ColumnarFormat.MAGIC);
+        stream.close();
+    }
+
+    /**
+     * Buffer a value and write the block if it is full.
+     */
+    private void append(int column, long value) throws IOException
+    {
+        if (values[column] == null) {
+            values[column] = new long[blockSize];
+        }
+
+        if (counts[column] == 0) {
+            startRows[column] = rows;
+        }
+
+        values[column][counts[column]++] = value;
+
+        if (counts[column] == blockSize) {
+            flush(column);
+        }
+    }
+
+    /**
+     * Encode and write the buffered values of a column as one block.
+     */
+    private void flush(int column) throws IOException
+    {
+        long[] columnValues = values[column];
+        int count = counts[column];
+
+        long min = Long.MAX_VALUE;
+        long max = Long.MIN_VALUE;
+
+        for (int i = 0; i < count; i++) {
+            min = Math.min(min, columnValues[i]);
+            max = Math.max(max, columnValues[i]);
+        }
+
+        encoded.clear();
+        ColumnarFormat.encode(columnValues, count, ColumnarFormat.order(column), encoded);
+
+        stream.write(encoded.data, 0, encoded.size);
+
+        index.add(new ColumnBlock(column, startRows[column], count, min, max, position, encoded.size));
+
+        position += encoded.size;
+        counts[column] = 0;
+    }
+}
@@ -0,0 +1,175 @@
+/*
+   Copyright 2011 Sebastian Kaspari
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package de.pocmo.springobot.telemetry;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * Lock-free ring of timestamped byte records for exactly one producer
+ * and one consumer thread.
+ *
+ * A record is stored as timestamp (8 bytes), length (2 bytes) and the
+ * data. Records that do not fit are dropped, so the producer never
+ * waits for the consumer.
+ *
+ * @author Sebastian Kaspari <s.kaspari@gmail.com>
+ */
+final class RecordRing
+{
+    /**
+     * Bytes in front of the data of every record.
+     */
+    static final int RECORD_HEADER = 10;
+
+    /**
+     * Largest data length of a single record.
+     */
+    static final int MAX_RECORD = 0xFFFF;
+
+    private final byte[] buffer;
+    private final int mask;
+
+    /**
+     * Position after the last record written (producer).
+     */
+    private final AtomicLong head = new AtomicLong();
+
+    /**
+     * Position of the first record not read yet (consumer).
+     */
+    private final AtomicLong tail = new AtomicLong();
+
+    /**
+     * Producer's cached copy of tail.
+     */
+    private long tailCache;
+
+    private volatile long droppedBytes;
+
+    RecordRing(int capacity)
+    {
+        int size = Integer.highestOneBit(Math.max(capacity, 2 * (RECORD_HEADER + 1)) - 1) << 1;
+
+        buffer = new byte[size];
+        mask   = size - 1;
+    }
+
+    /**
+     * Append a record (producer only).
+     *
+     * @return False if the record has been dropped.
+     */
+    boolean offer(long timestamp, byte[] data, int offset, int length)
+    {
+        long position = head.get();
+        long needed   = RECORD_HEADER + length;
+
+        if (position + needed - tailCache > buffer.length) {
+            tailCache = tail.get();
+
+            if (position + needed - tailCache > buffer.length) {
+                droppedBytes += length;
+                return false;
+            }
+        }
+
+        for (int shift = 56; shift >= 0; shift -= 8) {
+            buffer[(int) (position++ & mask)] = (byte) (timestamp >>> shift);
+        }
+
+        buffer[(int) (position++ & mask)] = (byte) (length >>> 8);
+        buffer[(int) (position++ & mask)] = (byte) length;
+
+        copyIn(position, data, offset, length);
+
+        // Publish the record
+        head.lazySet(position + length);
+
+        return true;
+    }
+
+    /**
+     * Get the timestamp of the next record (consumer only).
+     *
+     * @return The timestamp or Long.MAX_VALUE if the ring is empty.
+     */
+    long peekTimestamp()
+    {
+        long position = tail.get();
+
+        if (position == head.get()) {
+            return Long.MAX_VALUE;
+        }
+
+        long timestamp = 0;
+
+        for (int i = 0; i < 8; i++) {
+            timestamp = (timestamp << 8) | (buffer[(int) (position++ & mask)] & 0xFF);
+        }
+
+        return timestamp;
+    }
+
+    /**
+     * Write the next record to the stream and remove it (consumer
+     * only). The ring must not be empty.
+     *
+     * @param stream    The stream to write to.
+     * @param direction Direction byte written in front of the record.
+     * @return Number of bytes written.
+     * @throws IOException
+     */
+    int poll(DataOutputStream stream, int direction) throws IOException
+    {
+        long position = tail.get();
+
+        int length = ((buffer[(int) ((position + 8) & mask)] & 0xFF) << 8)
+            | (buffer[(int) ((position + 9) & mask)] & 0xFF);
+
+        stream.writeByte(direction);
+        copyOut(position, RECORD_HEADER + length, stream);
+
+        tail.lazySet(position + RECORD_HEADER + length);
+
+        return 1 + RECORD_HEADER + length;
+    }
+
+    long getDroppedBytes()
+    {
+        return droppedBytes;
+    }
+
+    private void copyIn(long position, byte[] data, int offset, int length)
+    {
+        int start = (int) (position & mask);
+        int first = Math.min(length, buffer.length - start);
+
+        System.arraycopy(data, offset, buffer, start, first);
+        System.arraycopy(data, offset + first, buffer, 0, length - first);
+    }
+
+    private void copyOut(long position, int length, DataOutputStream stream) throws IOException
+    {
+        int start = (int) (position & mask);
+        int first = Math.min(length, buffer.length - start);
+
+        stream.write(buffer, start, first);
+        stream.write(buffer, 0, length - first);
+    }
+}
@@ -0,0 +1,325 @@
+/*
+   Copyright 2011 Sebastian Kaspari
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package de.pocmo.springobot.telemetry;
+
+
+/**
+ * Fixed-size history of one sensor value.
+ *
+ * Samples are kept in a ring buffer of primitive arrays. Running sums
+ * and min/max trees are updated on every sample, so aggregates over any
+ * time window are answered in O(log n) without allocating. Once the
+ * buffer is full the oldest samples are overwritten.
+ *
+ * @author Sebastian Kaspari <s.kaspari@gmail.com>
+ */
+public class TimeSeries
+{
+    /**
+     * Number of slots (power of two).
+     */
+    private final int capacity;
+
+    private final long[] times;
+    private final int[] values;
+
+    /**
+     * Sum of all values added up to and including the slot's sample.
+     */
+    private final long[] sums;
+
+    /**
+     * Segment trees over the slots; leaves start at index capacity.
+     */
+    private final int[] minTree;
+    private final int[] maxTree;
+
+    /**
+     * Sequence number of the next sample.
+     */
+    private long next;
+
+    /**
+     * Sum of all values ever added.
+     */
+    private long total;
+
+    /**
+     * Create a new time series.
+     *
+     * @param capacity Minimum number of samples to keep (rounded up to
+     *                 the next power of two).
+     */
+    public TimeSeries(int capacity)
+    {
+        if (capacity < 1 || capacity > (1 << 29)) {
+            throw new IllegalArgumentException("Invalid capacity: " + capacity);
+        }
+
+        int size = 1;
+
+        while (size < capacity) {
+            size <<= 1;
+        }
+
+        this.capacity = size;
+
+        times   = new long[size];
+        values  = new int[size];
+        sums    = new long[size];
+        minTree = new int[2 * size];
+        maxTree = new int[2 * size];
+    }
+
+    /**
+     * Add a sample.
+     *
+     * @param time  Time of the sample (see Clock.nanoTime()). Times must not
+     *              decrease; earlier times are moved to the last time.
+     * @param value The value.
+     */
+    public synchronized void add(long time, int value)
+    {
+        if (next > 0 && time < times[slot(next - 1)]) {
+            time = times[slot(next - 1)];
+        }
+
+        int slot = slot(next);
+
+        total += value;
+
+        times[slot]  = time;
+        values[slot] = value;
+        sums[slot]   = total;
+
+        int node = slot + capacity;
+
+        minTree[node] = value;
+        maxTree[node] = value;
+
+        for (node >>= 1; node > 0; node >>= 1) {
+            minTree[node] = Math.min(minTree[2 * node], minTree[2 * node + 1]);
+            maxTree[node] = Math.max(maxTree[2 * node], maxTree[2 * node + 1]);
+        }
+
+        next++;
+    }
+
+    /**
+     * Get the number of samples kept.
+     *
+     * @return Number of samples.
+     */
+    public synchronized int size()
+    {
+        return (int) Math.min(next, capacity);
+    }
+
+    /**
+     * Get the time of the latest sample.
+     *
+     * @return Timestamp or 0 if the series is empty.
+     */
+    public synchronized long getLastTime()
+    {
+        return next == 0 ? 0 : times[slot(next - 1)];
+    }
+
+    /**
+     * Get the latest value.
+     *
+     * @return Value or 0 if the series is empty.
+     */
+    public synchronized int getLast()
+    {
+        return next == 0 ? 0 : values[slot(next - 1)];
+    }
+
+    /**
+     * Get the number of samples in the time window.
+     *
+     * @param from Start of the window (inclusive).
+     * @param to   End of the window (inclusive).
+     * @return Number of samples.
+     */
+    public synchronized int count(long from, long to)
+    {
+        long first = first(from);
+        long last  = last(to);
+
+        return last < first ? 0 : (int) (last - first + 1);
+    }
+
+    /**
+     * Get the sum of the values in the time window.
+     *
+     * @param from Start of the window (inclusive).
+     * @param to   End of the window (inclusive).
+     * @return Sum of the values (0 if no sample is in the window).
+     */
+    public synchronized long sum(long from, long to)
+    {
+        long first = first(from);
+        long last  = last(to);
+
+        if (last < first) {
+            return 0;
+        }
+
+        return sums[slot(last)] - sums[slot(first)] + values[slot(first)];
+    }
+
+    /**
+     * Get the average of the values in the time window.
+     *
+     * @param from Start of the window (inclusive).
+     * @param to   End of the window (inclusive).
+     * @return Average or NaN if no sample is in the window.
+     */
+    public synchronized double average(long from, long to)
+    {
+        int count = count(from, to);
+
+        return count == 0 ? Double.NaN : (double) sum(from, to) / count;
+    }
+
+    /**
+     * Get the smallest value in the time window.
+     *
+     * @param from Start of the window (inclusive).
+     * @param to   End of the window (inclusive).
+     * @return Minimum or Integer.MAX_VALUE if no sample is in the window.
+     */
+    public synchronized int min(long from, long to)
+    {
+        long first = first(from);
+        long last  = last(to);
+
+        if (last < first) {
+            return Integer.MAX_VALUE;
+        }
+
+        int start = slot(first);
+        int end   = slot(last);
+
+        if (start <= end) {
+            return query(minTree, start, end, true);
+        }
+
+        return Math.min(query(minTree, start, capacity - 1, true), query(minTree, 0, end, true));
+    }
+
+    /**
+     * Get the largest value in the time window.
+     *
+     * @param from Start of the window (inclusive).
+     * @param to   End of the window (inclusive).
+     * @return Maximum or Integer.MIN_VALUE if no sample is in the window.
+     */
+    public synchronized int max(long from, long to)
+    {
+        long first = first(from);
+        long last  = last(to);
+
+        if (last < first) {
+            return Integer.MIN_VALUE;
+        }
+
+        int start = slot(first);
+        int end   = slot(last);
+
+        if (start <= end) {
+            return query(maxTree, start, end, false);
+        }
+
+        return Math.max(query(maxTree, start, capacity - 1, false), query(maxTree, 0, end, false));
+    }
+
+    /**
+     * Query a segment tree for the slots start to end (inclusive).
+     */
+    private int query(int[] tree, int start, int end, boolean min)
+    {
+        int result = min ? Integer.MAX_VALUE : Integer.MIN_VALUE;
+
+        int left  = start + capacity;
+        int right = end + capacity + 1;
+
+        while (left < right) {
+            if ((left & 1) == 1) {
+                result = min ? Math.min(result, tree[left]) : Math.max(result, tree[left]);
+                left++;
+            }
+
+            if ((right & 1) == 1) {
+                right--;
+                result = min ? Math.min(result, tree[right]) : Math.max(result, tree[right]);
+            }
+
+            left  >>= 1;
+            right >>= 1;
+        }
+
+        return result;
+    }
+
+    /**
+     * Sequence number of the first kept sample at or after the time.
+     */
+    private long first(long time)
+    {
+        long low  = Math.max(0, next - capacity);
+        long high = next;
+
+        while (low < high) {
+            long middle = (low + high) >>> 1;
+
+            if (times[slot(middle)] < time) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+
+        return low;
+    }
+
+    /**
+     * Sequence number of the last kept sample at or before the time.
+     */
+    private long last(long time)
+    {
+        long low  = Math.max(0, next - capacity);
+        long high = next;
+
+        while (low < high) {
+            long middle = (low + high) >>> 1;
+
+            if (times[slot(middle)] <= time) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+
+        return low - 1;
+    }
+
+    private int slot(long sequence)
+    {
+        return (int) (sequence & (capacity - 1));
+    }
+}
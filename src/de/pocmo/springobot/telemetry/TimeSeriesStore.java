@@ -0,0 +1,154 @@
+/*
+   Copyright 2011 Sebastian Kaspari
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package de.pocmo.springobot.telemetry;
+
+import de.pocmo.springobot.sensors.Frame;
+import de.pocmo.springobot.sensors.StreamLayout;
+
+
+/**
+ * In-memory history of sensor values with windowed aggregates.
+ *
+ * Feed every frame to record(). Queries like "average CURRENT over the
+ * last 10 seconds" are answered from per-packet TimeSeries without
+ * scanning old frames. Windows end at the time of the latest frame
+ * recorded.
+ *
+ * @author Sebastian Kaspari <s.kaspari@gmail.com>
+ */
+public class TimeSeriesStore
+{
+    /**
+     * Series by packet id or null for packets not kept.
+     */
+    private TimeSeries[] series = new TimeSeries[StreamLayout.MAX_PACKET_ID + 1];
+
+    /**
+     * Time of the latest frame recorded.
+     */
+    private volatile long lastTime;
+
+    /**
+     * Create a new store.
+     *
+     * @param capacity  Number of samples to keep per packet.
+     * @param packetIds The packets to keep (see Sensor).
+     */
+    public TimeSeriesStore(int capacity, int... packetIds)
+    {
+        for (int packetId : packetIds) {
+            if (packetId < 0 || packetId > StreamLayout.MAX_PACKET_ID) {
+                throw new IllegalArgumentException("Unknown sensor packet id: " + packetId);
+            }
+
+            series[packetId] = new TimeSeries(capacity);
+        }
+    }
+
+    /**
+     * Add the values of a frame.
+     *
+     * @param frame The frame to record.
+     */
+    public void record(Frame frame)
+    {
+        StreamLayout layout = frame.getLayout();
+        long time = frame.getTimestamp();
+
+        for (int i = 0; i < layout.size(); i++) {
+            int packetId = layout.getPacketId(i);
+
+            if (series[packetId] != null) {
+                series[packetId].add(time, frame.get(packetId));
+            }
+        }
+
+        lastTime = time;
+    }
+
+    /**
+     * Get the history of a packet.
+     *
+     * @param packetId Sensor packet id.
+     * @return The series.
+     */
+    public TimeSeries getSeries(int packetId)
+    {
+        if (packetId < 0 || packetId > StreamLayout.MAX_PACKET_ID || series[packetId] == null) {
+            throw new IllegalArgumentException("Packet not kept: " + packetId);
+        }
+
+        return series[packetId];
+    }
+
+    /**
+     * Get the average value of a packet over the last milliseconds.
+     *
+     * @param packetId Sensor packet id.
+     * @param window   Length of the window in milliseconds.
+     * @return Average or NaN if there is no sample in the window.
+     */
+    public double average(int packetId, long window)
+    {
+        long to = lastTime;
+
+        return getSeries(packetId).average(to - window * 1000000L, to);
+    }
+
+    /**
+     * Get the smallest value of a packet over the last milliseconds.
+     *
+     * @param packetId Sensor packet id.
+     * @param window   Length of the window in milliseconds.
+     * @return Minimum or Integer.MAX_VALUE if there is no sample in the
+     *         window.
+     */
+    public int min(int packetId, long window)
+    {
+        long to = lastTime;
+
+        return getSeries(packetId).min(to - window * 1000000L, to);
+    }
+
+    /**
+     * Get the largest value of a packet over the last milliseconds.
+     *
+     * @param packetId Sensor packet id.
+     * @param window   Length of the window in milliseconds.
+     * @return Maximum or Integer.MIN_VALUE if there is no sample in the
+     *         window.
+     */
+    public int max(int packetId, long window)
+    {
+        long to = lastTime;
+
+        return getSeries(packetId).max(to - window * 1000000L, to);
+    }
+
+    /**
+     * Get the sum of the values of a packet over the last milliseconds.
+     *
+     * @param packetId Sensor packet id.
+     * @param window   Length of the window in milliseconds.
+     * @return Sum (0 if there is no sample in the window).
+     */
+    public long sum(int packetId, long window)
+    {
+        long to = lastTime;
+
+        return getSeries(packetId).sum(to - window * 1000000L, to);
+    }
+}
@@ -0,0 +1,232 @@
+/*
+   Copyright 2011 Sebastian Kaspari
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package de.pocmo.springobot.telemetry;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+
+/**
+ * Records the raw bytes crossing the serial link in both directions.
+ *
+ * Attach the tap with RobotReader.setTap() and RobotWriter.setTap().
+ * Every run of bytes read or written is stored with its timestamp in a
+ * lock-free ring per direction; the reading and writing threads never
+ * block and never allocate. If a ring is full, new bytes are dropped
+ * and counted. While the tap is disabled, recording costs a single
+ * volatile read.
+ *
+ * Another thread periodically calls drain() to move the recorded runs
+ * into a capture stream, ordered by time:
+ *
+ * <pre>
+ * capture: "SOWT" [version] record*
+ * record:  [direction] [timestamp (8)] [length (2)] [bytes]
+ * </pre>
+ *
+ * Direction is INBOUND (robot to host) or OUTBOUND (host to robot),
+ * timestamps are nanoseconds of the reader's or writer's clock.
+ *
+ * @author Sebastian Kaspari <s.kaspari@gmail.com>
+ */
+public class WireTap
+{
+    /**
+     * Direction of bytes read from the robot.
+     */
+    public static final int INBOUND = 0;
+
+    /**
+     * Direction of bytes written to the robot.
+     */
+    public static final int OUTBOUND = 1;
+
+    /**
+     * Default capacity of each ring in bytes.
+     */
+    public static final int DEFAULT_CAPACITY = 64 * 1024;
+
+    static final String MAGIC = "SOWT";
+    static final int VERSION = 1;
+
+    private final RecordRing inbound;
+    private final RecordRing outbound;
+
+    private volatile boolean enabled;
+
+    /**
+     * Create a new, disabled tap with the default capacity (more than
+     * five seconds of traffic at 115200 baud).
+     */
+    public WireTap()
+    {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Create a new, disabled tap.
+     *
+     * @param capacity Bytes to buffer per direction (rounded up to a
+     *                 power of two).
+     */
+    public WireTap(int capacity)
+    {
+        if (capacity < 1 || capacity > (1 << 30)) {
+            throw new IllegalArgumentException("Invalid capacity: " + capacity);
+        }
+
+        inbound  = new RecordRing(capacity);
+        outbound = new RecordRing(capacity);
+    }
+
+    /**
+     * Start or stop recording.
+     *
+     * @param enabled True to record.
+     */
+    public void setEnabled(boolean enabled)
+    {
+        this.enabled = enabled;
+    }
+
+    /**
+     * Check whether the tap is recording.
+     *
+     * @return True if recording.
+     */
+    public boolean isEnabled()
+    {
+        return enabled;
+    }
+
+    /**
+     * Record bytes read from the robot. Must only be called by the
+     * thread reading from the robot.
+     *
+     * @param timestamp Time the bytes have been read.
+     * @param data      Buffer containing the bytes.
+     * @param offset    Position of the first byte.
+     * @param length    Number of bytes.
+     */
+    public void inbound(long timestamp, byte[] data, int offset, int length)
+    {
+        if (enabled) {
+            record(inbound, timestamp, data, offset, length);
+        }
+    }
+
+    /**
+     * Record bytes written to the robot. Must only be called by one
+     * thread at a time (RobotWriter writes synchronized).
+     *
+     * @param timestamp Time the bytes have been written.
+     * @param data      Buffer containing the bytes.
+     * @param offset    Position of the first byte.
+     * @param length    Number of bytes.
+     */
+    public void outbound(long timestamp, byte[] data, int offset, int length)
+    {
+        if (enabled) {
+            record(outbound, timestamp, data, offset, length);
+        }
+    }
+
+    /**
+     * Get the number of bytes that have not been recorded because the
+     * ring of their direction was full.
+     *
+     * @param direction INBOUND or OUTBOUND.
+     * @return Number of dropped bytes.
+     */
+    public long getDroppedBytes(int direction)
+    {
+        return ring(direction).getDroppedBytes();
+    }
+
+    /**
+     * Write the header of a capture file.
+     *
+     * @param stream The capture stream.
+     * @throws IOException
+     */
+    public static void writeHeader(OutputStream stream) throws IOException
+    {
+        stream.write(MAGIC.getBytes("US-ASCII"));
+        stream.write(VERSION);
+    }
+
+    /**
+     * Move all recorded runs into a capture stream, ordered by time.
+     * Must only be called by one thread at a time.
+     *
+     * @param stream The capture stream (after writeHeader()).
+     * @return Number of bytes written.
+     * @throws IOException
+     */
+    public synchronized long drain(OutputStream stream) throws IOException
+    {
+        DataOutputStream output = new DataOutputStream(new BufferedOutputStream(stream));
+        long written = 0;
+
+        while (true) {
+            long in  = inbound.peekTimestamp();
+            long out = outbound.peekTimestamp();
+
+            if (in == Long.MAX_VALUE && out == Long.MAX_VALUE) {
+                break;
+            }
+
+            if (in <= out) {
+                written += inbound.poll(output, INBOUND);
+            } else {
+                written += outbound.poll(output, OUTBOUND);
+            }
+        }
+
+        output.flush();
+
+        return written;
+    }
+
+    private void record(RecordRing ring, long timestamp, byte[] data, int offset, int length)
+    {
+        while (length > RecordRing.MAX_RECORD) {
+            ring.offer(timestamp, data, offset, RecordRing.MAX_RECORD);
+
+            offset += RecordRing.MAX_RECORD;
+            length -= RecordRing.MAX_RECORD;
+        }
+
+        if (length > 0) {
+            ring.offer(timestamp, data, offset, length);
+        }
+    }
+
+    private RecordRing ring(int direction)
+    {
+        if (direction == INBOUND) {
+            return inbound;
+        }
+
+        if (direction == OUTBOUND) {
+            return outbound;
+        }
+
+        throw new IllegalArgumentException("Unknown direction: " + direction);
+    }
+}